@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.benchmark;
+
+import fr.paris.lutece.plugins.adminauthenticationoauth2.business.authentication.AdminOauth2User;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Service;
+import fr.paris.lutece.plugins.oauth2.business.Token;
+import fr.paris.lutece.portal.service.admin.AccessDeniedException;
+import fr.paris.lutece.portal.service.security.UserNotSignedException;
+import fr.paris.lutece.test.LuteceTestCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpSession;
+
+/**
+ * Lutece environment of the benchmarks : the services are booted once per forked JVM as for the tests of the plugin, with the mapping of the plugin
+ * properties (uid, ids.first_name, ids.preferred_username, ids.email)
+ */
+public final class BenchmarkEnvironment extends LuteceTestCase
+{
+    public static final String URL_ADMIN_MENU = "/lutece/jsp/admin/AdminMenu.jsp";
+    private static final String LOGIN_PREFIX = "benchmark-user-";
+    private static final int UNMAPPED_CLAIMS = 20;
+
+    private static BenchmarkEnvironment _environment;
+
+    /** Private constructor */
+    private BenchmarkEnvironment( )
+    {
+    }
+
+    /**
+     * Boot the Lutece services, once
+     *
+     * @throws Exception
+     *             if the services cannot be booted
+     */
+    public static synchronized void start( ) throws Exception
+    {
+        if ( _environment == null )
+        {
+            BenchmarkEnvironment environment = new BenchmarkEnvironment( );
+            environment.setUp( );
+            _environment = environment;
+        }
+    }
+
+    /**
+     * Build the user info of a user, as returned by the authorization server : the mapped claims among unmapped ones
+     *
+     * @param nUser
+     *            the index of the user
+     * @return the user info
+     */
+    public static Map<String, Object> getUserInfo( int nUser )
+    {
+        Map<String, Object> mapUserInfo = new HashMap<>( );
+        mapUserInfo.put( "uid", LOGIN_PREFIX + nUser );
+        mapUserInfo.put( "ids.first_name", "First" + nUser );
+        mapUserInfo.put( "ids.preferred_username", "Last" + nUser );
+        mapUserInfo.put( "ids.email", LOGIN_PREFIX + nUser + "@example.com" );
+
+        List<String> listGroups = new ArrayList<>( );
+        for ( int i = 0; i < UNMAPPED_CLAIMS; i++ )
+        {
+            mapUserInfo.put( "claim_" + i, "value-" + nUser + "-" + i );
+            listGroups.add( "/benchmark/group-" + i );
+        }
+        mapUserInfo.put( "groups", listGroups );
+
+        return mapUserInfo;
+    }
+
+    /**
+     * Build a token, without ID token
+     *
+     * @param nUser
+     *            the index of the user
+     * @return the token
+     */
+    public static Token getToken( int nUser )
+    {
+        Token token = new Token( );
+        token.setAccessToken( "access-" + nUser );
+        token.setRefreshToken( "refresh-" + nUser );
+        token.setExpiresIn( 3600 );
+
+        return token;
+    }
+
+    /**
+     * Authenticate a user in a session, as the callback of a login does
+     *
+     * @param session
+     *            the session
+     * @param nUser
+     *            the index of the user
+     * @return the authenticated user
+     * @throws AccessDeniedException
+     *             if the user is not allowed to access the back office
+     * @throws UserNotSignedException
+     *             if the user is not signed
+     */
+    public static AdminOauth2User authenticate( MockHttpSession session, int nUser ) throws AccessDeniedException, UserNotSignedException
+    {
+        MockHttpServletRequest request = new MockHttpServletRequest( "GET", URL_ADMIN_MENU );
+        request.setSession( session );
+
+        return Oauth2Service.getInstance( ).processAuthentication( request, getUserInfo( nUser ), getToken( nUser ) );
+    }
+}
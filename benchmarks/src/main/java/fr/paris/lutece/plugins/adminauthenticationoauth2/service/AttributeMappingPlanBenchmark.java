@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service;
+
+import fr.paris.lutece.plugins.adminauthenticationoauth2.benchmark.BenchmarkEnvironment;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.business.authentication.AdminOauth2User;
+import fr.paris.lutece.plugins.oauth2.business.Token;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * AttributeMappingPlan benchmark : the admin user built from its claims by the compiled plan, against the per-login mapping it replaces which reads
+ * the mapping properties on each login
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class AttributeMappingPlanBenchmark
+{
+    private static final int USERS = 64;
+
+    private final List<Map<String, Object>> _listUserInfos = new ArrayList<>( );
+    private final List<Token> _listTokens = new ArrayList<>( );
+    private AttributeMappingPlan _plan;
+    private int _nUser;
+
+    /**
+     * Compile the plan and build the user infos
+     *
+     * @throws Exception
+     *             if the environment cannot be booted
+     */
+    @Setup
+    public void setUp( ) throws Exception
+    {
+        BenchmarkEnvironment.start( );
+        _plan = Oauth2Service.getInstance( ).getMappingPlan( );
+
+        for ( int i = 0; i < USERS; i++ )
+        {
+            _listUserInfos.add( BenchmarkEnvironment.getUserInfo( i ) );
+            _listTokens.add( BenchmarkEnvironment.getToken( i ) );
+        }
+    }
+
+    /**
+     * After : the compiled plan
+     *
+     * @return the admin user
+     */
+    @Benchmark
+    public AdminOauth2User compiledPlan( )
+    {
+        int nUser = nextUser( );
+
+        return _plan.createUser( new HashMap<>( _listUserInfos.get( nUser ) ), _listTokens.get( nUser ), Oauth2Utils.getAuthService( ) );
+    }
+
+    /**
+     * Before : the per-login mapping
+     *
+     * @return the admin user
+     */
+    @Benchmark
+    public AdminOauth2User perLoginMapping( )
+    {
+        int nUser = nextUser( );
+
+        return mapPerLogin( new HashMap<>( _listUserInfos.get( nUser ) ), _listTokens.get( nUser ) );
+    }
+
+    private int nextUser( )
+    {
+        int nUser = _nUser;
+        _nUser = ( nUser + 1 ) % USERS;
+
+        return nUser;
+    }
+
+    /**
+     * The mapping done by Oauth2Service.processAuthentication before the compiled plan
+     *
+     * @param mapUserInfo
+     *            the user info
+     * @param token
+     *            the token
+     * @return the admin user
+     */
+    private static AdminOauth2User mapPerLogin( Map<String, Object> mapUserInfo, Token token )
+    {
+        Map<String, List<String>> mapUserMapping = new HashMap<>( );
+        String strUserMappingAttributes = AppPropertiesService.getProperty( Oauth2Utils.PROPERTY_USER_MAPPING_ATTRIBUTES );
+        for ( String strUserProperty : strUserMappingAttributes.split( Oauth2Utils.SEPARATOR ) )
+        {
+            String strClaimName = AppPropertiesService.getProperty( Oauth2Utils.CONSTANT_LUTECE_USER_PROPERTIES_PATH + "." + strUserProperty );
+            mapUserMapping.computeIfAbsent( strClaimName, k -> new ArrayList<>( ) ).add( strUserProperty );
+        }
+
+        AdminOauth2User user = null;
+        for ( String s : AppPropertiesService.getProperty( Oauth2Utils.PROPERTY_USER_KEY_NAME ).split( Oauth2Utils.SEPARATOR ) )
+        {
+            if ( mapUserInfo.containsKey( s ) )
+            {
+                user = new AdminOauth2User( (String) mapUserInfo.get( s ), token, Oauth2Utils.getAuthService( ) );
+            }
+        }
+
+        if ( user == null )
+        {
+            return null;
+        }
+
+        for ( Entry<String, Object> entry : mapUserInfo.entrySet( ) )
+        {
+            if ( mapUserMapping.containsKey( entry.getKey( ) ) )
+            {
+                for ( String strUserInfo : mapUserMapping.get( entry.getKey( ) ) )
+                {
+                    Object val = entry.getValue( );
+                    if ( val instanceof ArrayList<?> )
+                    {
+                        StringBuilder strBufVal = new StringBuilder( );
+                        for ( Object tabVal : (ArrayList<?>) val )
+                        {
+                            strBufVal.append( tabVal.toString( ) );
+                            strBufVal.append( Oauth2Utils.SEPARATOR );
+                        }
+                        user.setUserInfo( strUserInfo, strBufVal.toString( ) );
+                    }
+                    else
+                    {
+                        user.setUserInfo( strUserInfo, (String) val );
+                    }
+                }
+            }
+        }
+
+        String strIdentityKey = user.getAccessCode( );
+        String strIdentityKeyAttribute = AppPropertiesService.getProperty( Oauth2Utils.PROPERTY_IDENTITY_ATTRIBUTE_KEY );
+        if ( strIdentityKeyAttribute != null && mapUserInfo.containsKey( strIdentityKeyAttribute ) )
+        {
+            strIdentityKey = mapUserInfo.get( strIdentityKeyAttribute ).toString( );
+        }
+        user.setAccessCode( strIdentityKey );
+
+        String strEmailKeyAttribute = AppPropertiesService.getProperty( Oauth2Utils.PROPERTY_EMAIL_ATTRIBUTE_KEY );
+        if ( strEmailKeyAttribute != null && mapUserInfo.containsKey( strEmailKeyAttribute ) )
+        {
+            user.setEmail( mapUserInfo.get( strEmailKeyAttribute ).toString( ) );
+        }
+
+        String strLastNameKeyAttribute = AppPropertiesService.getProperty( Oauth2Utils.PROPERTY_LASTNAME_ATTRIBUTE_KEY );
+        if ( strLastNameKeyAttribute != null && mapUserInfo.containsKey( strLastNameKeyAttribute ) )
+        {
+            user.setLastName( mapUserInfo.get( strLastNameKeyAttribute ).toString( ) );
+        }
+
+        String strFirstNameKeyAttribute = AppPropertiesService.getProperty( Oauth2Utils.PROPERTY_FIRSTNAME_ATTRIBUTE_KEY );
+        if ( strFirstNameKeyAttribute != null && mapUserInfo.containsKey( strFirstNameKeyAttribute ) )
+        {
+            user.setFirstName( mapUserInfo.get( strFirstNameKeyAttribute ).toString( ) );
+        }
+
+        return user;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service;
+
+import fr.paris.lutece.plugins.adminauthenticationoauth2.benchmark.BenchmarkEnvironment;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.business.authentication.AdminOauth2User;
+import fr.paris.lutece.plugins.oauth2.business.Token;
+import fr.paris.lutece.portal.service.admin.AccessDeniedException;
+import fr.paris.lutece.portal.service.security.UserNotSignedException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpSession;
+
+/**
+ * Oauth2Service.processAuthentication benchmark : the login of users already created in database, each in its own session. The mapping of the
+ * claims, the session registry and the registration of the user with its rights are measured.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class Oauth2ServiceBenchmark
+{
+    private static final int USERS = 64;
+
+    private final MockHttpSession [ ] _sessions = new MockHttpSession [ USERS ];
+    private final Map<String, Object> [ ] _userInfos = newUserInfos( );
+    private final Token [ ] _tokens = new Token [ USERS ];
+    private int _nUser;
+
+    /**
+     * Create the users in database, with a first login
+     *
+     * @throws Exception
+     *             if the environment cannot be booted or a user cannot be authenticated
+     */
+    @Setup
+    public void setUp( ) throws Exception
+    {
+        BenchmarkEnvironment.start( );
+
+        for ( int i = 0; i < USERS; i++ )
+        {
+            _sessions [i] = new MockHttpSession( );
+            _userInfos [i] = BenchmarkEnvironment.getUserInfo( i );
+            _tokens [i] = BenchmarkEnvironment.getToken( i );
+            BenchmarkEnvironment.authenticate( _sessions [i], i );
+        }
+    }
+
+    /**
+     * Login of the next user
+     *
+     * @return the user
+     * @throws AccessDeniedException
+     *             if the user is not allowed to access the back office
+     * @throws UserNotSignedException
+     *             if the user is not signed
+     */
+    @Benchmark
+    public AdminOauth2User processAuthentication( ) throws AccessDeniedException, UserNotSignedException
+    {
+        int nUser = _nUser;
+        _nUser = ( nUser + 1 ) % USERS;
+
+        MockHttpServletRequest request = new MockHttpServletRequest( "GET", BenchmarkEnvironment.URL_ADMIN_MENU );
+        request.setSession( _sessions [nUser] );
+
+        return Oauth2Service.getInstance( ).processAuthentication( request, new HashMap<>( _userInfos [nUser] ), _tokens [nUser] );
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static Map<String, Object> [ ] newUserInfos( )
+    {
+        return new Map [ USERS ];
+    }
+}
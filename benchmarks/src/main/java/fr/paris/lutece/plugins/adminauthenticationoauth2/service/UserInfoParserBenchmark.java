@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.benchmark.BenchmarkEnvironment;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * UserInfoParser benchmark : streaming extraction of the claims read by the attribute mapping from a user info document, against the full parsing it
+ * replaces, with a small and a large group list
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class UserInfoParserBenchmark
+{
+    @Param( {
+            "10", "500"
+    } )
+    public int _nGroups;
+
+    private final ObjectMapper _mapper = new ObjectMapper( );
+    private final TypeReference<HashMap<String, Object>> _typeReference = new TypeReference<HashMap<String, Object>>( )
+    {
+    };
+    private String _strJson;
+    private Set<String> _setClaimNames;
+
+    /**
+     * Build the document
+     *
+     * @throws Exception
+     *             if the environment cannot be booted
+     */
+    @Setup
+    public void setUp( ) throws Exception
+    {
+        BenchmarkEnvironment.start( );
+        _setClaimNames = Oauth2Service.getInstance( ).getMappingPlan( ).getClaimNames( );
+
+        StringBuilder sbJson = new StringBuilder( "{" );
+        sbJson.append( "\"uid\":\"f2a5c1e0-1234\"," );
+        sbJson.append( "\"ids.preferred_username\":\"Doe\"," );
+        sbJson.append( "\"groups\":[" );
+        for ( int i = 0; i < _nGroups; i++ )
+        {
+            sbJson.append( ( i > 0 ) ? "," : "" ).append( "\"/paris/direction/group-" ).append( i ).append( '"' );
+        }
+        sbJson.append( "]," );
+        sbJson.append( "\"address\":{\"street_address\":\"1 place de l'H\\u00f4tel de Ville\",\"locality\":\"Paris\",\"postal_code\":\"75004\"}," );
+        sbJson.append( "\"ids.email\":\"john.doe@paris.fr\"," );
+        sbJson.append( "\"email_verified\":true," );
+        sbJson.append( "\"updated_at\":1714557600," );
+        sbJson.append( "\"ids.first_name\":\"John\"," );
+        sbJson.append( "\"roles\":[\"admin\",\"editor\"]" );
+        sbJson.append( "}" );
+        _strJson = sbJson.toString( );
+    }
+
+    /**
+     * After : streaming extraction of the mapped claims
+     *
+     * @return the claims
+     * @throws IOException
+     *             if the document is invalid
+     */
+    @Benchmark
+    public Map<String, Object> streaming( ) throws IOException
+    {
+        return UserInfoParser.parse( _strJson, _setClaimNames );
+    }
+
+    /**
+     * Before : full parsing of the document into a map, as UserInfoParser.parse does without the streaming parser
+     *
+     * @return the claims
+     * @throws IOException
+     *             if the document is invalid
+     */
+    @Benchmark
+    public Map<String, Object> full( ) throws IOException
+    {
+        return _mapper.readValue( _strJson, _typeReference );
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service.session;
+
+import fr.paris.lutece.plugins.adminauthenticationoauth2.benchmark.BenchmarkEnvironment;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Session registry contention benchmark : the requests of the filter touch and check their sessions while an admin user is notified and sessions
+ * log in and out, on a registry of 10 000 sessions of 1 000 users
+ */
+@State( Scope.Group )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class SessionRegistryBenchmark
+{
+    private static final int SESSIONS = 10000;
+    private static final int USERS = 1000;
+    private static final String SESSION_PREFIX = "benchmark-session-";
+    private static final String USER_PREFIX = "benchmark-registry-user-";
+
+    private final AtomicLong _lLoginCount = new AtomicLong( );
+    private IOauth2AdminUserSessionService _registry;
+
+    /**
+     * Register the sessions
+     *
+     * @throws Exception
+     *             if the environment cannot be booted
+     */
+    @Setup
+    public void setUp( ) throws Exception
+    {
+        BenchmarkEnvironment.start( );
+        _registry = Oauth2AdminUserSessionService.getInstance( );
+
+        for ( int i = 0; i < SESSIONS; i++ )
+        {
+            _registry.addAdminUserSession( USER_PREFIX + ( i % USERS ), SESSION_PREFIX + i );
+        }
+    }
+
+    /**
+     * Unregister the sessions
+     */
+    @TearDown
+    public void tearDown( )
+    {
+        for ( int i = 0; i < SESSIONS; i++ )
+        {
+            _registry.removeAdminUserSession( SESSION_PREFIX + i );
+        }
+    }
+
+    /**
+     * A request of the filter
+     *
+     * @return true if the admin user of the session is up to date
+     */
+    @Benchmark
+    @Group( "registry" )
+    @GroupThreads( 6 )
+    public boolean request( )
+    {
+        String strSession = SESSION_PREFIX + ThreadLocalRandom.current( ).nextInt( SESSIONS );
+        _registry.touchAdminUserSession( strSession );
+
+        return _registry.isAdminUserUpToDate( strSession );
+    }
+
+    /**
+     * The notification of an updated admin user
+     */
+    @Benchmark
+    @Group( "registry" )
+    @GroupThreads( 1 )
+    public void notifyUpdating( )
+    {
+        _registry.notifyAdminUserUpdating( USER_PREFIX + ThreadLocalRandom.current( ).nextInt( USERS ) );
+    }
+
+    /**
+     * The login then the logout of a session
+     */
+    @Benchmark
+    @Group( "registry" )
+    @GroupThreads( 1 )
+    public void loginLogout( )
+    {
+        String strSession = SESSION_PREFIX + "login-" + _lLoginCount.incrementAndGet( );
+        _registry.addAdminUserSession( USER_PREFIX + ThreadLocalRandom.current( ).nextInt( USERS ), strSession );
+        _registry.removeAdminUserSession( strSession );
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.web;
+
+import fr.paris.lutece.plugins.adminauthenticationoauth2.benchmark.BenchmarkEnvironment;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.business.authentication.AdminOauth2User;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Utils;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.cache.RefreshTokenValidationCache;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockFilterConfig;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+
+/**
+ * AdminOauth2Filter benchmark : one benchmark per branch of doFilter, prompt none enabled. The refresh token of the authenticated session is
+ * validated from the cache ; its exchange and the reload of a stale admin user call the authorization server and are measured by the load test
+ * instead. Each invocation builds its mock request, response and chain.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class AdminOauth2FilterBenchmark
+{
+    private static final String URL_STYLE_SHEET = "/lutece/css/admin/portal.css";
+    private static final String HEADER_AJAX = "X-Requested-With";
+
+    private AdminOauth2Filter _filter;
+    private MockHttpSession _session;
+
+    /**
+     * Authenticate the session of the requests and init the filter
+     *
+     * @throws Exception
+     *             if the environment cannot be booted or the user cannot be authenticated
+     */
+    @Setup
+    public void setUp( ) throws Exception
+    {
+        BenchmarkEnvironment.start( );
+        AppPropertiesService.putProperty( Oauth2Utils.PROPERTY_USE_PROMPT_NONE, "true" );
+        AppPropertiesService.putProperty( Oauth2Utils.PROPERTY_FILTER_BYPASS_EXTENSIONS, "css,js,png" );
+        AppPropertiesService.putProperty( Oauth2Utils.PROPERTY_VALIDATE_REFRESH_TOKEN_CACHE_TTL, String.valueOf( TimeUnit.DAYS.toSeconds( 1 ) ) );
+
+        _session = new MockHttpSession( );
+        AdminOauth2User user = BenchmarkEnvironment.authenticate( _session, 0 );
+        RefreshTokenValidationCache.getInstance( ).putValidated( user.getToken( ), user.getAccessCode( ) );
+
+        _filter = new AdminOauth2Filter( );
+        _filter.init( new MockFilterConfig( ) );
+    }
+
+    /**
+     * A static resource, bypassed
+     *
+     * @return the chain
+     * @throws IOException
+     *             if the filter fails
+     * @throws ServletException
+     *             if the filter fails
+     */
+    @Benchmark
+    public MockFilterChain bypassed( ) throws IOException, ServletException
+    {
+        return doFilter( request( "GET", URL_STYLE_SHEET, _session ) );
+    }
+
+    /**
+     * A POST of an authenticated session, only touched
+     *
+     * @return the chain
+     * @throws IOException
+     *             if the filter fails
+     * @throws ServletException
+     *             if the filter fails
+     */
+    @Benchmark
+    public MockFilterChain post( ) throws IOException, ServletException
+    {
+        return doFilter( request( "POST", BenchmarkEnvironment.URL_ADMIN_MENU, _session ) );
+    }
+
+    /**
+     * A GET of an authenticated session whose admin user is up to date
+     *
+     * @return the chain
+     * @throws IOException
+     *             if the filter fails
+     * @throws ServletException
+     *             if the filter fails
+     */
+    @Benchmark
+    public MockFilterChain upToDate( ) throws IOException, ServletException
+    {
+        return doFilter( request( "GET", BenchmarkEnvironment.URL_ADMIN_MENU, _session ) );
+    }
+
+    /**
+     * An anonymous GET white listed by its header
+     *
+     * @return the chain
+     * @throws IOException
+     *             if the filter fails
+     * @throws ServletException
+     *             if the filter fails
+     */
+    @Benchmark
+    public MockFilterChain anonymousWhiteListed( ) throws IOException, ServletException
+    {
+        MockHttpServletRequest request = request( "GET", BenchmarkEnvironment.URL_ADMIN_MENU, null );
+        request.addHeader( HEADER_AJAX, "XMLHttpRequest" );
+
+        return doFilter( request );
+    }
+
+    /**
+     * An anonymous GET, redirected to the login with prompt none
+     *
+     * @return the response
+     * @throws IOException
+     *             if the filter fails
+     * @throws ServletException
+     *             if the filter fails
+     */
+    @Benchmark
+    public MockHttpServletResponse anonymousLoginRequired( ) throws IOException, ServletException
+    {
+        MockHttpServletResponse response = new MockHttpServletResponse( );
+        _filter.doFilter( request( "GET", BenchmarkEnvironment.URL_ADMIN_MENU, null ), response, new MockFilterChain( ) );
+
+        return response;
+    }
+
+    private MockFilterChain doFilter( MockHttpServletRequest request ) throws IOException, ServletException
+    {
+        MockFilterChain chain = new MockFilterChain( );
+        _filter.doFilter( request, new MockHttpServletResponse( ), chain );
+
+        return chain;
+    }
+
+    private static MockHttpServletRequest request( String strMethod, String strRequestUri, MockHttpSession session )
+    {
+        MockHttpServletRequest request = new MockHttpServletRequest( strMethod, strRequestUri );
+        request.setContextPath( "/lutece" );
+
+        if ( session != null )
+        {
+            request.setSession( session );
+        }
+
+        return request;
+    }
+}
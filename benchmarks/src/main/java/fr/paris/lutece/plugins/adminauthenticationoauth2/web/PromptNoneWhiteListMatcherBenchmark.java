@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.web;
+
+import fr.paris.lutece.plugins.adminauthenticationoauth2.benchmark.BenchmarkEnvironment;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Utils;
+import fr.paris.lutece.portal.service.util.AppPathService;
+import fr.paris.lutece.util.url.UrlItem;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+/**
+ * PromptNoneWhiteListMatcher benchmark : 120 URL patterns of every kind and 2 white listed headers, matched against white listed requests and near
+ * misses, one request per operation, by the compiled matcher and by the per-request matching of the filter it replaces
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class PromptNoneWhiteListMatcherBenchmark
+{
+    private static final int PATTERN_GROUPS = 20;
+    private static final String HEADER_AJAX = "X-Requested-With";
+    private static final String HEADER_CLIENT = "X-Lutece-Client";
+
+    private final List<String> _listUrlPatterns = new ArrayList<>( );
+    private final Map<String, List<String>> _mapHeaders = new LinkedHashMap<>( );
+    private PromptNoneWhiteListMatcher _matcher;
+    private MockHttpServletRequest [ ] _requests;
+    private URL _baseUrl;
+    private int _nRequest;
+
+    /**
+     * Compile the white lists and build the requests
+     *
+     * @throws Exception
+     *             if the environment cannot be booted
+     */
+    @Setup
+    public void setUp( ) throws Exception
+    {
+        BenchmarkEnvironment.start( );
+        _baseUrl = new URL( AppPathService.getBaseUrl( new MockHttpServletRequest( ) ) );
+
+        for ( int i = 0; i < PATTERN_GROUPS; i++ )
+        {
+            _listUrlPatterns.add( "jsp/admin/plugins/exact" + i + "/Manage.jsp" );
+            _listUrlPatterns.add( "jsp/admin/plugins/prefix" + i + "/*" );
+            _listUrlPatterns.add( "http://sso.example.com/app/page" + i + ".jsp" );
+            _listUrlPatterns.add( "https://cdn.example.com/static/" + i + "/*" );
+            _listUrlPatterns.add( "jsp/admin/plugins/param" + i + "/Page.jsp?view=list" );
+            _listUrlPatterns.add( "jsp/admin/plugins/paramprefix" + i + "/*?plugin_name=p&id=1" );
+        }
+
+        _mapHeaders.put( HEADER_AJAX, Arrays.asList( "XMLHttpRequest" ) );
+        _mapHeaders.put( HEADER_CLIENT, Arrays.asList( "batch", "Monitoring" ) );
+
+        List<Set<String>> listHeaderValues = new ArrayList<>( );
+        for ( List<String> listValues : _mapHeaders.values( ) )
+        {
+            Set<String> setValues = new TreeSet<>( String.CASE_INSENSITIVE_ORDER );
+            setValues.addAll( listValues );
+            listHeaderValues.add( setValues );
+        }
+        _matcher = new PromptNoneWhiteListMatcher( _listUrlPatterns, new ArrayList<>( _mapHeaders.keySet( ) ), listHeaderValues );
+        _requests = buildRequests( ).toArray( new MockHttpServletRequest [ 0 ] );
+    }
+
+    /**
+     * After : matching of the next request by the compiled matcher
+     *
+     * @return true if the request is white listed
+     */
+    @Benchmark
+    public boolean compiled( )
+    {
+        return _matcher.matches( nextRequest( ) );
+    }
+
+    /**
+     * Before : matching of the next request by the patterns, as the filter did on each request
+     *
+     * @return true if the request is white listed
+     */
+    @Benchmark
+    public boolean perRequest( )
+    {
+        return isWhiteListedByPatterns( nextRequest( ) );
+    }
+
+    private MockHttpServletRequest nextRequest( )
+    {
+        MockHttpServletRequest request = _requests [_nRequest];
+        _nRequest = ( _nRequest + 1 ) % _requests.length;
+
+        return request;
+    }
+
+    /**
+     * Requests matching the patterns and near misses of each pattern
+     *
+     * @return the requests
+     */
+    private List<MockHttpServletRequest> buildRequests( )
+    {
+        List<MockHttpServletRequest> listRequests = new ArrayList<>( );
+
+        for ( int i = 0; i < PATTERN_GROUPS; i++ )
+        {
+            listRequests.add( relative( "jsp/admin/plugins/exact" + i + "/Manage.jsp" ) );
+            listRequests.add( relative( "jsp/admin/plugins/exact" + i + "/Manage.jspx" ) );
+            listRequests.add( relative( "jsp/admin/plugins/prefix" + i + "/sub/Page.jsp" ) );
+            listRequests.add( relative( "jsp/admin/plugins/prefix" + i + "0/Page.jsp" ) );
+            listRequests.add( absolute( "http", "sso.example.com", 80, "/app/page" + i + ".jsp" ) );
+            listRequests.add( absolute( "https", "sso.example.com", 443, "/app/page" + i + ".jsp" ) );
+            listRequests.add( absolute( "https", "cdn.example.com", 443, "/static/" + i + "/style.css" ) );
+            listRequests.add( absolute( "http", "cdn.example.com", 80, "/static/" + i + "/style.css" ) );
+
+            MockHttpServletRequest request = relative( "jsp/admin/plugins/param" + i + "/Page.jsp" );
+            request.addParameter( "view", "list" );
+            listRequests.add( request );
+
+            request = relative( "jsp/admin/plugins/param" + i + "/Page.jsp" );
+            request.addParameter( "view", "detail" );
+            listRequests.add( request );
+
+            request = relative( "jsp/admin/plugins/paramprefix" + i + "/Page.jsp" );
+            request.addParameter( "plugin_name", "p" );
+            request.addParameter( "id", "1" );
+            listRequests.add( request );
+
+            listRequests.add( relative( "jsp/admin/plugins/paramprefix" + i + "/Page.jsp" ) );
+
+            request = relative( "jsp/admin/AdminMenu.jsp" );
+            request.addHeader( HEADER_AJAX, "xmlhttprequest" );
+            listRequests.add( request );
+
+            request = relative( "jsp/admin/AdminMenu.jsp" );
+            request.addHeader( HEADER_CLIENT, "other" );
+            listRequests.add( request );
+        }
+
+        return listRequests;
+    }
+
+    /**
+     * Build a request of the webapp
+     *
+     * @param strPath
+     *            the path relative to the webapp root
+     * @return the request
+     */
+    private MockHttpServletRequest relative( String strPath )
+    {
+        String strContextPath = _baseUrl.getPath( ).endsWith( "/" ) ? _baseUrl.getPath( ) : ( _baseUrl.getPath( ) + "/" );
+        int nPort = ( _baseUrl.getPort( ) != -1 ) ? _baseUrl.getPort( ) : _baseUrl.getDefaultPort( );
+        MockHttpServletRequest request = absolute( _baseUrl.getProtocol( ), _baseUrl.getHost( ), nPort, strContextPath + strPath );
+        request.setContextPath( strContextPath.substring( 0, strContextPath.length( ) - 1 ) );
+
+        return request;
+    }
+
+    private static MockHttpServletRequest absolute( String strScheme, String strHost, int nPort, String strRequestUri )
+    {
+        MockHttpServletRequest request = new MockHttpServletRequest( "GET", strRequestUri );
+        request.setScheme( strScheme );
+        request.setServerName( strHost );
+        request.setServerPort( nPort );
+        request.setSecure( "https".equals( strScheme ) );
+
+        return request;
+    }
+
+    /**
+     * The per-request matching of the white lists done by the filter before the compiled matcher
+     *
+     * @param request
+     *            the request
+     * @return true if the request is white listed
+     */
+    private boolean isWhiteListedByPatterns( HttpServletRequest request )
+    {
+        boolean bHeaderMatch = _mapHeaders.keySet( ).stream( ).anyMatch(
+                x -> request.getHeader( x ) != null && _mapHeaders.get( x ).stream( ).anyMatch( v -> v.equalsIgnoreCase( request.getHeader( x ) ) ) );
+
+        return bHeaderMatch || _listUrlPatterns.stream( ).anyMatch( x -> matchUrl( request, x ) );
+    }
+
+    private static boolean matchUrl( HttpServletRequest request, String strUrlPatern )
+    {
+        UrlItem url = new UrlItem( request.getRequestURL( ).toString( ) );
+
+        if ( strUrlPatern.contains( Oauth2Utils.URL_INTERROGATIVE ) )
+        {
+            for ( String strParamPatternValue : strUrlPatern.substring( strUrlPatern.indexOf( Oauth2Utils.URL_INTERROGATIVE ) + 1 )
+                    .split( Oauth2Utils.URL_AMPERSAND ) )
+            {
+                String [ ] arrayPatternParamValue = strParamPatternValue.split( Oauth2Utils.URL_EQUAL );
+
+                if ( request.getParameter( arrayPatternParamValue [0] ) != null )
+                {
+                    url.addParameter( arrayPatternParamValue [0], request.getParameter( arrayPatternParamValue [0] ) );
+                }
+            }
+        }
+
+        if ( strUrlPatern.contains( Oauth2Utils.URL_STAR ) )
+        {
+            String strUrlPaternLeftEnd = strUrlPatern.substring( 0, strUrlPatern.indexOf( Oauth2Utils.URL_STAR ) );
+
+            return url.getUrl( ).startsWith( getAbsoluteUrl( request, strUrlPaternLeftEnd ) );
+        }
+
+        return url.getUrl( ).equals( getAbsoluteUrl( request, strUrlPatern ) );
+    }
+
+    private static String getAbsoluteUrl( HttpServletRequest request, String strUrl )
+    {
+        if ( !strUrl.startsWith( "http://" ) && !strUrl.startsWith( "https://" ) )
+        {
+            return AppPathService.getBaseUrl( request ) + strUrl;
+        }
+
+        return strUrl;
+    }
+}
@@ -68,12 +68,21 @@ package fr.paris.lutece.plugins.adminauthenticationoauth2.business.authenticatio
 
 import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Service;
 import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Utils;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.RefreshTokenRejectedException;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.cache.RefreshTokenValidationCache;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.metrics.Oauth2Metrics;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.metrics.Oauth2Metrics.Outcome;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.metrics.Oauth2Metrics.Phase;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.refresh.Oauth2TokenRefreshService;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.resilience.Oauth2ProfileService;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.session.Oauth2AdminUserSessionService;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.session.SessionAttributeWriter;
 import fr.paris.lutece.plugins.oauth2.business.Token;
 import fr.paris.lutece.plugins.oauth2.service.DataClientService;
-import fr.paris.lutece.plugins.oauth2.service.TokenService;
 import fr.paris.lutece.portal.business.user.AdminUser;
 import fr.paris.lutece.portal.business.user.authentication.AdminAuthentication;
 import fr.paris.lutece.portal.service.admin.AccessDeniedException;
+import fr.paris.lutece.portal.service.admin.AdminAuthenticationService;
 import fr.paris.lutece.portal.service.admin.AdminUserService;
 import fr.paris.lutece.portal.service.security.UserNotSignedException;
 import fr.paris.lutece.portal.service.util.AppLogService;
@@ -84,13 +93,13 @@ import javax.servlet.http.HttpSession;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Map;
 
 /**
  * Data authentication module for admin authentication
  */
 public class AdminOauth2Authentication implements AdminAuthentication
 {
+    private static final String SESSION_ATTRIBUTE_LOGIN_NEXT_URL = "luteceAdminLoginNextUrl";
 
     /**
      *
@@ -146,7 +155,7 @@ public class AdminOauth2Authentication implements AdminAuthentication
         if ( user == null )
         {
             HttpSession session = request.getSession( true );
-            session.setAttribute( "luteceAdminLoginNextUrl", getLoginPageUrl( ) );
+            SessionAttributeWriter.setAttribute( session, SESSION_ATTRIBUTE_LOGIN_NEXT_URL, getLoginPageUrl( ) );
             return null;
         }
 
@@ -157,18 +166,66 @@ public class AdminOauth2Authentication implements AdminAuthentication
             if ( userOauth.getToken( ).getRefreshToken( ) != null )
             {
                 AuthDataClient authDataClient = (AuthDataClient) DataClientService.instance( ).getClient( Oauth2Utils.AUTH_DATA_CLIENT_NAME );
-                Token token = TokenService.getService( ).getTokenByRefreshToken( userOauth.getToken( ).getRefreshToken( ) );
+                HttpSession session = request.getSession( false );
+                String strSession = ( session != null ) ? session.getId( ) : null;
+                Oauth2Metrics metrics = Oauth2Metrics.getInstance( );
+                long lStart = metrics.start( );
+
                 try
                 {
-                    Map<String, Object> mapUserInfo = authDataClient.parse( authDataClient.getData( token ) );
-                    return Oauth2Service.getInstance( ).processAuthentication( request, mapUserInfo, token );
+                    // concurrent reloads of the same session share a single call to the authorization server, the last profile is used if it fails
+                    AdminOauth2UserInfo userInfo = Oauth2ProfileService.getInstance( ).getUserInfo( userOauth.getAccessCode( ), userOauth.getToken( ), ( ) -> {
+                        Token token;
+
+                        if ( Oauth2TokenRefreshService.getInstance( ).isTokenFresh( strSession, userOauth ) )
+                        {
+                            // the token has been renewed in the background
+                            token = userOauth.getToken( );
+                        }
+                        else
+                        {
+                            long lRefreshStart = metrics.start( );
+                            String strRefreshToken = userOauth.getToken( ).getRefreshToken( );
+                            token = Oauth2TokenRefreshService.getInstance( ).exchangeRefreshToken( userOauth, strRefreshToken );
+                            metrics.record( Phase.TOKEN_REFRESH, lRefreshStart, ( token != null ) ? Outcome.SUCCESS : Outcome.LOGIN_REQUIRED );
+                        }
+                        if ( token == null )
+                        {
+                            throw new RefreshTokenRejectedException( "The refresh token has been rejected by the authorization server" );
+                        }
+
+                        return new AdminOauth2UserInfo( token, authDataClient.getUserInfo( token ) );
+                    } );
+
+                    AdminOauth2User reloadedUser = Oauth2Service.getInstance( ).refreshAuthentication( request, userOauth, userInfo.getUserInfo( ),
+                            userInfo.getToken( ) );
+
+                    if ( userInfo.isCached( ) && strSession != null )
+                    {
+                        // the authorization server is unavailable : the profile is retrieved again on the next request of the session
+                        Oauth2AdminUserSessionService.getInstance( ).markAdminUserSessionStale( strSession );
+                    }
+                    metrics.record( Phase.RELOAD_USER, lStart, Outcome.SUCCESS );
+
+                    return reloadedUser;
+                }
+                catch( RefreshTokenRejectedException e )
+                {
+                    // the session has been revoked on the authorization server
+                    metrics.record( Phase.RELOAD_USER, lStart, Outcome.LOGIN_REQUIRED );
+                    AppLogService.info( "The refresh token of admin user " + userOauth.getAccessCode( ) + " has been rejected, the user is logged out" );
+                    logout( request, session, userOauth );
+
+                    return null;
                 }
                 catch( IOException e )
                 {
+                    metrics.record( Phase.RELOAD_USER, lStart, Outcome.IO_ERROR );
                     AppLogService.error( "error during retrieving user info with refresh token  ", e );
                 }
                 catch( AccessDeniedException | UserNotSignedException e )
                 {
+                    metrics.record( Phase.RELOAD_USER, lStart, Outcome.ACCESS_DENIED );
                     // Not an error : the user is not authenticated or does not have the rights to access the application
                     throw new RuntimeException( e );
                 }
@@ -179,6 +236,29 @@ public class AdminOauth2Authentication implements AdminAuthentication
         return user;
     }
 
+    /**
+     * Log out a user whose session has been revoked
+     *
+     * @param request
+     *            the request
+     * @param session
+     *            the session, may be null
+     * @param user
+     *            the user
+     */
+    private static void logout( HttpServletRequest request, HttpSession session, AdminOauth2User user )
+    {
+        RefreshTokenValidationCache.getInstance( ).invalidate( user.getToken( ).getRefreshToken( ) );
+        Oauth2ProfileService.getInstance( ).invalidate( user.getAccessCode( ) );
+
+        if ( session != null )
+        {
+            Oauth2AdminUserSessionService.getInstance( ).removeAdminUserSession( session.getId( ) );
+        }
+
+        AdminAuthenticationService.getInstance( ).logoutUser( request );
+    }
+
     @Override
     public String getLoginPageUrl( )
     {
@@ -66,18 +66,58 @@
  */
 package fr.paris.lutece.plugins.adminauthenticationoauth2.business.authentication;
 
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Utils;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.session.SessionRegistrySnapshotService;
 import fr.paris.lutece.plugins.oauth2.business.Token;
 import fr.paris.lutece.portal.business.user.AdminUser;
 import fr.paris.lutece.portal.business.user.authentication.AdminAuthentication;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.servlet.http.HttpSessionActivationListener;
+import javax.servlet.http.HttpSessionEvent;
 
 /**
  * Admin user implementation for database authentication module
+ * <p>
+ * The token is written with the serialized user, so that it survives the session replication and persistence : the serialized sessions then hold
+ * the refresh token of the user, a credential, and must be protected as such. The property adminauthenticationoauth2.session.serializeToken set to
+ * false keeps the token out of the sessions, the users logging in again after a failover.
+ * </p>
  */
-public class AdminOauth2User extends AdminUser
+public class AdminOauth2User extends AdminUser implements HttpSessionActivationListener
 {
+    private static final long serialVersionUID = 1L;
+
+    /** First version of the serialized layout of the token, written inline */
+    private static final byte TOKEN_LAYOUT_INLINE = 1;
+    /** Version of the serialized layout of the token : a length-prefixed block, the next versions only appending fields to it */
+    private static final byte TOKEN_LAYOUT_VERSION = 2;
+    private static final int NULL_STRING_LENGTH = -1;
+
+    /** The token, serialized by {@link #writeObject(ObjectOutputStream)} so that it survives the session replication. */
+    private transient volatile Token _token;
+
+    /** The fingerprint of the claims the user has been built from. */
+    private String _strClaimsFingerprint;
+
+    /** Serializes the exchanges of the refresh token of the user, whatever the path renewing it. */
+    private transient ReentrantLock _tokenExchangeLock = new ReentrantLock( );
 
-    /** The token. */
-    private transient Token _token;
+    /** The time of the last exchange of the refresh token. */
+    private transient volatile long _lTokenExchangeTime;
 
     /**
      * @param strUserName : the user name
@@ -109,4 +149,223 @@ public class AdminOauth2User extends AdminUser
     {
         _token = token;
     }
+
+    /**
+     * Gets the lock held while the refresh token of the user is exchanged
+     *
+     * @return the lock
+     */
+    public ReentrantLock getTokenExchangeLock( )
+    {
+        return _tokenExchangeLock;
+    }
+
+    /**
+     * Gets the time of the last exchange of the refresh token
+     *
+     * @return the time in milliseconds, 0 if the token has not been exchanged since the user was loaded
+     */
+    public long getTokenExchangeTime( )
+    {
+        return _lTokenExchangeTime;
+    }
+
+    /**
+     * Sets the time of the last exchange of the refresh token
+     *
+     * @param lTokenExchangeTime
+     *            the time in milliseconds
+     */
+    public void setTokenExchangeTime( long lTokenExchangeTime )
+    {
+        _lTokenExchangeTime = lTokenExchangeTime;
+    }
+
+    /**
+     * Gets the fingerprint of the claims the user has been built from.
+     *
+     * @return the fingerprint
+     */
+    public String getClaimsFingerprint( )
+    {
+        return _strClaimsFingerprint;
+    }
+
+    /**
+     * Sets the fingerprint of the claims the user has been built from.
+     *
+     * @param strClaimsFingerprint
+     *            the fingerprint
+     */
+    public void setClaimsFingerprint( String strClaimsFingerprint )
+    {
+        _strClaimsFingerprint = strClaimsFingerprint;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sessionWillPassivate( HttpSessionEvent sessionEvent )
+    {
+        // Nothing to do
+    }
+
+    /**
+     * Register again the session restored by the container if it has been saved in the snapshot of the session registry
+     *
+     * @param sessionEvent
+     *            the event
+     */
+    @Override
+    public void sessionDidActivate( HttpSessionEvent sessionEvent )
+    {
+        SessionRegistrySnapshotService.getInstance( ).activate( sessionEvent.getSession( ).getId( ), getAccessCode( ) );
+    }
+
+    /**
+     * Serialize the user : the fields of the admin user then the token, with a versioned layout independent from the Token class of the OAuth2 plugin
+     *
+     * @param out
+     *            the stream
+     * @throws IOException
+     *             if an error occurs
+     */
+    private void writeObject( ObjectOutputStream out ) throws IOException
+    {
+        out.defaultWriteObject( );
+        writeToken( out, AppPropertiesService.getPropertyBoolean( Oauth2Utils.PROPERTY_SESSION_SERIALIZE_TOKEN, true ) ? _token : null );
+    }
+
+    /**
+     * Deserialize the user and its token
+     *
+     * @param in
+     *            the stream
+     * @throws IOException
+     *             if an error occurs
+     * @throws ClassNotFoundException
+     *             if a class of the admin user fields is not found
+     */
+    private void readObject( ObjectInputStream in ) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject( );
+        _token = readToken( in );
+        _tokenExchangeLock = new ReentrantLock( );
+    }
+
+    /**
+     * Write a token with the current layout
+     *
+     * @param out
+     *            the output
+     * @param token
+     *            the token, may be null
+     * @throws IOException
+     *             if an error occurs
+     */
+    static void writeToken( DataOutput out, Token token ) throws IOException
+    {
+        ByteArrayOutputStream block = new ByteArrayOutputStream( );
+        DataOutputStream blockOut = new DataOutputStream( block );
+        blockOut.writeBoolean( token != null );
+
+        if ( token != null )
+        {
+            writeString( blockOut, token.getAccessToken( ) );
+            writeString( blockOut, token.getRefreshToken( ) );
+            writeString( blockOut, token.getTokenType( ) );
+            writeString( blockOut, token.getIdTokenString( ) );
+            blockOut.writeInt( token.getExpiresIn( ) );
+        }
+
+        blockOut.flush( );
+        out.writeByte( TOKEN_LAYOUT_VERSION );
+        out.writeInt( block.size( ) );
+        out.write( block.toByteArray( ) );
+    }
+
+    /**
+     * Read a token written by any version of the layout : the inline first version, or a block whose fields unknown to this version are skipped
+     *
+     * @param in
+     *            the input
+     * @return the token, null if none has been written
+     * @throws IOException
+     *             if an error occurs
+     */
+    static Token readToken( DataInput in ) throws IOException
+    {
+        byte nVersion = in.readByte( );
+
+        if ( nVersion == TOKEN_LAYOUT_INLINE )
+        {
+            return readTokenFields( in );
+        }
+
+        if ( nVersion < TOKEN_LAYOUT_INLINE )
+        {
+            throw new StreamCorruptedException( "Invalid token layout version " + nVersion );
+        }
+
+        int nLength = in.readInt( );
+
+        if ( nLength < 0 )
+        {
+            throw new StreamCorruptedException( "Invalid token block length " + nLength );
+        }
+
+        byte [ ] block = new byte [ nLength ];
+        in.readFully( block );
+
+        return readTokenFields( new DataInputStream( new ByteArrayInputStream( block ) ) );
+    }
+
+    private static Token readTokenFields( DataInput in ) throws IOException
+    {
+        if ( !in.readBoolean( ) )
+        {
+            return null;
+        }
+
+        // the parsed ID token is not restored : it is only read at authentication time
+        Token token = new Token( );
+        token.setAccessToken( readString( in ) );
+        token.setRefreshToken( readString( in ) );
+        token.setTokenType( readString( in ) );
+        token.setIdTokenString( readString( in ) );
+        token.setExpiresIn( in.readInt( ) );
+
+        return token;
+    }
+
+    private static void writeString( DataOutput out, String strValue ) throws IOException
+    {
+        // tokens may exceed the 64 KB limit of writeUTF
+        if ( strValue == null )
+        {
+            out.writeInt( NULL_STRING_LENGTH );
+
+            return;
+        }
+
+        byte [ ] bytes = strValue.getBytes( StandardCharsets.UTF_8 );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+    private static String readString( DataInput in ) throws IOException
+    {
+        int nLength = in.readInt( );
+
+        if ( nLength == NULL_STRING_LENGTH )
+        {
+            return null;
+        }
+
+        byte [ ] bytes = new byte [ nLength ];
+        in.readFully( bytes );
+
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
 }
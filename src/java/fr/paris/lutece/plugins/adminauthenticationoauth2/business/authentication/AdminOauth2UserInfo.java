@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.business.authentication;
+
+import fr.paris.lutece.plugins.oauth2.business.Token;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * User info retrieved from the authorization server with the token used to retrieve it
+ */
+public class AdminOauth2UserInfo
+{
+    private final Token _token;
+    private final Map<String, Object> _mapUserInfo;
+    private final boolean _bCached;
+
+    /**
+     * Constructor
+     *
+     * @param token
+     *            the token
+     * @param mapUserInfo
+     *            the user info
+     */
+    public AdminOauth2UserInfo( Token token, Map<String, Object> mapUserInfo )
+    {
+        this( token, mapUserInfo, false );
+    }
+
+    /**
+     * Constructor
+     *
+     * @param token
+     *            the token
+     * @param mapUserInfo
+     *            the user info
+     * @param bCached
+     *            true if the user info has been served from the cache instead of being retrieved
+     */
+    public AdminOauth2UserInfo( Token token, Map<String, Object> mapUserInfo, boolean bCached )
+    {
+        _token = token;
+        _mapUserInfo = mapUserInfo;
+        _bCached = bCached;
+    }
+
+    /**
+     * Gets the token.
+     *
+     * @return the token
+     */
+    public Token getToken( )
+    {
+        return _token;
+    }
+
+    /**
+     * Gets the user info.
+     *
+     * @return the user info
+     */
+    public Map<String, Object> getUserInfo( )
+    {
+        return _mapUserInfo;
+    }
+
+    /**
+     * Tell if the user info has been served from the cache, the authorization server being unavailable
+     *
+     * @return true if the user info must be retrieved again
+     */
+    public boolean isCached( )
+    {
+        return _bCached;
+    }
+
+    /**
+     * Copy the user info, so that the copy can be modified while the original is shared
+     *
+     * @return the copy
+     */
+    public AdminOauth2UserInfo copy( )
+    {
+        return new AdminOauth2UserInfo( _token, new HashMap<>( _mapUserInfo ), _bCached );
+    }
+}
@@ -33,11 +33,16 @@
  */
 package fr.paris.lutece.plugins.adminauthenticationoauth2.business.authentication;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.IdTokenClaimsService;
 import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Service;
 import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Utils;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.UserInfoParser;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.async.Oauth2CallbackExecutor;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.http.UserInfoHttpClient;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.metrics.Oauth2Metrics;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.metrics.Oauth2Metrics.Outcome;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.metrics.Oauth2Metrics.Phase;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.session.SessionAttributeWriter;
 import fr.paris.lutece.plugins.oauth2.business.Token;
 import fr.paris.lutece.plugins.oauth2.dataclient.AbstractDataClient;
 import fr.paris.lutece.plugins.oauth2.web.Constants;
@@ -52,7 +57,6 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -60,14 +64,7 @@ import java.util.Map;
  */
 public class AuthDataClient extends AbstractDataClient
 {
-
-    private static final ObjectMapper _mapper;
-
-    static
-    {
-        _mapper = new ObjectMapper( );
-        _mapper.disable( DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES );
-    }
+    private static final String TOKEN_METHOD_HEADER = "HEADER";
 
     /**
      * {@inheritDoc }
@@ -75,23 +72,124 @@ public class AuthDataClient extends AbstractDataClient
     @Override
     public void handleToken( Token token, HttpServletRequest request, HttpServletResponse response )
     {
+        // in asynchronous mode the container thread is released while the authorization server is called
+        if ( !Oauth2CallbackExecutor.getInstance( ).dispatch( request, response,
+                ( asyncRequest, asyncResponse ) -> doHandleToken( token, asyncRequest, asyncResponse ) ) )
+        {
+            doHandleToken( token, request, response );
+        }
+    }
+
+    /**
+     * Retrieve the user info of the token, authenticate the user and write the response
+     *
+     * @param token
+     *            the token
+     * @param request
+     *            The HTTP request
+     * @param response
+     *            The HTTP response
+     */
+    private void doHandleToken( Token token, HttpServletRequest request, HttpServletResponse response )
+    {
+        Oauth2Metrics metrics = Oauth2Metrics.getInstance( );
+        long lStart = metrics.start( );
+
         try
         {
-            Map<String, Object> mapUserInfo = parse( getData( token ) );
+            Map<String, Object> mapUserInfo = getUserInfo( token );
             Oauth2Service.getInstance( ).processAuthentication( request, mapUserInfo, token );
             Oauth2Service.redirect( request, response );
-
+            metrics.record( Phase.HANDLE_TOKEN, lStart, Outcome.SUCCESS );
         }
         catch( IOException ex )
         {
+            metrics.record( Phase.HANDLE_TOKEN, lStart, Outcome.IO_ERROR );
             AppLogService.error( "Error parsing UserInfo ", ex );
         }
         catch( AccessDeniedException | UserNotSignedException e )
         {
+            metrics.record( Phase.HANDLE_TOKEN, lStart, Outcome.ACCESS_DENIED );
             // Not an error : the user is redirected to the login page
             throw new RuntimeException( e );
         }
+        catch( RuntimeException e )
+        {
+            metrics.record( Phase.HANDLE_TOKEN, lStart, Outcome.ERROR );
+            throw e;
+        }
+
+    }
+
+    /**
+     * Fetch and parse the user info of a token, recording the latency of each step
+     *
+     * @param token
+     *            the token
+     * @return The UserInfo
+     * @throws IOException
+     *             if an error occurs
+     */
+    public Map<String, Object> getUserInfo( Token token ) throws IOException
+    {
+        return getUserInfo( this, token );
+    }
+
+    /**
+     * Gets the user info of a token, from its ID token when it carries the mapped claims or else from the userinfo endpoint
+     *
+     * @param dataClient
+     *            the data client calling the userinfo endpoint
+     * @param token
+     *            the token
+     * @return The UserInfo
+     * @throws IOException
+     *             if an error occurs
+     */
+    static Map<String, Object> getUserInfo( AbstractDataClient dataClient, Token token ) throws IOException
+    {
+        Oauth2Metrics metrics = Oauth2Metrics.getInstance( );
+        long lStart = metrics.start( );
+        Map<String, Object> mapUserInfo = IdTokenClaimsService.getInstance( ).getMappedClaims( token );
+
+        if ( mapUserInfo != null )
+        {
+            metrics.record( Phase.PARSE, lStart );
+
+            return mapUserInfo;
+        }
+
+        String strJson = fetchUserInfo( dataClient, token );
+        metrics.record( Phase.USERINFO_FETCH, lStart );
+
+        lStart = metrics.start( );
+        mapUserInfo = UserInfoParser.parse( strJson );
+        metrics.record( Phase.PARSE, lStart );
 
+        return mapUserInfo;
+    }
+
+    /**
+     * Call the userinfo endpoint, with the HTTP client of the plugin when the token is sent as a header
+     *
+     * @param dataClient
+     *            the data client
+     * @param token
+     *            the token
+     * @return the user info JSON
+     * @throws IOException
+     *             if an error occurs
+     */
+    private static String fetchUserInfo( AbstractDataClient dataClient, Token token ) throws IOException
+    {
+        UserInfoHttpClient httpClient = UserInfoHttpClient.getInstance( );
+
+        if ( httpClient.isEnabled( ) && ( dataClient.getTokenMethod( ) == null || TOKEN_METHOD_HEADER.equals( dataClient.getTokenMethod( ) ) ) )
+        {
+            return httpClient.getUserInfo( dataClient.getDataServerUri( ), token.getAccessToken( ) );
+        }
+
+        return dataClient.getData( token );
     }
 
     /**
@@ -105,21 +203,16 @@ public class AuthDataClient extends AbstractDataClient
      */
     public Map<String, Object> parse( String strJson ) throws IOException
     {
-        TypeReference<HashMap<String, Object>> typeRef = new TypeReference<HashMap<String, Object>>( )
-        {
-        };
-
-        return _mapper.readValue( strJson, typeRef );
+        return UserInfoParser.parse( strJson );
     }
 
     @Override
     public void handleError( HttpServletRequest request, HttpServletResponse response, String strError )
     {
-
-        HttpSession session = request.getSession( true );
-
         if ( Oauth2Utils.ERROR_TYPE_LOGIN_REQUIRED.equals( strError ) )
         {
+            HttpSession session = request.getSession( true );
+            Oauth2Metrics.getInstance( ).recordOutcome( Phase.HANDLE_TOKEN, Outcome.LOGIN_REQUIRED );
 
             try
             {
@@ -146,7 +239,7 @@ public class AuthDataClient extends AbstractDataClient
                     strLoginNextUrl += Oauth2Utils.PARAM_ERROR_LOGIN + "=" + Oauth2Utils.ERROR_TYPE_LOGIN_REQUIRED;
                 }
 
-                session.setAttribute( Oauth2Utils.SESSION_ERROR_LOGIN, strError );
+                SessionAttributeWriter.setAttribute( session, Oauth2Utils.SESSION_ERROR_LOGIN, strError );
                 response.sendRedirect( strLoginNextUrl );
             }
             catch( IOException e )
@@ -157,6 +250,8 @@ public class AuthDataClient extends AbstractDataClient
         }
         else
         {
+            Oauth2Metrics.getInstance( ).recordOutcome( Phase.HANDLE_TOKEN, Outcome.ERROR );
+
             try
             {
 
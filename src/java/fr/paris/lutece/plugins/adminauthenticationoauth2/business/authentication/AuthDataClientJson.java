@@ -33,10 +33,12 @@
  */
 package fr.paris.lutece.plugins.adminauthenticationoauth2.business.authentication;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Service;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.UserInfoParser;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.async.Oauth2CallbackExecutor;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.metrics.Oauth2Metrics;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.metrics.Oauth2Metrics.Outcome;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.metrics.Oauth2Metrics.Phase;
 import fr.paris.lutece.plugins.oauth2.business.Token;
 import fr.paris.lutece.plugins.oauth2.dataclient.AbstractDataClient;
 import fr.paris.lutece.portal.business.user.AdminUser;
@@ -50,7 +52,6 @@ import fr.paris.lutece.util.json.JsonUtil;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -58,23 +59,39 @@ import java.util.Map;
  */
 public class AuthDataClientJson extends AbstractDataClient
 {
-    private static final ObjectMapper _mapper;
-
-    static
-    {
-        _mapper = new ObjectMapper( );
-        _mapper.disable( DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES );
-    }
-
     /**
      * {@inheritDoc }
      */
     @Override
     public void handleToken( Token token, HttpServletRequest request, HttpServletResponse response )
     {
+        // in asynchronous mode the container thread is released while the authorization server is called
+        if ( !Oauth2CallbackExecutor.getInstance( ).dispatch( request, response,
+                ( asyncRequest, asyncResponse ) -> doHandleToken( token, asyncRequest, asyncResponse ) ) )
+        {
+            doHandleToken( token, request, response );
+        }
+    }
+
+    /**
+     * Retrieve the user info of the token, authenticate the user and write the response
+     *
+     * @param token
+     *            the token
+     * @param request
+     *            The HTTP request
+     * @param response
+     *            The HTTP response
+     */
+    private void doHandleToken( Token token, HttpServletRequest request, HttpServletResponse response )
+    {
+        Oauth2Metrics metrics = Oauth2Metrics.getInstance( );
+        long lStart = metrics.start( );
+
         try
         {
-            Map<String, Object> mapUserInfo = parse( getData( token ) );
+            Map<String, Object> mapUserInfo = AuthDataClient.getUserInfo( this, token );
+
             Oauth2Service.getInstance( ).processAuthentication( request, mapUserInfo, token );
 
             AdminUser user = AdminUserService.getAdminUser( request );
@@ -82,17 +99,24 @@ public class AuthDataClientJson extends AbstractDataClient
             response.setContentType( "application/json" );
             response.setContentLength( strJsonResultAUth.length );
             response.getOutputStream( ).write( strJsonResultAUth );
-
+            metrics.record( Phase.HANDLE_TOKEN, lStart, ( user != null ) ? Outcome.SUCCESS : Outcome.LOGIN_REQUIRED );
         }
         catch( IOException ex )
         {
+            metrics.record( Phase.HANDLE_TOKEN, lStart, Outcome.IO_ERROR );
             AppLogService.error( "Error parsing UserInfo ", ex );
         }
         catch( AccessDeniedException | UserNotSignedException e )
         {
+            metrics.record( Phase.HANDLE_TOKEN, lStart, Outcome.ACCESS_DENIED );
             // Not an error : the user is redirected to the login page
             throw new RuntimeException( e );
         }
+        catch( RuntimeException e )
+        {
+            metrics.record( Phase.HANDLE_TOKEN, lStart, Outcome.ERROR );
+            throw e;
+        }
 
     }
 
@@ -107,10 +131,6 @@ public class AuthDataClientJson extends AbstractDataClient
      */
     Map<String, Object> parse( String strJson ) throws IOException
     {
-        TypeReference<HashMap<String, Object>> typeRef = new TypeReference<HashMap<String, Object>>( )
-        {
-        };
-
-        return _mapper.readValue( strJson, typeRef );
+        return UserInfoParser.parse( strJson );
     }
 }
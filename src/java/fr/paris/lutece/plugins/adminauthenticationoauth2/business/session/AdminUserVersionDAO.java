@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.business.session;
+
+import fr.paris.lutece.portal.service.util.AppException;
+import fr.paris.lutece.util.sql.DAOUtil;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DAO of the admin user versions shared by the nodes of a cluster. Each version records the node which incremented it last, so that a node never
+ * mistakes the increment of another node for its own.
+ */
+public final class AdminUserVersionDAO
+{
+    // SQL state class of the integrity constraint violations, duplicate keys included
+    private static final String SQL_STATE_INTEGRITY_CONSTRAINT_VIOLATION = "23";
+
+    // SQL queries
+    private static final String SQL_QUERY_INSERT = "INSERT INTO adminauthenticationoauth2_user_version ( admin_user_name, version, origin_node, date_update ) VALUES ( ?, 1, ?, ? )";
+    private static final String SQL_QUERY_INCREMENT = "UPDATE adminauthenticationoauth2_user_version SET version = version + 1, origin_node = ?, date_update = ? WHERE admin_user_name = ?";
+    private static final String SQL_QUERY_SELECT_UPDATED_SINCE = "SELECT admin_user_name, version FROM adminauthenticationoauth2_user_version WHERE date_update >= ? AND origin_node <> ?";
+
+    /**
+     * Increment the versions of admin users in a single batch, creating the versions of the users never notified
+     *
+     * @param listAdminUserNames
+     *            the admin user names, without duplicates
+     * @param strOriginNode
+     *            the id of the incrementing node
+     * @param lDateUpdate
+     *            the update time in milliseconds
+     */
+    public void incrementVersions( List<String> listAdminUserNames, String strOriginNode, long lDateUpdate )
+    {
+        int [ ] tabUpdateCounts;
+
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_INCREMENT ) )
+        {
+            for ( String strAdminUserName : listAdminUserNames )
+            {
+                daoUtil.setString( 1, strOriginNode );
+                daoUtil.setLong( 2, lDateUpdate );
+                daoUtil.setString( 3, strAdminUserName );
+                daoUtil.addBatch( );
+            }
+
+            tabUpdateCounts = daoUtil.executeBatch( );
+        }
+
+        List<String> listNewAdminUserNames = new ArrayList<>( );
+
+        for ( int i = 0; i < tabUpdateCounts.length; i++ )
+        {
+            // the drivers not reporting the counts return SUCCESS_NO_INFO, which is negative
+            if ( tabUpdateCounts [i] == 0 )
+            {
+                listNewAdminUserNames.add( listAdminUserNames.get( i ) );
+            }
+        }
+
+        for ( String strAdminUserName : listNewAdminUserNames )
+        {
+            insertVersion( strAdminUserName, strOriginNode, lDateUpdate );
+        }
+    }
+
+    /**
+     * Create the version of an admin user, or increment it if another node has created it meanwhile
+     *
+     * @param strAdminUserName
+     *            the admin user name
+     * @param strOriginNode
+     *            the id of the incrementing node
+     * @param lDateUpdate
+     *            the update time in milliseconds
+     */
+    private void insertVersion( String strAdminUserName, String strOriginNode, long lDateUpdate )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_INSERT ) )
+        {
+            daoUtil.setString( 1, strAdminUserName );
+            daoUtil.setString( 2, strOriginNode );
+            daoUtil.setLong( 3, lDateUpdate );
+            daoUtil.executeUpdate( );
+
+            return;
+        }
+        catch( AppException e )
+        {
+            if ( !isIntegrityConstraintViolation( e ) )
+            {
+                throw e;
+            }
+
+            // duplicate key : the version has been created by another node since the update
+        }
+
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_INCREMENT ) )
+        {
+            daoUtil.setString( 1, strOriginNode );
+            daoUtil.setLong( 2, lDateUpdate );
+            daoUtil.setString( 3, strAdminUserName );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    /**
+     * Tell whether a DAO failure is caused by an integrity constraint violation, such as a duplicate key, rather than by a connection or syntax
+     * error
+     *
+     * @param e
+     *            the DAO failure
+     * @return true if an SQL exception of the cause chain has an integrity constraint violation state
+     */
+    private static boolean isIntegrityConstraintViolation( AppException e )
+    {
+        for ( Throwable cause = e.getCause( ); cause != null; cause = cause.getCause( ) )
+        {
+            if ( cause instanceof SQLException )
+            {
+                String strSQLState = ( (SQLException) cause ).getSQLState( );
+
+                if ( strSQLState != null && strSQLState.startsWith( SQL_STATE_INTEGRITY_CONSTRAINT_VIOLATION ) )
+                {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Select the versions incremented by the other nodes since a date
+     *
+     * @param lDateUpdate
+     *            the date in milliseconds
+     * @param strOriginNode
+     *            the id of the selecting node, whose own increments are excluded
+     * @return the versions by admin user name
+     */
+    public Map<String, Long> selectVersionsUpdatedSince( long lDateUpdate, String strOriginNode )
+    {
+        Map<String, Long> mapVersions = new HashMap<>( );
+
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_UPDATED_SINCE ) )
+        {
+            daoUtil.setLong( 1, lDateUpdate );
+            daoUtil.setString( 2, strOriginNode );
+            daoUtil.executeQuery( );
+
+            while ( daoUtil.next( ) )
+            {
+                mapVersions.put( daoUtil.getString( 1 ), daoUtil.getLong( 2 ) );
+            }
+        }
+
+        return mapVersions;
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service;
+
+import fr.paris.lutece.plugins.adminauthenticationoauth2.business.authentication.AdminOauth2User;
+import fr.paris.lutece.plugins.oauth2.business.Token;
+import fr.paris.lutece.portal.business.user.authentication.AdminAuthentication;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.UnaryOperator;
+
+/**
+ * Immutable plan mapping the user info claims to the admin user, compiled once from the plugin properties
+ */
+public final class AttributeMappingPlan
+{
+    private final String [ ] _tabUserKeyNames;
+    private final ClaimMapping [ ] _tabClaimMappings;
+    private final String _strIdentityKey;
+    private final String _strEmailKey;
+    private final String _strLastNameKey;
+    private final String _strFirstNameKey;
+    private final Set<String> _setClaimNames;
+    private final String [ ] _tabFingerprintClaimNames;
+
+    /**
+     * Constructor
+     */
+    private AttributeMappingPlan( String [ ] tabUserKeyNames, ClaimMapping [ ] tabClaimMappings, String strIdentityKey, String strEmailKey,
+            String strLastNameKey, String strFirstNameKey )
+    {
+        _tabUserKeyNames = tabUserKeyNames;
+        _tabClaimMappings = tabClaimMappings;
+        _strIdentityKey = strIdentityKey;
+        _strEmailKey = strEmailKey;
+        _strLastNameKey = strLastNameKey;
+        _strFirstNameKey = strFirstNameKey;
+
+        Set<String> setClaimNames = new LinkedHashSet<>( );
+        Collections.addAll( setClaimNames, tabUserKeyNames );
+        for ( ClaimMapping claimMapping : tabClaimMappings )
+        {
+            setClaimNames.add( claimMapping._strClaimName );
+        }
+        for ( String strKey : Arrays.asList( strIdentityKey, strEmailKey, strLastNameKey, strFirstNameKey ) )
+        {
+            if ( strKey != null )
+            {
+                setClaimNames.add( strKey );
+            }
+        }
+        _setClaimNames = Collections.unmodifiableSet( setClaimNames );
+
+        // sorted for a fingerprint independent from the order of the claims
+        Set<String> setFingerprintClaimNames = new TreeSet<>( setClaimNames );
+        setFingerprintClaimNames.add( Oauth2Utils.PARAMETER_UID );
+        _tabFingerprintClaimNames = setFingerprintClaimNames.toArray( new String [ 0 ] );
+    }
+
+    /**
+     * Compile the plan from the plugin properties
+     *
+     * @return the plan
+     */
+    public static AttributeMappingPlan compile( )
+    {
+        return compile( AppPropertiesService::getProperty );
+    }
+
+    /**
+     * Compile the plan from mapping properties
+     *
+     * @param properties
+     *            the reader of the mapping properties
+     * @return the plan
+     */
+    static AttributeMappingPlan compile( UnaryOperator<String> properties )
+    {
+        String [ ] tabUserKeyNames = new String [ 0 ];
+        String strTabUserKey = properties.apply( Oauth2Utils.PROPERTY_USER_KEY_NAME );
+        if ( StringUtils.isNotBlank( strTabUserKey ) )
+        {
+            tabUserKeyNames = strTabUserKey.split( Oauth2Utils.SEPARATOR );
+        }
+
+        // claim name -> user info keys, in declaration order
+        Map<String, List<String>> mapUserMapping = new LinkedHashMap<>( );
+        String strUserMappingAttributes = properties.apply( Oauth2Utils.PROPERTY_USER_MAPPING_ATTRIBUTES );
+
+        if ( StringUtils.isNotBlank( strUserMappingAttributes ) )
+        {
+            for ( String strUserProperty : strUserMappingAttributes.split( Oauth2Utils.SEPARATOR ) )
+            {
+                String strClaimNames = properties.apply( Oauth2Utils.CONSTANT_LUTECE_USER_PROPERTIES_PATH + "." + strUserProperty );
+
+                if ( StringUtils.isNotBlank( strClaimNames ) )
+                {
+                    for ( String strClaimName : strClaimNames.split( Oauth2Utils.SEPARATOR ) )
+                    {
+                        mapUserMapping.computeIfAbsent( strClaimName, k -> new ArrayList<>( ) ).add( strUserProperty );
+                    }
+                }
+            }
+        }
+
+        List<ClaimMapping> listClaimMappings = new ArrayList<>( );
+        for ( Map.Entry<String, List<String>> entry : mapUserMapping.entrySet( ) )
+        {
+            listClaimMappings.add( new ClaimMapping( entry.getKey( ), entry.getValue( ).toArray( new String [ 0 ] ) ) );
+        }
+
+        return new AttributeMappingPlan( tabUserKeyNames, listClaimMappings.toArray( new ClaimMapping [ 0 ] ),
+                getKeyProperty( properties, Oauth2Utils.PROPERTY_IDENTITY_ATTRIBUTE_KEY ),
+                getKeyProperty( properties, Oauth2Utils.PROPERTY_EMAIL_ATTRIBUTE_KEY ), getKeyProperty( properties, Oauth2Utils.PROPERTY_LASTNAME_ATTRIBUTE_KEY ),
+                getKeyProperty( properties, Oauth2Utils.PROPERTY_FIRSTNAME_ATTRIBUTE_KEY ) );
+    }
+
+    /**
+     * Read an optional claim name property
+     *
+     * @param properties
+     *            the reader of the mapping properties
+     * @param strProperty
+     *            the property
+     * @return the claim name or null if not set
+     */
+    private static String getKeyProperty( UnaryOperator<String> properties, String strProperty )
+    {
+        String strKey = properties.apply( strProperty );
+
+        return StringUtils.isEmpty( strKey ) ? null : strKey;
+    }
+
+    /**
+     * Build the admin user from the user info
+     *
+     * @param mapUserInfo
+     *            the user info
+     * @param token
+     *            the token
+     * @param authenticationService
+     *            the authentication service
+     * @return the user, or null if the user info does not contain any user name claim
+     */
+    public AdminOauth2User createUser( Map<String, Object> mapUserInfo, Token token, AdminAuthentication authenticationService )
+    {
+        // the last user name claim found wins
+        String strUserName = null;
+        for ( int i = _tabUserKeyNames.length - 1; i >= 0 && strUserName == null; i-- )
+        {
+            strUserName = (String) mapUserInfo.get( _tabUserKeyNames [i] );
+        }
+
+        if ( strUserName == null )
+        {
+            return null;
+        }
+
+        AdminOauth2User user = new AdminOauth2User( strUserName, token, authenticationService );
+
+        for ( ClaimMapping claimMapping : _tabClaimMappings )
+        {
+            if ( mapUserInfo.containsKey( claimMapping._strClaimName ) )
+            {
+                String strValue = toUserInfoValue( mapUserInfo.get( claimMapping._strClaimName ) );
+
+                for ( String strUserInfoKey : claimMapping._tabUserInfoKeys )
+                {
+                    user.setUserInfo( strUserInfoKey, strValue );
+                }
+            }
+        }
+
+        // the default identity key is the lutece user name
+        Object identity = getClaim( mapUserInfo, _strIdentityKey );
+        if ( identity != null )
+        {
+            user.setAccessCode( identity.toString( ) );
+        }
+
+        Object email = getClaim( mapUserInfo, _strEmailKey );
+        if ( email != null )
+        {
+            user.setEmail( email.toString( ) );
+        }
+
+        Object lastName = getClaim( mapUserInfo, _strLastNameKey );
+        if ( lastName != null )
+        {
+            user.setLastName( lastName.toString( ) );
+        }
+
+        Object firstName = getClaim( mapUserInfo, _strFirstNameKey );
+        if ( firstName != null )
+        {
+            user.setFirstName( firstName.toString( ) );
+        }
+
+        return user;
+    }
+
+    /**
+     * Compute a stable fingerprint of the claims read by the plan : two user infos with the same fingerprint build the same admin user
+     *
+     * @param mapUserInfo
+     *            the user info
+     * @return the fingerprint
+     */
+    public String getFingerprint( Map<String, Object> mapUserInfo )
+    {
+        StringBuilder sbClaims = new StringBuilder( );
+
+        for ( String strClaimName : _tabFingerprintClaimNames )
+        {
+            Object value = mapUserInfo.get( strClaimName );
+
+            if ( value != null )
+            {
+                sbClaims.append( strClaimName ).append( '=' ).append( toUserInfoValue( value ) );
+            }
+            sbClaims.append( '\u0000' );
+        }
+
+        return Oauth2Utils.hash( sbClaims.toString( ) );
+    }
+
+    /**
+     * Get a claim
+     *
+     * @param mapUserInfo
+     *            the user info
+     * @param strKey
+     *            the claim name, may be null
+     * @return the claim value or null
+     */
+    private static Object getClaim( Map<String, Object> mapUserInfo, String strKey )
+    {
+        return ( strKey != null ) ? mapUserInfo.get( strKey ) : null;
+    }
+
+    /**
+     * Convert a claim value to a user info value. Multi valued claims are joined, each value followed by the separator.
+     *
+     * @param value
+     *            the claim value
+     * @return the user info value
+     */
+    private static String toUserInfoValue( Object value )
+    {
+        if ( value instanceof List<?> )
+        {
+            StringBuilder sbValue = new StringBuilder( );
+            for ( Object item : (List<?>) value )
+            {
+                sbValue.append( item ).append( Oauth2Utils.SEPARATOR );
+            }
+
+            return sbValue.toString( );
+        }
+
+        return ( value != null ) ? value.toString( ) : null;
+    }
+
+    /**
+     * @return the user name claim names
+     */
+    public String [ ] getUserKeyNames( )
+    {
+        return _tabUserKeyNames.clone( );
+    }
+
+    /**
+     * @return the names of all the claims read by the plan
+     */
+    public Set<String> getClaimNames( )
+    {
+        return _setClaimNames;
+    }
+
+    /**
+     * Mapping of a claim to user info keys
+     */
+    private static final class ClaimMapping
+    {
+        private final String _strClaimName;
+        private final String [ ] _tabUserInfoKeys;
+
+        private ClaimMapping( String strClaimName, String [ ] tabUserInfoKeys )
+        {
+            _strClaimName = strClaimName;
+            _tabUserInfoKeys = tabUserInfoKeys;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service;
+
+import fr.paris.lutece.plugins.oauth2.business.Token;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Extraction of the user info claims from the ID token, avoiding the call to the userinfo endpoint when the ID token carries every claim read by the
+ * attribute mapping. The ID token has been validated by the OAuth2 plugin when the token was obtained.
+ */
+public final class IdTokenClaimsService
+{
+    private static final IdTokenClaimsService _singleton = new IdTokenClaimsService( );
+
+    private final boolean _bEnabled;
+    private final LongAdder _nUsedCount = new LongAdder( );
+    private final LongAdder _nFallbackCount = new LongAdder( );
+
+    /**
+     * private constructor
+     */
+    private IdTokenClaimsService( )
+    {
+        _bEnabled = AppPropertiesService.getPropertyBoolean( Oauth2Utils.PROPERTY_USER_INFO_FROM_ID_TOKEN, false );
+    }
+
+    /**
+     * Gets the instance.
+     *
+     * @return the instance
+     */
+    public static IdTokenClaimsService getInstance( )
+    {
+        return _singleton;
+    }
+
+    /**
+     * @return true if the user info is built from the ID token when possible
+     */
+    public boolean isEnabled( )
+    {
+        return _bEnabled;
+    }
+
+    /**
+     * Gets the claims of the ID token read by the attribute mapping
+     *
+     * @param token
+     *            the token
+     * @return the claims, or null if the mode is disabled or if the ID token lacks a mapped claim : the userinfo endpoint must then be called
+     */
+    public Map<String, Object> getMappedClaims( Token token )
+    {
+        if ( !_bEnabled )
+        {
+            return null;
+        }
+
+        Set<String> setClaimNames = Oauth2Service.getInstance( ).getMappingPlan( ).getClaimNames( );
+        Map<String, Object> mapClaims = decodePayload( token.getIdTokenString( ), setClaimNames );
+
+        if ( mapClaims == null || !mapClaims.keySet( ).containsAll( setClaimNames ) )
+        {
+            _nFallbackCount.increment( );
+
+            return null;
+        }
+
+        _nUsedCount.increment( );
+
+        return mapClaims;
+    }
+
+    /**
+     * @return the number of user infos built from the ID token
+     */
+    public long getUsedCount( )
+    {
+        return _nUsedCount.sum( );
+    }
+
+    /**
+     * @return the number of user infos fetched from the userinfo endpoint because the ID token lacked a claim
+     */
+    public long getFallbackCount( )
+    {
+        return _nFallbackCount.sum( );
+    }
+
+    private static Map<String, Object> decodePayload( String strIdToken, Set<String> setClaimNames )
+    {
+        if ( strIdToken == null )
+        {
+            return null;
+        }
+
+        String [ ] tabParts = strIdToken.split( "\\." );
+
+        if ( tabParts.length < 2 )
+        {
+            return null;
+        }
+
+        try
+        {
+            String strPayload = new String( Base64.getUrlDecoder( ).decode( tabParts [1] ), StandardCharsets.UTF_8 );
+
+            return UserInfoParser.parse( strPayload, setClaimNames );
+        }
+        catch( IOException | IllegalArgumentException e )
+        {
+            AppLogService.error( "Unable to read the claims of the ID token", e );
+
+            return null;
+        }
+    }
+}
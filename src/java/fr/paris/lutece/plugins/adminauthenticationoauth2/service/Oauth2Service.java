@@ -33,8 +33,11 @@
  */
 package fr.paris.lutece.plugins.adminauthenticationoauth2.service;
 
-import fr.paris.lutece.plugins.adminauthenticationoauth2.business.authentication.AdminOauth2Authentication;
 import fr.paris.lutece.plugins.adminauthenticationoauth2.business.authentication.AdminOauth2User;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.cache.AdminUserLoginCache;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.metrics.Oauth2Metrics;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.metrics.Oauth2Metrics.Phase;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.refresh.Oauth2TokenRefreshService;
 import fr.paris.lutece.plugins.adminauthenticationoauth2.service.session.Oauth2AdminUserSessionService;
 import fr.paris.lutece.plugins.oauth2.business.Token;
 import fr.paris.lutece.portal.business.user.AdminUser;
@@ -42,34 +45,29 @@ import fr.paris.lutece.portal.business.user.AdminUserHome;
 import fr.paris.lutece.portal.service.admin.AccessDeniedException;
 import fr.paris.lutece.portal.service.admin.AdminAuthenticationService;
 import fr.paris.lutece.portal.service.security.UserNotSignedException;
-import fr.paris.lutece.portal.service.spring.SpringContextService;
 import fr.paris.lutece.portal.service.util.AppLogService;
 import fr.paris.lutece.portal.service.util.AppPathService;
-import fr.paris.lutece.portal.service.util.AppPropertiesService;
-import org.apache.commons.lang3.StringUtils;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Oauth2 Service.
  */
 public final class Oauth2Service
 {
-    /** The attribute user mapping. */
-    private static Map<String, List<String>> ATTRIBUTE_USER_MAPPING;
-
-    /** The attribute user key name. */
-    private static String [ ] ATTRIBUTE_USER_KEY_NAME;
+    /** The compiled attribute mapping. */
+    private static volatile AttributeMappingPlan _mappingPlan;
 
     /** The singleton. */
-    private static Oauth2Service _singleton;
+    private static volatile Oauth2Service _singleton;
+
+    private static final LongAdder _nRemapCount = new LongAdder( );
+    private static final LongAdder _nSkippedRemapCount = new LongAdder( );
 
     /**
      * private constructor.
@@ -87,53 +85,13 @@ public final class Oauth2Service
     {
         if ( _singleton == null )
         {
-
-            _singleton = new Oauth2Service( );
-            String strTabUserKey = AppPropertiesService.getProperty( Oauth2Utils.PROPERTY_USER_KEY_NAME );
-            if ( StringUtils.isNotBlank( strTabUserKey ) )
+            synchronized( Oauth2Service.class )
             {
-                ATTRIBUTE_USER_KEY_NAME = strTabUserKey.split( Oauth2Utils.SEPARATOR );
-            }
-            String strUserMappingAttributes = AppPropertiesService.getProperty( Oauth2Utils.PROPERTY_USER_MAPPING_ATTRIBUTES );
-            ATTRIBUTE_USER_MAPPING = new HashMap<>( );
-
-            if ( StringUtils.isNotBlank( strUserMappingAttributes ) )
-            {
-                String [ ] tabUserProperties = strUserMappingAttributes.split( Oauth2Utils.SEPARATOR );
-                String [ ] tabPropertiesValues;
-                String userProperties;
-
-                for ( int i = 0; i < tabUserProperties.length; i++ )
+                if ( _singleton == null )
                 {
-                    userProperties = AppPropertiesService.getProperty( Oauth2Utils.CONSTANT_LUTECE_USER_PROPERTIES_PATH + "." + tabUserProperties [i] );
-
-                    if ( StringUtils.isNotBlank( userProperties ) )
-                    {
-
-                        if ( userProperties.contains( Oauth2Utils.SEPARATOR ) )
-                        {
-                            tabPropertiesValues = userProperties.split( Oauth2Utils.SEPARATOR );
-
-                            for ( int n = 0; i < tabPropertiesValues.length; n++ )
-                            {
-                                if ( !ATTRIBUTE_USER_MAPPING.containsKey( tabPropertiesValues[n] ) )
-                                {
-                                    ATTRIBUTE_USER_MAPPING.put( tabPropertiesValues[n], new ArrayList<>( ) );
-                                }
-                                ATTRIBUTE_USER_MAPPING.get( tabPropertiesValues [n] ).add( tabUserProperties [i] );
-                            }
-
-                        }
-                        else
-                        {
-                            if ( !ATTRIBUTE_USER_MAPPING.containsKey( userProperties ) )
-                            {
-                                ATTRIBUTE_USER_MAPPING.put( userProperties, new ArrayList<>( ) );
-                            }
-                            ATTRIBUTE_USER_MAPPING.get( userProperties ).add( tabUserProperties [i] );
-                        }
-
-                    }
+                    // the plan is published before the singleton which gives access to it
+                    _mappingPlan = AttributeMappingPlan.compile( );
+                    _singleton = new Oauth2Service( );
                 }
             }
         }
@@ -141,6 +99,16 @@ public final class Oauth2Service
         return _singleton;
     }
 
+    /**
+     * Gets the compiled attribute mapping.
+     *
+     * @return the attribute mapping plan
+     */
+    public AttributeMappingPlan getMappingPlan( )
+    {
+        return _mappingPlan;
+    }
+
     /**
      * Process the authentication.
      *
@@ -156,109 +124,172 @@ public final class Oauth2Service
             throws AccessDeniedException, UserNotSignedException
     {
 
-        // subject in user map
-        if ( token.getIdToken( ) != null && token.getIdToken( ).getSubject( ) != null )
+        putSubject( mapUserInfo, token );
+
+        Oauth2Metrics metrics = Oauth2Metrics.getInstance( );
+        long lStart = metrics.start( );
+        AdminOauth2User user = _mappingPlan.createUser( mapUserInfo, token, Oauth2Utils.getAuthService( ) );
+        metrics.record( Phase.MAPPING, lStart );
+        _nRemapCount.increment( );
+
+        if ( user != null )
         {
-            mapUserInfo.put( Oauth2Utils.PARAMETER_UID, token.getIdToken( ).getSubject( ) );
+            user.setClaimsFingerprint( _mappingPlan.getFingerprint( mapUserInfo ) );
 
+            // add Oauth2AdminUserSessionService session
+            HttpSession session = request.getSession( true );
+            Oauth2AdminUserSessionService.getInstance( ).addAdminUserSession( user.getAccessCode( ), session.getId( ) );
+            Oauth2TokenRefreshService.getInstance( ).track( session, user );
         }
-        AdminOauth2User user = null;
-        for ( String s : ATTRIBUTE_USER_KEY_NAME )
+
+        if ( user != null && user.getAccessCode( ) != null )
         {
-            if ( mapUserInfo.containsKey( s ) )
-            {
-                user = new AdminOauth2User( (String) mapUserInfo.get( s ), token, Oauth2Utils.getAuthService( ) );
-            }
+            createAdminUserIfNeeded( user );
+            registerUser( request, user );
         }
 
-        if ( user != null )
+        return user;
+    }
+
+    /**
+     * Refresh the authentication of an admin user with a new token. When the claims are unchanged, the existing user is kept with the new token and
+     * only the mapping of the claims is skipped : the user is still bound to the database and registered again, so that the changes of its rights and
+     * roles made in the back office are taken into account.
+     *
+     * @param request
+     *            The HTTP request
+     * @param user
+     *            the authenticated user
+     * @param mapUserInfo
+     *            the user info retrieved with the new token
+     * @param token
+     *            the new token
+     * @return the user to keep in session
+     * @throws AccessDeniedException
+     *             if the user is not allowed to access the back office
+     * @throws UserNotSignedException
+     *             if the user is not signed
+     */
+    public AdminOauth2User refreshAuthentication( HttpServletRequest request, AdminOauth2User user, Map<String, Object> mapUserInfo, Token token )
+            throws AccessDeniedException, UserNotSignedException
+    {
+        putSubject( mapUserInfo, token );
+
+        if ( user.getClaimsFingerprint( ) == null || !user.getClaimsFingerprint( ).equals( _mappingPlan.getFingerprint( mapUserInfo ) ) )
         {
+            return processAuthentication( request, mapUserInfo, token );
+        }
 
-            for ( Entry<String, Object> entry : mapUserInfo.entrySet( ) )
-            {
-                if ( ATTRIBUTE_USER_MAPPING.containsKey( entry.getKey( ) ) )
-                {
-                    for ( String strUserInfo : ATTRIBUTE_USER_MAPPING.get( entry.getKey( ) ) )
-                    {
-
-                        Object val = entry.getValue( );
-                        if ( val instanceof ArrayList<?> )
-                        {
-
-                            StringBuilder strBufVal = new StringBuilder( );
-                            for ( Object tabVal : (ArrayList<?>) val )
-                            {
-                                strBufVal.append( tabVal.toString( ) );
-                                strBufVal.append( Oauth2Utils.SEPARATOR );
-                            }
-
-                            if ( strBufVal.length( ) > 0 )
-                            {
-                                user.setUserInfo( strUserInfo, strBufVal.substring( 0, strBufVal.length( ) - 1 ) );
-                            }
-
-                            user.setUserInfo( strUserInfo, strBufVal.toString( ) );
-                        }
-                        else
-                        {
-                            user.setUserInfo( strUserInfo, (String) val );
-                        }
-                    }
-                }
-            }
+        _nSkippedRemapCount.increment( );
+        user.setToken( token );
 
-            // add Identities Information
-            // get Identity key the default key is the value of lutece username
-            String strIdentityKey = user.getAccessCode( );
-            String strIdentityKeyAttribute = AppPropertiesService.getProperty( Oauth2Utils.PROPERTY_IDENTITY_ATTRIBUTE_KEY );
-            if ( strIdentityKeyAttribute != null && mapUserInfo.containsKey( strIdentityKeyAttribute ) )
-            {
-                strIdentityKey = mapUserInfo.get( strIdentityKeyAttribute ).toString( );
-            }
+        HttpSession session = request.getSession( true );
+        Oauth2AdminUserSessionService.getInstance( ).addAdminUserSession( user.getAccessCode( ), session.getId( ) );
+        Oauth2TokenRefreshService.getInstance( ).track( session, user );
 
-            user.setAccessCode( strIdentityKey );
+        if ( user.getAccessCode( ) != null )
+        {
+            // the registration binds the rights and roles from the database and sets the user in session again, so that the container replicates
+            // the new token
+            createAdminUserIfNeeded( user );
+            registerUser( request, user );
+        }
 
-            String strEmailKeyAttribute = AppPropertiesService.getProperty( Oauth2Utils.PROPERTY_EMAIL_ATTRIBUTE_KEY );
-            if ( strEmailKeyAttribute != null && mapUserInfo.containsKey( strEmailKeyAttribute ) )
-            {
-                user.setEmail( mapUserInfo.get( strEmailKeyAttribute ).toString( ) );
-            }
+        return user;
+    }
 
-            String strLastNameKeyAttribute = AppPropertiesService.getProperty( Oauth2Utils.PROPERTY_LASTNAME_ATTRIBUTE_KEY );
-            if ( strLastNameKeyAttribute != null && mapUserInfo.containsKey( strLastNameKeyAttribute ) )
-            {
-                user.setLastName( mapUserInfo.get( strLastNameKeyAttribute ).toString( ) );
-            }
+    /**
+     * @return the number of users built from their claims
+     */
+    public static long getRemapCount( )
+    {
+        return _nRemapCount.sum( );
+    }
 
-            String strFirstNameKeyAttribute = AppPropertiesService.getProperty( Oauth2Utils.PROPERTY_FIRSTNAME_ATTRIBUTE_KEY );
-            if ( strFirstNameKeyAttribute != null && mapUserInfo.containsKey( strFirstNameKeyAttribute ) )
-            {
-                user.setFirstName( mapUserInfo.get( strFirstNameKeyAttribute ).toString( ) );
-            }
+    /**
+     * @return the number of refreshes which kept the user because its claims were unchanged
+     */
+    public static long getSkippedRemapCount( )
+    {
+        return _nSkippedRemapCount.sum( );
+    }
 
-            // add Oauth2AdminUserSessionService session
-            Oauth2AdminUserSessionService.getInstance( ).addAdminUserSession( user.getAccessCode( ), request.getSession( true ).getId( ) );
+    /**
+     * Put the subject of the ID token in the user info
+     *
+     * @param mapUserInfo
+     *            the user info
+     * @param token
+     *            the token
+     */
+    private static void putSubject( Map<String, Object> mapUserInfo, Token token )
+    {
+        if ( token.getIdToken( ) != null && token.getIdToken( ).getSubject( ) != null )
+        {
+            mapUserInfo.put( Oauth2Utils.PARAMETER_UID, token.getIdToken( ).getSubject( ) );
         }
+    }
 
-        if ( user != null && user.getAccessCode( ) != null )
+    /**
+     * Create the admin user in database if its login is not known yet
+     *
+     * @param user
+     *            the authenticated user
+     */
+    public void createAdminUserIfNeeded( AdminUser user )
+    {
+        AdminUserLoginCache loginCache = AdminUserLoginCache.getInstance( );
+
+        if ( loginCache.isKnown( user.getAccessCode( ) ) )
         {
-            AdminUser bindUser = AdminUserHome.findUserByLogin( user.getAccessCode( ) );
-            if ( bindUser == null )
+            return;
+        }
+
+        Oauth2Metrics metrics = Oauth2Metrics.getInstance( );
+        long lStart = metrics.start( );
+
+        AdminUser bindUser = AdminUserHome.findUserByLogin( user.getAccessCode( ) );
+        if ( bindUser == null )
+        {
+            if ( user.getLastName( ) == null )
             {
-                if ( user.getLastName( ) == null )
-                {
-                    user.setLastName( "" );
-                }
-                if ( user.getFirstName( ) == null )
-                {
-                    user.setFirstName( "" );
-                }
-                AdminUserHome.create( user );
+                user.setLastName( "" );
             }
-            AdminAuthenticationService.getInstance( ).registerUser( request, user );
+            if ( user.getFirstName( ) == null )
+            {
+                user.setFirstName( "" );
+            }
+            AdminUserHome.create( user );
         }
+        loginCache.putKnown( user.getAccessCode( ) );
+        metrics.record( Phase.USER_PROVISIONING, lStart );
+    }
 
-        return user;
+    /**
+     * Register the admin user in the session
+     *
+     * @param request
+     *            The HTTP request
+     * @param user
+     *            the admin user
+     * @throws AccessDeniedException
+     *             if the user is not allowed to access the back office
+     * @throws UserNotSignedException
+     *             if the user is not signed
+     */
+    public void registerUser( HttpServletRequest request, AdminUser user ) throws AccessDeniedException, UserNotSignedException
+    {
+        Oauth2Metrics metrics = Oauth2Metrics.getInstance( );
+        long lStart = metrics.start( );
+
+        try
+        {
+            AdminAuthenticationService.getInstance( ).registerUser( request, user );
+        }
+        finally
+        {
+            metrics.record( Phase.REGISTER_USER, lStart );
+        }
     }
 
     /**
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service;
+
+import fr.paris.lutece.plugins.adminauthenticationoauth2.business.authentication.AdminOauth2UserInfo;
+import fr.paris.lutece.plugins.oauth2.business.Token;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Retrieves the user info of the admin users. Concurrent retrievals for the same session are coalesced : only one call to the authorization server is
+ * made and the other requests reuse its result. The retrievals are keyed by the refresh token of the session, so that the token renewed by a
+ * retrieval is never handed to another session of the same user.
+ */
+public final class Oauth2UserInfoService
+{
+    private static final Oauth2UserInfoService _singleton = new Oauth2UserInfoService( );
+
+    private final Map<String, CompletableFuture<AdminOauth2UserInfo>> _mapInFlight = new ConcurrentHashMap<>( );
+    private final LongAdder _nLoadCount = new LongAdder( );
+    private final LongAdder _nCoalescedCount = new LongAdder( );
+
+    /**
+     * private constructor
+     */
+    private Oauth2UserInfoService( )
+    {
+    }
+
+    /**
+     * Gets the instance.
+     *
+     * @return the instance
+     */
+    public static Oauth2UserInfoService getInstance( )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Get the user info of an admin user, joining the retrieval already in progress for the same refresh token if any
+     *
+     * @param currentToken
+     *            the token currently held by the session
+     * @param loader
+     *            the loader retrieving the user info from the authorization server
+     * @return a copy of the user info, owned by the caller
+     * @throws IOException
+     *             if the retrieval fails
+     */
+    public AdminOauth2UserInfo getUserInfo( Token currentToken, UserInfoLoader loader ) throws IOException
+    {
+        String strKey = Oauth2Utils.hash( currentToken.getRefreshToken( ) );
+        CompletableFuture<AdminOauth2UserInfo> future = new CompletableFuture<>( );
+        CompletableFuture<AdminOauth2UserInfo> inFlight = _mapInFlight.putIfAbsent( strKey, future );
+
+        if ( inFlight != null )
+        {
+            _nCoalescedCount.increment( );
+
+            return await( inFlight ).copy( );
+        }
+
+        _nLoadCount.increment( );
+
+        try
+        {
+            AdminOauth2UserInfo userInfo = loader.load( );
+            future.complete( userInfo );
+
+            return userInfo.copy( );
+        }
+        catch( IOException | RuntimeException e )
+        {
+            future.completeExceptionally( e );
+            throw e;
+        }
+        finally
+        {
+            _mapInFlight.remove( strKey, future );
+        }
+    }
+
+    /**
+     * Wait for a retrieval made by another request
+     *
+     * @param future
+     *            the retrieval
+     * @return the user info
+     * @throws IOException
+     *             if the retrieval failed
+     */
+    private static AdminOauth2UserInfo await( CompletableFuture<AdminOauth2UserInfo> future ) throws IOException
+    {
+        try
+        {
+            return future.get( );
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread( ).interrupt( );
+            throw new IOException( "Interrupted while waiting for the user info", e );
+        }
+        catch( ExecutionException e )
+        {
+            if ( e.getCause( ) instanceof IOException )
+            {
+                throw (IOException) e.getCause( );
+            }
+            if ( e.getCause( ) instanceof RuntimeException )
+            {
+                throw (RuntimeException) e.getCause( );
+            }
+            throw new IOException( e.getCause( ) );
+        }
+    }
+
+    /**
+     * @return the number of user info retrievals made
+     */
+    public long getLoadCount( )
+    {
+        return _nLoadCount.sum( );
+    }
+
+    /**
+     * @return the number of requests which reused a retrieval in progress
+     */
+    public long getCoalescedCount( )
+    {
+        return _nCoalescedCount.sum( );
+    }
+
+    /**
+     * Loader of the user info
+     */
+    @FunctionalInterface
+    public interface UserInfoLoader
+    {
+        /**
+         * Retrieve the user info
+         *
+         * @return the user info
+         * @throws IOException
+         *             if an error occurs
+         */
+        AdminOauth2UserInfo load( ) throws IOException;
+    }
+}
@@ -39,6 +39,11 @@ import fr.paris.lutece.plugins.oauth2.business.AuthServerConf;
 import fr.paris.lutece.portal.service.spring.SpringContextService;
 import fr.paris.lutece.portal.service.util.AppPropertiesService;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
 /**
  * Constants
  */
@@ -48,6 +53,7 @@ public final class Oauth2Utils
     public static final String AUTHENTICATION_BEAN_NAME = "adminauthenticationoauth2.authentication";
     private static final String BEAN_AUTH_SERVER_CONF = "oauth2.server";
     private static final String BEAN_AUTH_CLIENT_CONF = "oauth2.client";
+    private static final String HASH_ALGORITHM = "SHA-256";
 
 
     // OAuth2 properties names
@@ -55,12 +61,57 @@ public final class Oauth2Utils
     public static final String PROPERTY_USE_PROMPT_NONE_WHITE_LISTING_URLS = "adminauthenticationoauth2.usePromptNoneWhiteListingUrls";
     public static final String PROPERTY_USE_PROMPT_NONE_WHITE_LISTING_HEADERS = "adminauthenticationoauth2.usePromptNoneWhiteListingHeaders";
     public static final String PROPERTY_VALIDATE_REFRESH_TOKEN = "adminauthenticationoauth2.validateRefreshToken";
+    public static final String PROPERTY_VALIDATE_REFRESH_TOKEN_CACHE_TTL = "adminauthenticationoauth2.validateRefreshToken.cacheTimeToLive";
+    public static final String PROPERTY_VALIDATE_REFRESH_TOKEN_CACHE_MAX_SIZE = "adminauthenticationoauth2.validateRefreshToken.cacheMaxSize";
     public static final String PROPERTY_USER_KEY_NAME = "adminauthenticationoauth2.attributeKeyUsername";
     public static final String PROPERTY_IDENTITY_ATTRIBUTE_KEY = "adminauthenticationoauth2.attributeIdentityKey";
     public static final String PROPERTY_USER_MAPPING_ATTRIBUTES = "adminauthenticationoauth2.userMappingAttributes";
     public static final String PROPERTY_EMAIL_ATTRIBUTE_KEY = "adminauthenticationoauth2.attribute.user.business-info.online.email";
     public static final String PROPERTY_LASTNAME_ATTRIBUTE_KEY = "adminauthenticationoauth2.attribute.user.name.family";
     public static final String PROPERTY_FIRSTNAME_ATTRIBUTE_KEY = "adminauthenticationoauth2.attribute.user.name.given";
+    public static final String PROPERTY_BACKGROUND_REFRESH_ENABLED = "adminauthenticationoauth2.backgroundRefresh.enabled";
+    public static final String PROPERTY_BACKGROUND_REFRESH_SECONDS_BEFORE_EXPIRY = "adminauthenticationoauth2.backgroundRefresh.secondsBeforeExpiry";
+    public static final String PROPERTY_BACKGROUND_REFRESH_MAX_JITTER = "adminauthenticationoauth2.backgroundRefresh.maxJitterMillis";
+    public static final String PROPERTY_BACKGROUND_REFRESH_POOL_SIZE = "adminauthenticationoauth2.backgroundRefresh.poolSize";
+    public static final String PROPERTY_USER_INFO_STREAMING_PARSER = "adminauthenticationoauth2.userInfo.streamingParser";
+    public static final String PROPERTY_KNOWN_LOGINS_CACHE_TTL = "adminauthenticationoauth2.knownLoginsCache.timeToLive";
+    public static final String PROPERTY_KNOWN_LOGINS_CACHE_MAX_SIZE = "adminauthenticationoauth2.knownLoginsCache.maxSize";
+    public static final String PROPERTY_FILTER_BYPASS_EXTENSIONS = "adminauthenticationoauth2.filter.bypass.extensions";
+    public static final String PROPERTY_FILTER_BYPASS_PATH_PREFIXES = "adminauthenticationoauth2.filter.bypass.pathPrefixes";
+    public static final String PROPERTY_FILTER_BYPASS_HEADERS = "adminauthenticationoauth2.filter.bypass.headers";
+    public static final String PROPERTY_NOTIFY_BATCH_SIZE = "adminauthenticationoauth2.notifyAdminUser.batchSize";
+    public static final String PROPERTY_VERSION_STORE_FILE_PATH = "adminauthenticationoauth2.versionStore.filePath";
+    public static final String PROPERTY_VERSION_STORE_FILE_ROTATION = "adminauthenticationoauth2.versionStore.fileRotationSeconds";
+    public static final String PROPERTY_SESSION_REGISTRY_MAX_IDLE = "adminauthenticationoauth2.sessionRegistry.maxIdleSeconds";
+    public static final String PROPERTY_SESSION_REGISTRY_MAX_SIZE = "adminauthenticationoauth2.sessionRegistry.maxSize";
+    public static final String PROPERTY_SESSION_SERIALIZE_TOKEN = "adminauthenticationoauth2.session.serializeToken";
+    public static final String PROPERTY_METRICS_ENABLED = "adminauthenticationoauth2.metrics.enabled";
+    public static final String PROPERTY_METRICS_JMX_ENABLED = "adminauthenticationoauth2.metrics.jmx.enabled";
+    public static final String PROPERTY_USER_INFO_FROM_ID_TOKEN = "adminauthenticationoauth2.userInfo.fromIdToken";
+    public static final String PROPERTY_VALIDATE_REFRESH_TOKEN_MODE = "adminauthenticationoauth2.validateRefreshToken.mode";
+    public static final String PROPERTY_JWKS_URI = "adminauthenticationoauth2.jwks.uri";
+    public static final String PROPERTY_JWKS_MIN_REFRESH_INTERVAL = "adminauthenticationoauth2.jwks.minRefreshIntervalSeconds";
+    public static final String PROPERTY_JWKS_CLOCK_SKEW = "adminauthenticationoauth2.jwks.clockSkewSeconds";
+    public static final String VALIDATION_MODE_REFRESH = "refresh";
+    public static final String VALIDATION_MODE_JWT = "jwt";
+    public static final String PROPERTY_HTTP_CLIENT_ENABLED = "adminauthenticationoauth2.httpClient.enabled";
+    public static final String PROPERTY_HTTP_CLIENT_CONNECT_TIMEOUT = "adminauthenticationoauth2.httpClient.connectTimeout";
+    public static final String PROPERTY_HTTP_CLIENT_READ_TIMEOUT = "adminauthenticationoauth2.httpClient.readTimeout";
+    public static final String PROPERTY_HTTP_CLIENT_MAX_CONCURRENT_CALLS = "adminauthenticationoauth2.httpClient.maxConcurrentCalls";
+    public static final String PROPERTY_HTTP_CLIENT_ACQUIRE_TIMEOUT = "adminauthenticationoauth2.httpClient.acquireTimeout";
+    public static final String PROPERTY_PROFILE_CACHE_ENABLED = "adminauthenticationoauth2.profileCache.enabled";
+    public static final String PROPERTY_PROFILE_CACHE_MAX_STALENESS = "adminauthenticationoauth2.profileCache.maxStalenessSeconds";
+    public static final String PROPERTY_PROFILE_CACHE_MAX_SIZE = "adminauthenticationoauth2.profileCache.maxSize";
+    public static final String PROPERTY_CIRCUIT_BREAKER_FAILURE_THRESHOLD = "adminauthenticationoauth2.circuitBreaker.failureThreshold";
+    public static final String PROPERTY_CIRCUIT_BREAKER_OPEN_DURATION = "adminauthenticationoauth2.circuitBreaker.openSeconds";
+    public static final String PROPERTY_ASYNC_CALLBACK_ENABLED = "adminauthenticationoauth2.asyncCallback.enabled";
+    public static final String PROPERTY_ASYNC_CALLBACK_TIMEOUT = "adminauthenticationoauth2.asyncCallback.timeoutSeconds";
+    public static final String PROPERTY_ASYNC_CALLBACK_POOL_SIZE = "adminauthenticationoauth2.asyncCallback.poolSize";
+    public static final String PROPERTY_ASYNC_CALLBACK_QUEUE_SIZE = "adminauthenticationoauth2.asyncCallback.queueSize";
+    public static final String PROPERTY_SESSION_REGISTRY_SNAPSHOT_FILE = "adminauthenticationoauth2.sessionRegistry.snapshotFile";
+    public static final String PROPERTY_WARM_UP_ENABLED = "adminauthenticationoauth2.warmUp.enabled";
+    public static final String PROPERTY_WARM_UP_ITERATIONS = "adminauthenticationoauth2.warmUp.iterations";
+    public static final String PROPERTY_BACKGROUND_REFRESH_MAX_IDLE = "adminauthenticationoauth2.backgroundRefresh.maxIdleSeconds";
     public static final String CONSTANT_LUTECE_USER_PROPERTIES_PATH = "adminauthenticationoauth2.attribute";
 
     // urls properties names
@@ -85,14 +136,16 @@ public final class Oauth2Utils
     public static final String ERROR_TYPE_LOGIN_REQUIRED = "login_required";
     public static final String REINIT_ERROR_LOGIN = "reinit_error_login";
     public static final String SESSION_ERROR_LOGIN = "session_error_login";
+    // session attribute of the admin user registered by the core AdminAuthenticationService
+    public static final String SESSION_ATTRIBUTE_ADMIN_USER = "lutece_admin_user";
     public static final String PARAM_ERROR_LOGIN = "error_login";
     public static final String PARAMETER_UID = AppPropertiesService.getProperty(PROPERTY_USER_KEY_NAME,"uid");
 
 
-    // Beans
-    private static AuthServerConf _authServerConf;
-    private static AuthClientConf _authClientConf;
-    private static AdminOauth2Authentication _authService;
+    // Beans, resolved once : concurrent first calls may resolve them twice, volatile publishes them safely
+    private static volatile AuthServerConf _authServerConf;
+    private static volatile AuthClientConf _authClientConf;
+    private static volatile AdminOauth2Authentication _authService;
 
     /** Private constructor */
     private Oauth2Utils( )
@@ -125,4 +178,26 @@ public final class Oauth2Utils
         }
         return _authService;
     }
+
+    /**
+     * Hash a value, used to key caches with secrets without keeping the secrets themselves
+     *
+     * @param strValue
+     *            the value
+     * @return the url safe base64 SHA-256 hash of the value
+     */
+    public static String hash( String strValue )
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance( HASH_ALGORITHM );
+
+            return Base64.getUrlEncoder( ).withoutPadding( ).encodeToString( digest.digest( strValue.getBytes( StandardCharsets.UTF_8 ) ) );
+        }
+        catch( NoSuchAlgorithmException e )
+        {
+            // SHA-256 is required on every Java platform
+            throw new IllegalStateException( e );
+        }
+    }
 }
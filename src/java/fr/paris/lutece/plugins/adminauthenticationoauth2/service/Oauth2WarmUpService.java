@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.jwt.JwksService;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.metrics.Oauth2Metrics;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.session.Oauth2AdminUserSessionService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Warm-up of the plugin at startup : the beans and the singletons are resolved, the configuration compiled and the mapping path exercised before the
+ * first login, instead of during it.
+ */
+public final class Oauth2WarmUpService
+{
+    private static final String SYNTHETIC_CLAIM_VALUE = "warmup";
+
+    /** Private constructor */
+    private Oauth2WarmUpService( )
+    {
+    }
+
+    /**
+     * Run the warm-up stages, each one timed in the startup log. A failed stage is logged and does not prevent the startup.
+     */
+    public static void warmUp( )
+    {
+        if ( !AppPropertiesService.getPropertyBoolean( Oauth2Utils.PROPERTY_WARM_UP_ENABLED, true ) )
+        {
+            return;
+        }
+
+        long lStart = System.currentTimeMillis( );
+        StringBuilder sbReport = new StringBuilder( "Admin OAuth2 warm-up :" );
+
+        runStage( sbReport, "beans", ( ) -> {
+            Oauth2Utils.getAuthServerConf( );
+            Oauth2Utils.getAuthClientConf( );
+            Oauth2Utils.getAuthService( );
+            Oauth2AdminUserSessionService.getInstance( );
+            Oauth2Metrics.getInstance( );
+        } );
+        runStage( sbReport, "mapping", ( ) -> Oauth2Service.getInstance( ).getMappingPlan( ) );
+        runStage( sbReport, "jwks", ( ) -> {
+            JwksService jwksService = JwksService.getInstance( );
+
+            if ( jwksService.isEnabled( ) )
+            {
+                jwksService.refresh( );
+            }
+        } );
+        runStage( sbReport, "jit", Oauth2WarmUpService::exerciseMappingPath );
+
+        sbReport.append( " total " ).append( System.currentTimeMillis( ) - lStart ).append( " ms" );
+        AppLogService.info( sbReport.toString( ) );
+    }
+
+    /**
+     * Parse and map synthetic user infos carrying every claim of the mapping, so that this path is compiled by the JIT before the first login
+     *
+     * @throws IOException
+     *             if the synthetic user info cannot be parsed
+     */
+    private static void exerciseMappingPath( ) throws IOException
+    {
+        AttributeMappingPlan plan = Oauth2Service.getInstance( ).getMappingPlan( );
+        Map<String, Object> mapSyntheticUserInfo = new HashMap<>( );
+
+        for ( String strClaimName : plan.getClaimNames( ) )
+        {
+            mapSyntheticUserInfo.put( strClaimName, SYNTHETIC_CLAIM_VALUE );
+        }
+
+        String strJson = new ObjectMapper( ).writeValueAsString( mapSyntheticUserInfo );
+        int nIterations = AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_WARM_UP_ITERATIONS, 1000 );
+
+        for ( int i = 0; i < nIterations; i++ )
+        {
+            Map<String, Object> mapUserInfo = UserInfoParser.parse( strJson );
+            plan.createUser( mapUserInfo, null, Oauth2Utils.getAuthService( ) );
+            plan.getFingerprint( mapUserInfo );
+        }
+    }
+
+    private static void runStage( StringBuilder sbReport, String strStage, WarmUpStage stage )
+    {
+        long lStart = System.currentTimeMillis( );
+
+        try
+        {
+            stage.run( );
+            sbReport.append( ' ' ).append( strStage ).append( ' ' ).append( System.currentTimeMillis( ) - lStart ).append( " ms," );
+        }
+        catch( IOException | RuntimeException e )
+        {
+            AppLogService.error( "Admin OAuth2 warm-up stage " + strStage + " failed", e );
+            sbReport.append( ' ' ).append( strStage ).append( " failed," );
+        }
+    }
+
+    /**
+     * Stage of the warm-up
+     */
+    @FunctionalInterface
+    private interface WarmUpStage
+    {
+        void run( ) throws IOException;
+    }
+}
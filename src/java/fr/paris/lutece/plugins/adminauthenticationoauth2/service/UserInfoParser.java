@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Parser of the user info documents returned by the authorization server
+ */
+public final class UserInfoParser
+{
+    private static final ObjectMapper _mapper;
+    private static final TypeReference<HashMap<String, Object>> TYPE_REFERENCE_USER_INFO = new TypeReference<HashMap<String, Object>>( )
+    {
+    };
+    private static final boolean _bStreaming = AppPropertiesService.getPropertyBoolean( Oauth2Utils.PROPERTY_USER_INFO_STREAMING_PARSER, false );
+
+    static
+    {
+        _mapper = new ObjectMapper( );
+        _mapper.disable( DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES );
+    }
+
+    /** Private constructor */
+    private UserInfoParser( )
+    {
+    }
+
+    /**
+     * Parse a user info document. In streaming mode, only the claims read by the attribute mapping are extracted.
+     *
+     * @param strJson
+     *            The JSON
+     * @return The UserInfo
+     * @throws IOException
+     *             if an error occurs
+     */
+    public static Map<String, Object> parse( String strJson ) throws IOException
+    {
+        if ( _bStreaming )
+        {
+            return parse( strJson, Oauth2Service.getInstance( ).getMappingPlan( ).getClaimNames( ) );
+        }
+
+        return _mapper.readValue( strJson, TYPE_REFERENCE_USER_INFO );
+    }
+
+    /**
+     * Extract some claims of a user info document, skipping the other ones without building them
+     *
+     * @param strJson
+     *            The JSON
+     * @param setClaimNames
+     *            the names of the claims to extract
+     * @return the extracted claims, with the same values as a full parsing
+     * @throws IOException
+     *             if an error occurs
+     */
+    public static Map<String, Object> parse( String strJson, Set<String> setClaimNames ) throws IOException
+    {
+        Map<String, Object> mapUserInfo = new HashMap<>( );
+
+        try ( JsonParser parser = _mapper.getFactory( ).createParser( strJson ) )
+        {
+            if ( parser.nextToken( ) != JsonToken.START_OBJECT )
+            {
+                throw new IOException( "The user info is not a JSON object" );
+            }
+
+            while ( parser.nextToken( ) == JsonToken.FIELD_NAME )
+            {
+                String strClaimName = parser.getCurrentName( );
+                parser.nextToken( );
+
+                if ( setClaimNames.contains( strClaimName ) )
+                {
+                    mapUserInfo.put( strClaimName, _mapper.readValue( parser, Object.class ) );
+                }
+                else
+                {
+                    parser.skipChildren( );
+                }
+            }
+        }
+
+        return mapUserInfo;
+    }
+}
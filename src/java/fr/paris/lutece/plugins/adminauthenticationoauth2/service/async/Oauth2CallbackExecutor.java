@@ -0,0 +1,423 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service.async;
+
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Utils;
+import fr.paris.lutece.portal.service.admin.AccessDeniedException;
+import fr.paris.lutece.portal.service.security.UserNotSignedException;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the handling of the OAuth2 callbacks outside of the container threads : the request is put in asynchronous mode, the userinfo retrieval, the
+ * mapping and the provisioning run on a dedicated executor which completes the response. The executor is bounded by the pool and queue sizes, its
+ * threads being virtual threads when the JVM provides them. A callback timing out or failing in the container is answered and completed once,
+ * and its handling cancelled.
+ */
+public final class Oauth2CallbackExecutor
+{
+    private static final String THREAD_NAME_PREFIX = "adminauthenticationoauth2-callback-";
+    private static final String METHOD_OF_VIRTUAL = "ofVirtual";
+    private static final String CLASS_THREAD_BUILDER = "java.lang.Thread$Builder";
+    private static final String METHOD_NAME = "name";
+    private static final String METHOD_FACTORY = "factory";
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    private static final Oauth2CallbackExecutor _singleton = new Oauth2CallbackExecutor( );
+
+    private final boolean _bEnabled;
+    private final long _lTimeoutMillis;
+    private final int _nPoolSize;
+    private final int _nQueueSize;
+    private final LongAdder _nAsyncCount = new LongAdder( );
+    private final LongAdder _nSyncCount = new LongAdder( );
+    private final LongAdder _nTimeoutCount = new LongAdder( );
+    private volatile ExecutorService _executor;
+
+    /**
+     * private constructor
+     */
+    private Oauth2CallbackExecutor( )
+    {
+        _bEnabled = AppPropertiesService.getPropertyBoolean( Oauth2Utils.PROPERTY_ASYNC_CALLBACK_ENABLED, false );
+        _lTimeoutMillis = TimeUnit.SECONDS.toMillis( AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_ASYNC_CALLBACK_TIMEOUT, 30 ) );
+        _nPoolSize = AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_ASYNC_CALLBACK_POOL_SIZE, 50 );
+        _nQueueSize = AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_ASYNC_CALLBACK_QUEUE_SIZE, 1000 );
+    }
+
+    /**
+     * Gets the instance.
+     *
+     * @return the instance
+     */
+    public static Oauth2CallbackExecutor getInstance( )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Handle a callback asynchronously if possible
+     *
+     * @param request
+     *            The HTTP request
+     * @param response
+     *            The HTTP response
+     * @param handler
+     *            the handling of the callback
+     * @return true if the handling has been dispatched, false if the caller must handle the callback itself (asynchronous mode disabled or not
+     *         supported by the servlet)
+     */
+    public boolean dispatch( HttpServletRequest request, HttpServletResponse response, CallbackHandler handler )
+    {
+        if ( !_bEnabled || !request.isAsyncSupported( ) )
+        {
+            _nSyncCount.increment( );
+
+            return false;
+        }
+
+        AsyncContext asyncContext = request.startAsync( request, response );
+        asyncContext.setTimeout( _lTimeoutMillis );
+        AsyncCallback callback = new AsyncCallback( asyncContext, handler );
+        asyncContext.addListener( callback );
+
+        try
+        {
+            callback.setFuture( getExecutor( ).submit( callback ) );
+        }
+        catch( RejectedExecutionException e )
+        {
+            // saturated executor : the container thread does the work
+            callback.run( );
+        }
+
+        _nAsyncCount.increment( );
+
+        return true;
+    }
+
+    /**
+     * @return the number of callbacks handled asynchronously
+     */
+    public long getAsyncCount( )
+    {
+        return _nAsyncCount.sum( );
+    }
+
+    /**
+     * @return the number of callbacks handled by the container threads
+     */
+    public long getSyncCount( )
+    {
+        return _nSyncCount.sum( );
+    }
+
+    /**
+     * @return the number of asynchronous callbacks timed out
+     */
+    public long getTimeoutCount( )
+    {
+        return _nTimeoutCount.sum( );
+    }
+
+    private static void sendError( HttpServletResponse response, int nStatus )
+    {
+        if ( response.isCommitted( ) )
+        {
+            return;
+        }
+
+        try
+        {
+            response.sendError( nStatus );
+        }
+        catch( IOException e )
+        {
+            AppLogService.error( "Unable to send the error of the OAuth2 callback", e );
+        }
+    }
+
+    /**
+     * Stop the executor, on the shutdown of the webapp. The callbacks in progress are given a few seconds to complete their response before their
+     * threads are interrupted. The executor is created again if callbacks are dispatched afterwards.
+     */
+    public void shutdown( )
+    {
+        ExecutorService executor;
+
+        synchronized( this )
+        {
+            executor = _executor;
+            _executor = null;
+        }
+
+        if ( executor != null )
+        {
+            executor.shutdown( );
+
+            try
+            {
+                if ( !executor.awaitTermination( SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS ) )
+                {
+                    executor.shutdownNow( );
+                }
+            }
+            catch( InterruptedException e )
+            {
+                executor.shutdownNow( );
+                Thread.currentThread( ).interrupt( );
+            }
+        }
+    }
+
+    /**
+     * Lazily create the executor
+     *
+     * @return the executor
+     */
+    private ExecutorService getExecutor( )
+    {
+        if ( _executor == null )
+        {
+            synchronized( this )
+            {
+                if ( _executor == null )
+                {
+                    _executor = createExecutor( );
+                }
+            }
+        }
+
+        return _executor;
+    }
+
+    /**
+     * Create the executor : a pool of at most poolSize threads and queueSize waiting callbacks, whose idle threads end after a minute. The threads
+     * are virtual threads when the JVM provides them, so that the callbacks waiting on the network hold no platform thread ; the bounds still
+     * apply.
+     *
+     * @return the executor
+     */
+    private ExecutorService createExecutor( )
+    {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor( _nPoolSize, _nPoolSize, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>( _nQueueSize ),
+                createThreadFactory( ) );
+        executor.allowCoreThreadTimeOut( true );
+
+        return executor;
+    }
+
+    /**
+     * Create the factory of the executor threads
+     *
+     * @return a virtual thread factory when the JVM provides one, a daemon platform thread factory otherwise
+     */
+    private static ThreadFactory createThreadFactory( )
+    {
+        try
+        {
+            // Thread.ofVirtual( ).name( prefix, 1 ).factory( ) through reflection, the plugin being compiled for JVMs without virtual threads
+            Class<?> builderClass = Class.forName( CLASS_THREAD_BUILDER );
+            Object builder = Thread.class.getMethod( METHOD_OF_VIRTUAL ).invoke( null );
+            builder = builderClass.getMethod( METHOD_NAME, String.class, long.class ).invoke( builder, THREAD_NAME_PREFIX, 1L );
+            ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod( METHOD_FACTORY ).invoke( builder );
+            AppLogService.info( "The OAuth2 callbacks are handled by virtual threads" );
+
+            return threadFactory;
+        }
+        catch( ReflectiveOperationException e )
+        {
+            AtomicInteger nThreadNumber = new AtomicInteger( );
+
+            return runnable -> {
+                Thread thread = new Thread( runnable, THREAD_NAME_PREFIX + nThreadNumber.incrementAndGet( ) );
+                thread.setDaemon( true );
+
+                return thread;
+            };
+        }
+    }
+
+    /**
+     * Handling of an asynchronous callback, completed exactly once : by its handler, or by the container on a timeout or an error, which cancels the
+     * handling
+     */
+    private final class AsyncCallback implements Runnable, AsyncListener
+    {
+        private final AsyncContext _asyncContext;
+        private final CallbackHandler _handler;
+        private final AtomicBoolean _bCompleted = new AtomicBoolean( );
+        private volatile Future<?> _future;
+
+        private AsyncCallback( AsyncContext asyncContext, CallbackHandler handler )
+        {
+            _asyncContext = asyncContext;
+            _handler = handler;
+        }
+
+        private void setFuture( Future<?> future )
+        {
+            _future = future;
+
+            if ( _bCompleted.get( ) )
+            {
+                // timed out before being queued
+                future.cancel( true );
+            }
+        }
+
+        @Override
+        public void run( )
+        {
+            if ( _bCompleted.get( ) )
+            {
+                // timed out while waiting in the queue : the response belongs to the container again
+                return;
+            }
+
+            HttpServletRequest request = (HttpServletRequest) _asyncContext.getRequest( );
+            HttpServletResponse response = (HttpServletResponse) _asyncContext.getResponse( );
+
+            try
+            {
+                _handler.handle( request, response );
+            }
+            catch( RuntimeException e )
+            {
+                // no container thread left to propagate the exception to
+                boolean bAccessDenied = e.getCause( ) instanceof AccessDeniedException || e.getCause( ) instanceof UserNotSignedException;
+                AppLogService.error( "Error handling the OAuth2 callback", e );
+
+                if ( !_bCompleted.get( ) )
+                {
+                    sendError( response, bAccessDenied ? HttpServletResponse.SC_FORBIDDEN : HttpServletResponse.SC_INTERNAL_SERVER_ERROR );
+                }
+            }
+            finally
+            {
+                complete( );
+            }
+        }
+
+        /**
+         * Complete the request, unless it has already been completed
+         */
+        private void complete( )
+        {
+            if ( _bCompleted.compareAndSet( false, true ) )
+            {
+                _asyncContext.complete( );
+            }
+        }
+
+        private void cancel( )
+        {
+            Future<?> future = _future;
+
+            if ( future != null )
+            {
+                future.cancel( true );
+            }
+        }
+
+        @Override
+        public void onTimeout( AsyncEvent event )
+        {
+            _nTimeoutCount.increment( );
+
+            if ( _bCompleted.compareAndSet( false, true ) )
+            {
+                AppLogService.error( "The OAuth2 callback has timed out after " + _lTimeoutMillis + " ms" );
+                sendError( (HttpServletResponse) event.getAsyncContext( ).getResponse( ), HttpServletResponse.SC_SERVICE_UNAVAILABLE );
+                _asyncContext.complete( );
+            }
+
+            cancel( );
+        }
+
+        @Override
+        public void onError( AsyncEvent event )
+        {
+            AppLogService.error( "Error on the asynchronous OAuth2 callback", event.getThrowable( ) );
+            complete( );
+            cancel( );
+        }
+
+        @Override
+        public void onComplete( AsyncEvent event )
+        {
+            // nothing : the completion is tracked by the callback itself
+        }
+
+        @Override
+        public void onStartAsync( AsyncEvent event )
+        {
+            // nothing
+        }
+    }
+
+    /**
+     * Handling of a callback
+     */
+    @FunctionalInterface
+    public interface CallbackHandler
+    {
+        /**
+         * Handle the callback and write the response
+         *
+         * @param request
+         *            The HTTP request
+         * @param response
+         *            The HTTP response
+         */
+        void handle( HttpServletRequest request, HttpServletResponse response );
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service.cache;
+
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Utils;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the logins known to exist in the admin users table, so that the authentication path does not look them up on each login
+ */
+public final class AdminUserLoginCache
+{
+    private static final AdminUserLoginCache _singleton = new AdminUserLoginCache( );
+
+    private final long _lTimeToLiveMillis;
+    private final BoundedTtlCache<Boolean> _cache;
+
+    /**
+     * private constructor
+     */
+    private AdminUserLoginCache( )
+    {
+        _lTimeToLiveMillis = TimeUnit.SECONDS.toMillis( AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_KNOWN_LOGINS_CACHE_TTL, 300 ) );
+        _cache = new BoundedTtlCache<>( AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_KNOWN_LOGINS_CACHE_MAX_SIZE, 10000 ) );
+    }
+
+    /**
+     * Gets the instance.
+     *
+     * @return the instance
+     */
+    public static AdminUserLoginCache getInstance( )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Tell if a login is known to exist
+     *
+     * @param strLogin
+     *            the login
+     * @return true if the login has been found or created recently
+     */
+    public boolean isKnown( String strLogin )
+    {
+        return _cache.get( strLogin ) != null;
+    }
+
+    /**
+     * Remember that a login exists
+     *
+     * @param strLogin
+     *            the login
+     */
+    public void putKnown( String strLogin )
+    {
+        _cache.put( strLogin, Boolean.TRUE, _lTimeToLiveMillis );
+    }
+
+    /**
+     * Forget a login
+     *
+     * @param strLogin
+     *            the login
+     */
+    public void invalidate( String strLogin )
+    {
+        _cache.remove( strLogin );
+    }
+
+    /**
+     * @return the number of lookups served from the cache
+     */
+    public long getHitCount( )
+    {
+        return _cache.getHitCount( );
+    }
+
+    /**
+     * @return the number of lookups made in database
+     */
+    public long getMissCount( )
+    {
+        return _cache.getMissCount( );
+    }
+
+    /**
+     * @return the ratio of lookups served from the cache
+     */
+    public double getHitRatio( )
+    {
+        return _cache.getHitRatio( );
+    }
+}
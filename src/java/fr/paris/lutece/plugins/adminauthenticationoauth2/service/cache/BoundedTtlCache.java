@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service.cache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Size bounded cache whose entries expire after a per entry time to live
+ *
+ * @param <V>
+ *            the type of the cached values
+ */
+public class BoundedTtlCache<V>
+{
+    private final Map<String, CacheEntry<V>> _mapEntries = new ConcurrentHashMap<>( );
+    private final int _nMaxSize;
+    private final LongAdder _nHits = new LongAdder( );
+    private final LongAdder _nMisses = new LongAdder( );
+
+    /**
+     * Constructor
+     *
+     * @param nMaxSize
+     *            the maximum number of entries kept in the cache
+     */
+    public BoundedTtlCache( int nMaxSize )
+    {
+        _nMaxSize = nMaxSize;
+    }
+
+    /**
+     * Get a value from the cache
+     *
+     * @param strKey
+     *            the key
+     * @return the value, or null if absent or expired
+     */
+    public V get( String strKey )
+    {
+        CacheEntry<V> entry = _mapEntries.get( strKey );
+
+        if ( entry != null )
+        {
+            if ( !entry.isExpired( System.currentTimeMillis( ) ) )
+            {
+                _nHits.increment( );
+
+                return entry._value;
+            }
+
+            _mapEntries.remove( strKey, entry );
+        }
+
+        _nMisses.increment( );
+
+        return null;
+    }
+
+    /**
+     * Put a value in the cache. The value is not cached if the cache is full of live entries.
+     *
+     * @param strKey
+     *            the key
+     * @param value
+     *            the value
+     * @param lTimeToLiveMillis
+     *            the time to live of the entry in milliseconds
+     */
+    public void put( String strKey, V value, long lTimeToLiveMillis )
+    {
+        if ( lTimeToLiveMillis <= 0 )
+        {
+            return;
+        }
+
+        if ( _mapEntries.size( ) >= _nMaxSize && !_mapEntries.containsKey( strKey ) )
+        {
+            purgeExpired( );
+
+            if ( _mapEntries.size( ) >= _nMaxSize )
+            {
+                return;
+            }
+        }
+
+        _mapEntries.put( strKey, new CacheEntry<>( value, System.currentTimeMillis( ) + lTimeToLiveMillis ) );
+    }
+
+    /**
+     * Remove an entry
+     *
+     * @param strKey
+     *            the key
+     */
+    public void remove( String strKey )
+    {
+        _mapEntries.remove( strKey );
+    }
+
+    /**
+     * Remove all the entries whose value matches the predicate
+     *
+     * @param predicate
+     *            the predicate
+     */
+    public void removeIf( Predicate<V> predicate )
+    {
+        _mapEntries.values( ).removeIf( entry -> predicate.test( entry._value ) );
+    }
+
+    /**
+     * Remove the expired entries
+     */
+    public void purgeExpired( )
+    {
+        long lNow = System.currentTimeMillis( );
+        _mapEntries.values( ).removeIf( entry -> entry.isExpired( lNow ) );
+    }
+
+    /**
+     * Remove all the entries
+     */
+    public void clear( )
+    {
+        _mapEntries.clear( );
+    }
+
+    /**
+     * @return the number of entries, including the expired ones not purged yet
+     */
+    public int size( )
+    {
+        return _mapEntries.size( );
+    }
+
+    /**
+     * @return the number of cache hits
+     */
+    public long getHitCount( )
+    {
+        return _nHits.sum( );
+    }
+
+    /**
+     * @return the number of cache misses
+     */
+    public long getMissCount( )
+    {
+        return _nMisses.sum( );
+    }
+
+    /**
+     * @return the ratio of hits over lookups, 0 if there was no lookup
+     */
+    public double getHitRatio( )
+    {
+        long lHits = getHitCount( );
+        long lLookups = lHits + getMissCount( );
+
+        return ( lLookups == 0 ) ? 0 : (double) lHits / lLookups;
+    }
+
+    /**
+     * Cache entry
+     */
+    private static final class CacheEntry<V>
+    {
+        private final V _value;
+        private final long _lExpirationTime;
+
+        private CacheEntry( V value, long lExpirationTime )
+        {
+            _value = value;
+            _lExpirationTime = lExpirationTime;
+        }
+
+        private boolean isExpired( long lNow )
+        {
+            return lNow >= _lExpirationTime;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service.cache;
+
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Utils;
+import fr.paris.lutece.plugins.oauth2.business.Token;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the refresh tokens recently validated against the authorization server. Entries are keyed by a hash of the refresh token so the tokens
+ * themselves are never kept in memory by the cache.
+ */
+public final class RefreshTokenValidationCache
+{
+    private static final RefreshTokenValidationCache _singleton = new RefreshTokenValidationCache( );
+
+    private final long _lTimeToLiveMillis;
+    private final BoundedTtlCache<String> _cache;
+
+    /**
+     * private constructor
+     */
+    private RefreshTokenValidationCache( )
+    {
+        _lTimeToLiveMillis = TimeUnit.SECONDS.toMillis( AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_VALIDATE_REFRESH_TOKEN_CACHE_TTL, 60 ) );
+        _cache = new BoundedTtlCache<>( AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_VALIDATE_REFRESH_TOKEN_CACHE_MAX_SIZE, 10000 ) );
+    }
+
+    /**
+     * Gets the instance.
+     *
+     * @return the instance
+     */
+    public static RefreshTokenValidationCache getInstance( )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Tell if a refresh token has been validated recently
+     *
+     * @param strRefreshToken
+     *            the refresh token
+     * @return true if the token has been validated and the validation has not expired
+     */
+    public boolean isValidated( String strRefreshToken )
+    {
+        return strRefreshToken != null && _cache.get( Oauth2Utils.hash( strRefreshToken ) ) != null;
+    }
+
+    /**
+     * Store the validation of a token returned by the authorization server
+     *
+     * @param token
+     *            the token
+     * @param strAdminUserName
+     *            the admin user name the token belongs to
+     */
+    public void putValidated( Token token, String strAdminUserName )
+    {
+        if ( token == null || token.getRefreshToken( ) == null )
+        {
+            return;
+        }
+
+        long lTimeToLive = _lTimeToLiveMillis;
+
+        if ( token.getExpiresIn( ) > 0 )
+        {
+            lTimeToLive = Math.min( lTimeToLive, TimeUnit.SECONDS.toMillis( token.getExpiresIn( ) ) );
+        }
+
+        _cache.put( Oauth2Utils.hash( token.getRefreshToken( ) ), ( strAdminUserName != null ) ? strAdminUserName : "", lTimeToLive );
+    }
+
+    /**
+     * Invalidate the validation of a refresh token
+     *
+     * @param strRefreshToken
+     *            the refresh token
+     */
+    public void invalidate( String strRefreshToken )
+    {
+        if ( strRefreshToken != null )
+        {
+            _cache.remove( Oauth2Utils.hash( strRefreshToken ) );
+        }
+    }
+
+    /**
+     * Invalidate all the validations of an admin user
+     *
+     * @param strAdminUserName
+     *            the admin user name
+     */
+    public void invalidateAdminUser( String strAdminUserName )
+    {
+        _cache.removeIf( strAdminUserName::equals );
+    }
+
+    /**
+     * Invalidate all the validations of several admin users in a single pass
+     *
+     * @param collectionAdminUserNames
+     *            the admin user names
+     */
+    public void invalidateAdminUsers( Collection<String> collectionAdminUserNames )
+    {
+        Set<String> setAdminUserNames = new HashSet<>( collectionAdminUserNames );
+        _cache.removeIf( setAdminUserNames::contains );
+    }
+
+    /**
+     * @return the number of validations served from the cache
+     */
+    public long getHitCount( )
+    {
+        return _cache.getHitCount( );
+    }
+
+    /**
+     * @return the number of validations sent to the authorization server
+     */
+    public long getMissCount( )
+    {
+        return _cache.getMissCount( );
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service.http;
+
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Utils;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HTTP client of the plugin for the calls to the userinfo endpoint. The connections are persistent : the responses are always read entirely so the
+ * JDK keeps the connections alive and reuses them. The calls are bounded by timeouts and the number of concurrent calls is capped (bulkhead), so a slow
+ * authorization server cannot hold all the container threads.
+ * <p>
+ * The client goes through the proxy of the httpaccess properties (host, port and hosts without proxy), and uses the TLS settings of the JVM. It is
+ * disabled when the httpaccess properties require a proxy authentication, which it does not support : the calls then go through the OAuth2 plugin.
+ * </p>
+ */
+public final class UserInfoHttpClient
+{
+    private static final String HEADER_AUTHORIZATION = "Authorization";
+    private static final String HEADER_ACCEPT = "Accept";
+    private static final String BEARER = "Bearer ";
+    private static final int BUFFER_SIZE = 4096;
+    private static final String PROPERTY_HTTPACCESS_PROXY_HOST = "httpAccess.proxyHost";
+    private static final String PROPERTY_HTTPACCESS_PROXY_PORT = "httpAccess.proxyPort";
+    private static final String PROPERTY_HTTPACCESS_PROXY_USER_NAME = "httpAccess.proxyUserName";
+    private static final String PROPERTY_HTTPACCESS_NO_PROXY_FOR = "httpAccess.noProxyFor";
+    private static final String WILDCARD = "*";
+
+    private static final UserInfoHttpClient _singleton = new UserInfoHttpClient( );
+
+    private final boolean _bEnabled;
+    private final int _nConnectTimeout;
+    private final int _nReadTimeout;
+    private final long _lAcquireTimeoutMillis;
+    private final int _nMaxConcurrentCalls;
+    private final Semaphore _semaphore;
+    private final Proxy _proxy;
+    private final String [ ] _tabNoProxyHosts;
+    private final LongAdder _nCallCount = new LongAdder( );
+    private final LongAdder _nFailureCount = new LongAdder( );
+    private final LongAdder _nRejectedCount = new LongAdder( );
+    private final LongAdder _lTotalLatencyMillis = new LongAdder( );
+    private final AtomicLong _lMaxLatencyMillis = new AtomicLong( );
+
+    /**
+     * private constructor
+     */
+    private UserInfoHttpClient( )
+    {
+        boolean bEnabled = AppPropertiesService.getPropertyBoolean( Oauth2Utils.PROPERTY_HTTP_CLIENT_ENABLED, false );
+
+        if ( bEnabled && StringUtils.isNotBlank( AppPropertiesService.getProperty( PROPERTY_HTTPACCESS_PROXY_USER_NAME ) ) )
+        {
+            AppLogService.info( "The HTTP client of the plugin does not support the proxy authentication of httpaccess, the OAuth2 plugin is used" );
+            bEnabled = false;
+        }
+
+        _bEnabled = bEnabled;
+        _nConnectTimeout = AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_HTTP_CLIENT_CONNECT_TIMEOUT, 2000 );
+        _nReadTimeout = AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_HTTP_CLIENT_READ_TIMEOUT, 5000 );
+        _lAcquireTimeoutMillis = AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_HTTP_CLIENT_ACQUIRE_TIMEOUT, 1000 );
+        _nMaxConcurrentCalls = AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_HTTP_CLIENT_MAX_CONCURRENT_CALLS, 20 );
+        _semaphore = new Semaphore( _nMaxConcurrentCalls, true );
+
+        String strProxyHost = AppPropertiesService.getProperty( PROPERTY_HTTPACCESS_PROXY_HOST );
+        int nProxyPort = AppPropertiesService.getPropertyInt( PROPERTY_HTTPACCESS_PROXY_PORT, 80 );
+        _proxy = StringUtils.isNotBlank( strProxyHost )
+                ? new Proxy( Proxy.Type.HTTP, InetSocketAddress.createUnresolved( strProxyHost.trim( ), nProxyPort ) )
+                : Proxy.NO_PROXY;
+
+        String strNoProxyFor = AppPropertiesService.getProperty( PROPERTY_HTTPACCESS_NO_PROXY_FOR );
+        _tabNoProxyHosts = StringUtils.isNotBlank( strNoProxyFor ) ? StringUtils.stripAll( strNoProxyFor.split( Oauth2Utils.SEPARATOR ) )
+                : new String [ 0 ];
+    }
+
+    /**
+     * Gets the instance.
+     *
+     * @return the instance
+     */
+    public static UserInfoHttpClient getInstance( )
+    {
+        return _singleton;
+    }
+
+    /**
+     * @return true if the userinfo endpoint is called by this client rather than by the OAuth2 plugin
+     */
+    public boolean isEnabled( )
+    {
+        return _bEnabled;
+    }
+
+    /**
+     * Call the userinfo endpoint
+     *
+     * @param strUri
+     *            the uri of the userinfo endpoint
+     * @param strAccessToken
+     *            the access token sent as bearer token
+     * @return the response body
+     * @throws IOException
+     *             if the call fails, times out, or if too many calls are pending
+     */
+    public String getUserInfo( String strUri, String strAccessToken ) throws IOException
+    {
+        boolean bAcquired;
+
+        try
+        {
+            bAcquired = _semaphore.tryAcquire( _lAcquireTimeoutMillis, TimeUnit.MILLISECONDS );
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread( ).interrupt( );
+            throw new IOException( "Interrupted while waiting for a userinfo call slot", e );
+        }
+
+        if ( !bAcquired )
+        {
+            _nRejectedCount.increment( );
+            throw new IOException( "Too many concurrent calls to the userinfo endpoint (" + _nMaxConcurrentCalls + ")" );
+        }
+
+        long lStart = System.currentTimeMillis( );
+
+        try
+        {
+            _nCallCount.increment( );
+
+            return call( strUri, strAccessToken );
+        }
+        catch( IOException e )
+        {
+            _nFailureCount.increment( );
+            throw e;
+        }
+        finally
+        {
+            _semaphore.release( );
+            recordLatency( System.currentTimeMillis( ) - lStart );
+        }
+    }
+
+    /**
+     * @return the number of calls
+     */
+    public long getCallCount( )
+    {
+        return _nCallCount.sum( );
+    }
+
+    /**
+     * @return the number of failed calls
+     */
+    public long getFailureCount( )
+    {
+        return _nFailureCount.sum( );
+    }
+
+    /**
+     * @return the number of calls rejected by the bulkhead
+     */
+    public long getRejectedCount( )
+    {
+        return _nRejectedCount.sum( );
+    }
+
+    /**
+     * @return the number of calls in progress
+     */
+    public int getActiveCallCount( )
+    {
+        return _nMaxConcurrentCalls - _semaphore.availablePermits( );
+    }
+
+    /**
+     * @return the number of calls waiting for a slot
+     */
+    public int getWaitingCallCount( )
+    {
+        return _semaphore.getQueueLength( );
+    }
+
+    /**
+     * @return the mean latency of the calls in milliseconds
+     */
+    public long getMeanLatencyMillis( )
+    {
+        long lCount = _nCallCount.sum( );
+
+        return ( lCount == 0 ) ? 0 : _lTotalLatencyMillis.sum( ) / lCount;
+    }
+
+    /**
+     * @return the max latency of the calls in milliseconds
+     */
+    public long getMaxLatencyMillis( )
+    {
+        return _lMaxLatencyMillis.get( );
+    }
+
+    private String call( String strUri, String strAccessToken ) throws IOException
+    {
+        URL url = new URL( strUri );
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection( getProxy( url.getHost( ) ) );
+        connection.setConnectTimeout( _nConnectTimeout );
+        connection.setReadTimeout( _nReadTimeout );
+        connection.setUseCaches( false );
+        connection.setRequestProperty( HEADER_ACCEPT, "application/json" );
+        connection.setRequestProperty( HEADER_AUTHORIZATION, BEARER + strAccessToken );
+
+        int nStatus = connection.getResponseCode( );
+
+        if ( nStatus != HttpURLConnection.HTTP_OK )
+        {
+            // the error body is consumed so the connection goes back to the keep-alive cache
+            readFully( connection.getErrorStream( ) );
+            throw new IOException( "The userinfo endpoint returned the HTTP status " + nStatus );
+        }
+
+        return readFully( connection.getInputStream( ) );
+    }
+
+    /**
+     * Get the proxy of a host, as httpaccess does : httpAccess.proxyHost and httpAccess.proxyPort, except for the hosts of
+     * httpAccess.noProxyFor
+     *
+     * @param strHost
+     *            the host
+     * @return the proxy, or no proxy if the host is excluded from the proxy
+     */
+    public Proxy getProxy( String strHost )
+    {
+        for ( String strNoProxyHost : _tabNoProxyHosts )
+        {
+            if ( strNoProxyHost.equalsIgnoreCase( strHost )
+                    || ( strNoProxyHost.startsWith( WILDCARD ) && StringUtils.endsWithIgnoreCase( strHost, strNoProxyHost.substring( 1 ) ) ) )
+            {
+                return Proxy.NO_PROXY;
+            }
+        }
+
+        return _proxy;
+    }
+
+    private static String readFully( InputStream inputStream ) throws IOException
+    {
+        if ( inputStream == null )
+        {
+            return "";
+        }
+
+        try ( InputStream in = inputStream )
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream( );
+            byte [ ] buffer = new byte [ BUFFER_SIZE ];
+            int nRead;
+
+            while ( ( nRead = in.read( buffer ) ) != -1 )
+            {
+                out.write( buffer, 0, nRead );
+            }
+
+            return new String( out.toByteArray( ), StandardCharsets.UTF_8 );
+        }
+    }
+
+    private void recordLatency( long lLatencyMillis )
+    {
+        _lTotalLatencyMillis.add( lLatencyMillis );
+        _lMaxLatencyMillis.accumulateAndGet( lLatencyMillis, Math::max );
+    }
+}
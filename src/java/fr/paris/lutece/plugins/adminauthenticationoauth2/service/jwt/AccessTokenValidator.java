@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service.jwt;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Utils;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local validation of the signed (JWT) access tokens : the signature is checked against the cached JWKS and the expiry against the local clock,
+ * without any call to the authorization server.
+ */
+public final class AccessTokenValidator
+{
+    private static final AccessTokenValidator _singleton = new AccessTokenValidator( );
+
+    private final ObjectMapper _mapper = new ObjectMapper( );
+    private final long _lClockSkewMillis;
+    private final LongAdder _nValidCount = new LongAdder( );
+    private final LongAdder _nExpiredCount = new LongAdder( );
+    private final LongAdder _nInvalidCount = new LongAdder( );
+
+    /**
+     * Result of the validation
+     */
+    public enum Result
+    {
+        /** signature and expiry checked */
+        VALID,
+        /** valid signature but expired token */
+        EXPIRED,
+        /** not a JWT, unknown key, unsupported algorithm or bad signature */
+        INVALID
+    }
+
+    /**
+     * private constructor
+     */
+    private AccessTokenValidator( )
+    {
+        _lClockSkewMillis = TimeUnit.SECONDS.toMillis( AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_JWKS_CLOCK_SKEW, 30 ) );
+    }
+
+    /**
+     * Gets the instance.
+     *
+     * @return the instance
+     */
+    public static AccessTokenValidator getInstance( )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Validate an access token
+     *
+     * @param strAccessToken
+     *            the access token
+     * @return the result of the validation
+     */
+    public Result validate( String strAccessToken )
+    {
+        Result result = doValidate( strAccessToken );
+
+        if ( result == Result.VALID )
+        {
+            _nValidCount.increment( );
+        }
+        else
+            if ( result == Result.EXPIRED )
+            {
+                _nExpiredCount.increment( );
+            }
+            else
+            {
+                _nInvalidCount.increment( );
+            }
+
+        return result;
+    }
+
+    /**
+     * @return the number of tokens validated locally
+     */
+    public long getValidCount( )
+    {
+        return _nValidCount.sum( );
+    }
+
+    /**
+     * @return the number of expired tokens
+     */
+    public long getExpiredCount( )
+    {
+        return _nExpiredCount.sum( );
+    }
+
+    /**
+     * @return the number of tokens which could not be validated locally
+     */
+    public long getInvalidCount( )
+    {
+        return _nInvalidCount.sum( );
+    }
+
+    private Result doValidate( String strAccessToken )
+    {
+        if ( strAccessToken == null )
+        {
+            return Result.INVALID;
+        }
+
+        String [ ] tabParts = strAccessToken.split( "\\." );
+
+        if ( tabParts.length != 3 )
+        {
+            return Result.INVALID;
+        }
+
+        try
+        {
+            Base64.Decoder decoder = Base64.getUrlDecoder( );
+            JsonNode header = _mapper.readTree( decoder.decode( tabParts [0] ) );
+            String strAlgorithm = getSignatureAlgorithm( header.path( "alg" ).asText( ) );
+            PublicKey key = ( strAlgorithm != null ) ? JwksService.getInstance( ).getKey( header.path( "kid" ).asText( null ) ) : null;
+
+            if ( key == null )
+            {
+                return Result.INVALID;
+            }
+
+            Signature signature = Signature.getInstance( strAlgorithm );
+            signature.initVerify( key );
+            signature.update( ( tabParts [0] + "." + tabParts [1] ).getBytes( StandardCharsets.US_ASCII ) );
+
+            if ( !signature.verify( decoder.decode( tabParts [2] ) ) )
+            {
+                return Result.INVALID;
+            }
+
+            JsonNode payload = _mapper.readTree( decoder.decode( tabParts [1] ) );
+            long lNow = System.currentTimeMillis( );
+
+            if ( !payload.path( "exp" ).canConvertToLong( ) || TimeUnit.SECONDS.toMillis( payload.path( "exp" ).asLong( ) ) + _lClockSkewMillis < lNow )
+            {
+                return Result.EXPIRED;
+            }
+            if ( payload.has( "nbf" ) && TimeUnit.SECONDS.toMillis( payload.path( "nbf" ).asLong( ) ) - _lClockSkewMillis > lNow )
+            {
+                return Result.INVALID;
+            }
+
+            return Result.VALID;
+        }
+        catch( IOException | GeneralSecurityException | IllegalArgumentException e )
+        {
+            return Result.INVALID;
+        }
+    }
+
+    private static String getSignatureAlgorithm( String strJwtAlgorithm )
+    {
+        switch( strJwtAlgorithm )
+        {
+            case "RS256":
+                return "SHA256withRSA";
+            case "RS384":
+                return "SHA384withRSA";
+            case "RS512":
+                return "SHA512withRSA";
+            default:
+                return null;
+        }
+    }
+}
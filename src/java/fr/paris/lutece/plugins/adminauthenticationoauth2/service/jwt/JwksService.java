@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service.jwt;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Utils;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.http.UserInfoHttpClient;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of the signing keys published by the authorization server (JWKS). The keys are refreshed in the background and on demand when a token is
+ * signed with an unknown key, at most once per configured interval. A single load runs at a time, without holding any lock : the threads asking for a
+ * refresh meanwhile wait for its result instead of loading the keys again. The keys are loaded through the proxy of httpaccess.
+ */
+public final class JwksService
+{
+    private static final String KEY_TYPE_RSA = "RSA";
+    private static final String KEY_USE_SIGNATURE = "sig";
+    private static final int HTTP_TIMEOUT_MILLIS = 5000;
+
+    private static final JwksService _singleton = new JwksService( );
+
+    private final String _strJwksUri;
+    private final long _lMinRefreshIntervalMillis;
+    private final ObjectMapper _mapper = new ObjectMapper( );
+    private final LongAdder _nRefreshCount = new LongAdder( );
+    private final LongAdder _nRefreshFailureCount = new LongAdder( );
+    private volatile Map<String, PublicKey> _mapKeys = Collections.emptyMap( );
+    private volatile long _lLastRefreshTime;
+    private CompletableFuture<Boolean> _futureRefresh;
+
+    /**
+     * private constructor
+     */
+    private JwksService( )
+    {
+        _strJwksUri = AppPropertiesService.getProperty( Oauth2Utils.PROPERTY_JWKS_URI );
+        _lMinRefreshIntervalMillis = TimeUnit.SECONDS.toMillis( AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_JWKS_MIN_REFRESH_INTERVAL, 60 ) );
+    }
+
+    /**
+     * Gets the instance.
+     *
+     * @return the instance
+     */
+    public static JwksService getInstance( )
+    {
+        return _singleton;
+    }
+
+    /**
+     * @return true if a JWKS uri is configured
+     */
+    public boolean isEnabled( )
+    {
+        return StringUtils.isNotBlank( _strJwksUri );
+    }
+
+    /**
+     * Gets a signing key. An unknown key id triggers a refresh of the keys, unless the keys have been refreshed recently.
+     *
+     * @param strKeyId
+     *            the key id of the token header, may be null if the server publishes a single key
+     * @return the key, or null if unknown
+     */
+    public PublicKey getKey( String strKeyId )
+    {
+        PublicKey key = findKey( _mapKeys, strKeyId );
+
+        if ( key == null && refreshIfAllowed( ) )
+        {
+            key = findKey( _mapKeys, strKeyId );
+        }
+
+        return key;
+    }
+
+    /**
+     * Reload the keys, whatever the last refresh time. A load already in progress is awaited instead.
+     *
+     * @return true if the keys have been reloaded
+     */
+    public boolean refresh( )
+    {
+        if ( !isEnabled( ) )
+        {
+            return false;
+        }
+
+        return startRefresh( false ).join( );
+    }
+
+    /**
+     * @return the number of keys in cache
+     */
+    public int getKeyCount( )
+    {
+        return _mapKeys.size( );
+    }
+
+    /**
+     * @return the number of successful loads of the keys
+     */
+    public long getRefreshCount( )
+    {
+        return _nRefreshCount.sum( );
+    }
+
+    /**
+     * @return the number of failed loads of the keys
+     */
+    public long getRefreshFailureCount( )
+    {
+        return _nRefreshFailureCount.sum( );
+    }
+
+    private boolean refreshIfAllowed( )
+    {
+        if ( !isEnabled( ) )
+        {
+            return false;
+        }
+
+        CompletableFuture<Boolean> futureRefresh = startRefresh( true );
+
+        return futureRefresh != null && futureRefresh.join( );
+    }
+
+    /**
+     * Start a load of the keys, or join the load in progress. The lock only guards the choice of the loading thread, the load runs outside of it.
+     *
+     * @param bLimited
+     *            true to skip the load if the keys have been loaded within the minimum refresh interval
+     * @return the result of the load, or null if it has been skipped
+     */
+    private CompletableFuture<Boolean> startRefresh( boolean bLimited )
+    {
+        CompletableFuture<Boolean> futureRefresh;
+
+        synchronized( this )
+        {
+            if ( _futureRefresh != null )
+            {
+                return _futureRefresh;
+            }
+
+            long lNow = System.currentTimeMillis( );
+
+            if ( bLimited && lNow - _lLastRefreshTime < _lMinRefreshIntervalMillis )
+            {
+                return null;
+            }
+
+            _lLastRefreshTime = lNow;
+            futureRefresh = new CompletableFuture<>( );
+            _futureRefresh = futureRefresh;
+        }
+
+        boolean bRefreshed = false;
+
+        try
+        {
+            _mapKeys = Collections.unmodifiableMap( loadKeys( ) );
+            _nRefreshCount.increment( );
+            bRefreshed = true;
+        }
+        catch( IOException | GeneralSecurityException | RuntimeException e )
+        {
+            // the keys loaded previously are kept
+            _nRefreshFailureCount.increment( );
+            AppLogService.error( "Unable to load the JWKS from " + _strJwksUri, e );
+        }
+        finally
+        {
+            synchronized( this )
+            {
+                _futureRefresh = null;
+            }
+            futureRefresh.complete( bRefreshed );
+        }
+
+        return futureRefresh;
+    }
+
+    private static PublicKey findKey( Map<String, PublicKey> mapKeys, String strKeyId )
+    {
+        if ( strKeyId == null )
+        {
+            return ( mapKeys.size( ) == 1 ) ? mapKeys.values( ).iterator( ).next( ) : null;
+        }
+
+        return mapKeys.get( strKeyId );
+    }
+
+    private Map<String, PublicKey> loadKeys( ) throws IOException, GeneralSecurityException
+    {
+        URL url = new URL( _strJwksUri );
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection( UserInfoHttpClient.getInstance( ).getProxy( url.getHost( ) ) );
+        connection.setConnectTimeout( HTTP_TIMEOUT_MILLIS );
+        connection.setReadTimeout( HTTP_TIMEOUT_MILLIS );
+        connection.setRequestProperty( "Accept", "application/json" );
+
+        try ( InputStream in = connection.getInputStream( ) )
+        {
+            JsonNode keys = _mapper.readTree( in ).path( "keys" );
+            Map<String, PublicKey> mapKeys = new HashMap<>( );
+            KeyFactory keyFactory = KeyFactory.getInstance( KEY_TYPE_RSA );
+
+            for ( JsonNode jwk : keys )
+            {
+                if ( KEY_TYPE_RSA.equals( jwk.path( "kty" ).asText( ) ) && KEY_USE_SIGNATURE.equals( jwk.path( "use" ).asText( KEY_USE_SIGNATURE ) ) )
+                {
+                    BigInteger modulus = new BigInteger( 1, Base64.getUrlDecoder( ).decode( jwk.path( "n" ).asText( ) ) );
+                    BigInteger exponent = new BigInteger( 1, Base64.getUrlDecoder( ).decode( jwk.path( "e" ).asText( ) ) );
+
+                    mapKeys.put( jwk.path( "kid" ).asText( "" ), keyFactory.generatePublic( new RSAPublicKeySpec( modulus, exponent ) ) );
+                }
+            }
+
+            return mapKeys;
+        }
+        finally
+        {
+            connection.disconnect( );
+        }
+    }
+}
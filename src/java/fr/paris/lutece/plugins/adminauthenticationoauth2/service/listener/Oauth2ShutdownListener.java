@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service.listener;
+
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.async.Oauth2CallbackExecutor;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.metrics.Oauth2Metrics;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.refresh.Oauth2TokenRefreshService;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.session.SessionRegistrySnapshotService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+import java.io.IOException;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ *
+ * Oauth2ShutdownListener releases the resources of the plugin held outside of the webapp (MBean, threads), so that the class loader of the webapp
+ * can be collected after a redeployment, and saves the last state of the session registry
+ *
+ */
+@WebListener
+public class Oauth2ShutdownListener implements ServletContextListener
+{
+
+    @Override
+    public void contextInitialized( ServletContextEvent sce )
+    {
+        // Nothing to do
+    }
+
+    @Override
+    public void contextDestroyed( ServletContextEvent sce )
+    {
+        SessionRegistrySnapshotService snapshotService = SessionRegistrySnapshotService.getInstance( );
+
+        if ( snapshotService.isEnabled( ) )
+        {
+            try
+            {
+                snapshotService.save( );
+            }
+            catch( IOException e )
+            {
+                AppLogService.error( "Unable to save the admin user session registry", e );
+            }
+        }
+
+        Oauth2TokenRefreshService.getInstance( ).shutdown( );
+        Oauth2CallbackExecutor.getInstance( ).shutdown( );
+        Oauth2Metrics.getInstance( ).unregister( );
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with logarithmic buckets : each power of two is split in 8 sub-buckets, so the recorded values are known with a relative
+ * precision of 12.5% whatever their magnitude. Values are recorded in nanoseconds.
+ */
+public final class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+    private static final int BUCKET_COUNT = ( 64 - SUB_BUCKET_BITS ) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray _counts = new AtomicLongArray( BUCKET_COUNT );
+    private final LongAdder _lCount = new LongAdder( );
+    private final LongAdder _lTotal = new LongAdder( );
+    private final AtomicLong _lMax = new AtomicLong( );
+
+    /**
+     * Record a value
+     *
+     * @param lNanos
+     *            the latency in nanoseconds
+     */
+    public void record( long lNanos )
+    {
+        long lValue = Math.max( 0, lNanos );
+
+        _counts.incrementAndGet( getBucketIndex( lValue ) );
+        _lCount.increment( );
+        _lTotal.add( lValue );
+
+        long lMax = _lMax.get( );
+
+        while ( lValue > lMax && !_lMax.compareAndSet( lMax, lValue ) )
+        {
+            lMax = _lMax.get( );
+        }
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public long getCount( )
+    {
+        return _lCount.sum( );
+    }
+
+    /**
+     * @return the mean of the recorded values in milliseconds
+     */
+    public double getMeanMillis( )
+    {
+        long lCount = _lCount.sum( );
+
+        return ( lCount == 0 ) ? 0 : toMillis( _lTotal.sum( ) / lCount );
+    }
+
+    /**
+     * @return the max of the recorded values in milliseconds
+     */
+    public double getMaxMillis( )
+    {
+        return toMillis( _lMax.get( ) );
+    }
+
+    /**
+     * Gets a percentile of the recorded values. The upper bound of the bucket containing the percentile is returned.
+     *
+     * @param dPercentile
+     *            the percentile, between 0 and 100
+     * @return the value in milliseconds
+     */
+    public double getPercentileMillis( double dPercentile )
+    {
+        long lCount = 0;
+        long [ ] counts = new long [ BUCKET_COUNT ];
+
+        for ( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            counts [i] = _counts.get( i );
+            lCount += counts [i];
+        }
+
+        if ( lCount == 0 )
+        {
+            return 0;
+        }
+
+        long lRank = (long) Math.ceil( lCount * Math.min( 100, Math.max( 0, dPercentile ) ) / 100 );
+        long lSeen = 0;
+
+        for ( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            lSeen += counts [i];
+
+            if ( lSeen >= Math.max( 1, lRank ) )
+            {
+                return toMillis( Math.min( getBucketUpperBound( i ), _lMax.get( ) ) );
+            }
+        }
+
+        return getMaxMillis( );
+    }
+
+    /**
+     * Reset the histogram
+     */
+    public void reset( )
+    {
+        for ( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            _counts.set( i, 0 );
+        }
+
+        _lCount.reset( );
+        _lTotal.reset( );
+        _lMax.set( 0 );
+    }
+
+    private static int getBucketIndex( long lValue )
+    {
+        if ( lValue < SUB_BUCKET_COUNT )
+        {
+            return (int) lValue;
+        }
+
+        int nMostSignificantBit = 63 - Long.numberOfLeadingZeros( lValue );
+        int nShift = nMostSignificantBit - SUB_BUCKET_BITS;
+
+        return ( ( nShift + 1 ) << SUB_BUCKET_BITS ) + (int) ( ( lValue >>> nShift ) & SUB_BUCKET_MASK );
+    }
+
+    private static long getBucketUpperBound( int nIndex )
+    {
+        int nBucket = nIndex >>> SUB_BUCKET_BITS;
+
+        if ( nBucket == 0 )
+        {
+            return nIndex;
+        }
+
+        int nShift = nBucket - 1;
+        long lLowerBound = ( (long) ( SUB_BUCKET_COUNT + ( nIndex & SUB_BUCKET_MASK ) ) ) << nShift;
+
+        return lLowerBound + ( 1L << nShift ) - 1;
+    }
+
+    private static double toMillis( long lNanos )
+    {
+        return (double) lNanos / TimeUnit.MILLISECONDS.toNanos( 1 );
+    }
+}
@@ -0,0 +1,630 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service.metrics;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.IdTokenClaimsService;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Service;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2UserInfoService;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Utils;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.async.Oauth2CallbackExecutor;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.cache.AdminUserLoginCache;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.cache.RefreshTokenValidationCache;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.http.UserInfoHttpClient;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.jwt.AccessTokenValidator;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.refresh.Oauth2TokenRefreshService;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.resilience.Oauth2ProfileService;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.session.Oauth2AdminUserSessionService;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.session.SessionAttributeWriter;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.web.AdminOauth2Filter;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPathService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Latency histograms and outcome counters of the phases of the admin OAuth2 authentication, exposed over JMX
+ */
+public final class Oauth2Metrics implements Oauth2MetricsMXBean
+{
+    public static final String OBJECT_NAME = "fr.paris.lutece.plugins.adminauthenticationoauth2:type=Oauth2Metrics";
+    private static final String KEY_WEBAPP = ",webapp=";
+
+    private static final Oauth2Metrics _singleton = new Oauth2Metrics( );
+    private static final ObjectMapper _mapper = new ObjectMapper( );
+
+    private final boolean _bEnabled;
+    private final Map<Phase, LatencyHistogram> _mapHistograms = new EnumMap<>( Phase.class );
+    private final Map<Phase, Map<Outcome, LongAdder>> _mapOutcomes = new EnumMap<>( Phase.class );
+    private volatile ObjectName _objectName;
+
+    /**
+     * Phases of the authentication
+     */
+    public enum Phase
+    {
+        /** whole handling of the token returned by the authorization server */
+        HANDLE_TOKEN,
+        /** whole reload of an authenticated user */
+        RELOAD_USER,
+        /** admin filter, the rest of the filter chain excluded */
+        FILTER,
+        /** renewal of a token with the refresh token */
+        TOKEN_REFRESH,
+        /** call to the userinfo endpoint */
+        USERINFO_FETCH,
+        /** parsing of the userinfo */
+        PARSE,
+        /** mapping of the userinfo to the admin user */
+        MAPPING,
+        /** lookup and creation of the admin user in database */
+        USER_PROVISIONING,
+        /** registration of the admin user in the session */
+        REGISTER_USER
+    }
+
+    /**
+     * Outcomes of a phase
+     */
+    public enum Outcome
+    {
+        SUCCESS, ACCESS_DENIED, IO_ERROR, LOGIN_REQUIRED, ERROR
+    }
+
+    /**
+     * private constructor
+     */
+    private Oauth2Metrics( )
+    {
+        _bEnabled = AppPropertiesService.getPropertyBoolean( Oauth2Utils.PROPERTY_METRICS_ENABLED, true );
+
+        for ( Phase phase : Phase.values( ) )
+        {
+            _mapHistograms.put( phase, new LatencyHistogram( ) );
+
+            Map<Outcome, LongAdder> mapOutcomes = new EnumMap<>( Outcome.class );
+            for ( Outcome outcome : Outcome.values( ) )
+            {
+                mapOutcomes.put( outcome, new LongAdder( ) );
+            }
+            _mapOutcomes.put( phase, mapOutcomes );
+        }
+
+        if ( _bEnabled && AppPropertiesService.getPropertyBoolean( Oauth2Utils.PROPERTY_METRICS_JMX_ENABLED, true ) )
+        {
+            register( );
+        }
+    }
+
+    /**
+     * Gets the instance.
+     *
+     * @return the instance
+     */
+    public static Oauth2Metrics getInstance( )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Gets the start time of a phase
+     *
+     * @return the start time in nanoseconds, 0 if the metrics are disabled
+     */
+    public long start( )
+    {
+        return _bEnabled ? System.nanoTime( ) : 0;
+    }
+
+    /**
+     * Record the latency of a phase
+     *
+     * @param phase
+     *            the phase
+     * @param lStartNanos
+     *            the start time returned by {@link #start()}
+     */
+    public void record( Phase phase, long lStartNanos )
+    {
+        if ( _bEnabled )
+        {
+            _mapHistograms.get( phase ).record( System.nanoTime( ) - lStartNanos );
+        }
+    }
+
+    /**
+     * Record the latency and the outcome of a phase
+     *
+     * @param phase
+     *            the phase
+     * @param lStartNanos
+     *            the start time returned by {@link #start()}
+     * @param outcome
+     *            the outcome
+     */
+    public void record( Phase phase, long lStartNanos, Outcome outcome )
+    {
+        if ( _bEnabled )
+        {
+            record( phase, lStartNanos );
+            _mapOutcomes.get( phase ).get( outcome ).increment( );
+        }
+    }
+
+    /**
+     * Record the outcome of a phase which has not been timed
+     *
+     * @param phase
+     *            the phase
+     * @param outcome
+     *            the outcome
+     */
+    public void recordOutcome( Phase phase, Outcome outcome )
+    {
+        if ( _bEnabled )
+        {
+            _mapOutcomes.get( phase ).get( outcome ).increment( );
+        }
+    }
+
+    /**
+     * Gets the histogram of a phase
+     *
+     * @param phase
+     *            the phase
+     * @return the histogram
+     */
+    public LatencyHistogram getHistogram( Phase phase )
+    {
+        return _mapHistograms.get( phase );
+    }
+
+    @Override
+    public Map<String, Long> getPhaseCounts( )
+    {
+        Map<String, Long> mapCounts = new LinkedHashMap<>( );
+
+        for ( Map.Entry<Phase, LatencyHistogram> entry : _mapHistograms.entrySet( ) )
+        {
+            mapCounts.put( entry.getKey( ).name( ), entry.getValue( ).getCount( ) );
+        }
+
+        return mapCounts;
+    }
+
+    @Override
+    public Map<String, Double> getPhaseMeanMillis( )
+    {
+        return getPhaseValues( LatencyHistogram::getMeanMillis );
+    }
+
+    @Override
+    public Map<String, Double> getPhaseP50Millis( )
+    {
+        return getPhaseValues( histogram -> histogram.getPercentileMillis( 50 ) );
+    }
+
+    @Override
+    public Map<String, Double> getPhaseP99Millis( )
+    {
+        return getPhaseValues( histogram -> histogram.getPercentileMillis( 99 ) );
+    }
+
+    @Override
+    public Map<String, Double> getPhaseP999Millis( )
+    {
+        return getPhaseValues( histogram -> histogram.getPercentileMillis( 99.9 ) );
+    }
+
+    @Override
+    public Map<String, Double> getPhaseMaxMillis( )
+    {
+        return getPhaseValues( LatencyHistogram::getMaxMillis );
+    }
+
+    @Override
+    public Map<String, Long> getOutcomeCounts( )
+    {
+        Map<String, Long> mapCounts = new LinkedHashMap<>( );
+
+        for ( Map.Entry<Phase, Map<Outcome, LongAdder>> entry : _mapOutcomes.entrySet( ) )
+        {
+            for ( Map.Entry<Outcome, LongAdder> entryOutcome : entry.getValue( ).entrySet( ) )
+            {
+                long lCount = entryOutcome.getValue( ).sum( );
+
+                if ( lCount > 0 )
+                {
+                    mapCounts.put( entry.getKey( ).name( ) + "." + entryOutcome.getKey( ).name( ), lCount );
+                }
+            }
+        }
+
+        return mapCounts;
+    }
+
+    @Override
+    public long getBypassedRequestCount( )
+    {
+        return AdminOauth2Filter.getBypassedRequestCount( );
+    }
+
+    @Override
+    public long getTokenRefreshCount( )
+    {
+        return Oauth2TokenRefreshService.getInstance( ).getRefreshCount( );
+    }
+
+    @Override
+    public long getTokenRefreshFailureCount( )
+    {
+        return Oauth2TokenRefreshService.getInstance( ).getFailureCount( );
+    }
+
+    @Override
+    public double getRefreshTokenValidationHitRatio( )
+    {
+        RefreshTokenValidationCache cache = RefreshTokenValidationCache.getInstance( );
+        long lTotal = cache.getHitCount( ) + cache.getMissCount( );
+
+        return ( lTotal == 0 ) ? 0 : (double) cache.getHitCount( ) / lTotal;
+    }
+
+    @Override
+    public double getKnownLoginHitRatio( )
+    {
+        return AdminUserLoginCache.getInstance( ).getHitRatio( );
+    }
+
+    @Override
+    public long getUserInfoLoadCount( )
+    {
+        return Oauth2UserInfoService.getInstance( ).getLoadCount( );
+    }
+
+    @Override
+    public long getUserInfoCoalescedCount( )
+    {
+        return Oauth2UserInfoService.getInstance( ).getCoalescedCount( );
+    }
+
+    @Override
+    public long getIdTokenClaimsUsedCount( )
+    {
+        return IdTokenClaimsService.getInstance( ).getUsedCount( );
+    }
+
+    @Override
+    public long getIdTokenClaimsFallbackCount( )
+    {
+        return IdTokenClaimsService.getInstance( ).getFallbackCount( );
+    }
+
+    @Override
+    public long getLocalAccessTokenValidCount( )
+    {
+        return AccessTokenValidator.getInstance( ).getValidCount( );
+    }
+
+    @Override
+    public long getLocalAccessTokenExpiredCount( )
+    {
+        return AccessTokenValidator.getInstance( ).getExpiredCount( );
+    }
+
+    @Override
+    public long getLocalAccessTokenInvalidCount( )
+    {
+        return AccessTokenValidator.getInstance( ).getInvalidCount( );
+    }
+
+    @Override
+    public long getUserInfoCallCount( )
+    {
+        return UserInfoHttpClient.getInstance( ).getCallCount( );
+    }
+
+    @Override
+    public long getUserInfoCallFailureCount( )
+    {
+        return UserInfoHttpClient.getInstance( ).getFailureCount( );
+    }
+
+    @Override
+    public long getUserInfoCallRejectedCount( )
+    {
+        return UserInfoHttpClient.getInstance( ).getRejectedCount( );
+    }
+
+    @Override
+    public int getUserInfoActiveCallCount( )
+    {
+        return UserInfoHttpClient.getInstance( ).getActiveCallCount( );
+    }
+
+    @Override
+    public int getUserInfoWaitingCallCount( )
+    {
+        return UserInfoHttpClient.getInstance( ).getWaitingCallCount( );
+    }
+
+    @Override
+    public String getCircuitBreakerState( )
+    {
+        return Oauth2ProfileService.getInstance( ).getCircuitBreaker( ).getState( ).name( );
+    }
+
+    @Override
+    public long getCircuitBreakerOpenedCount( )
+    {
+        return Oauth2ProfileService.getInstance( ).getCircuitBreaker( ).getOpenedCount( );
+    }
+
+    @Override
+    public long getCircuitBreakerRejectedCount( )
+    {
+        return Oauth2ProfileService.getInstance( ).getCircuitBreaker( ).getRejectedCount( );
+    }
+
+    @Override
+    public long getCachedProfileServedCount( )
+    {
+        return Oauth2ProfileService.getInstance( ).getStaleServedCount( );
+    }
+
+    @Override
+    public long getProfileFailFastCount( )
+    {
+        return Oauth2ProfileService.getInstance( ).getFailFastCount( );
+    }
+
+    @Override
+    public long getAsyncCallbackCount( )
+    {
+        return Oauth2CallbackExecutor.getInstance( ).getAsyncCount( );
+    }
+
+    @Override
+    public long getSyncCallbackCount( )
+    {
+        return Oauth2CallbackExecutor.getInstance( ).getSyncCount( );
+    }
+
+    @Override
+    public long getSessionAttributeWriteCount( )
+    {
+        return SessionAttributeWriter.getWriteCount( );
+    }
+
+    @Override
+    public long getSessionAttributeSkippedWriteCount( )
+    {
+        return SessionAttributeWriter.getSkippedWriteCount( );
+    }
+
+    @Override
+    public long getRemapCount( )
+    {
+        return Oauth2Service.getRemapCount( );
+    }
+
+    @Override
+    public long getSkippedRemapCount( )
+    {
+        return Oauth2Service.getSkippedRemapCount( );
+    }
+
+    @Override
+    public int getAdminUserSessionCount( )
+    {
+        return Oauth2AdminUserSessionService.getInstance( ).getAdminUserSessionCount( );
+    }
+
+    @Override
+    public long getSessionRegistryFootprint( )
+    {
+        return Oauth2AdminUserSessionService.getInstance( ).getEstimatedFootprint( );
+    }
+
+    /**
+     * Take a snapshot of all the metrics, to be compared with the snapshots of other runs
+     *
+     * @return the snapshot
+     */
+    public Map<String, Object> getSnapshot( )
+    {
+        Map<String, Object> mapSnapshot = new LinkedHashMap<>( );
+        Map<String, Object> mapPhases = new LinkedHashMap<>( );
+
+        for ( Map.Entry<Phase, LatencyHistogram> entry : _mapHistograms.entrySet( ) )
+        {
+            LatencyHistogram histogram = entry.getValue( );
+            Map<String, Object> mapPhase = new LinkedHashMap<>( );
+            mapPhase.put( "count", histogram.getCount( ) );
+            mapPhase.put( "meanMillis", histogram.getMeanMillis( ) );
+            mapPhase.put( "p50Millis", histogram.getPercentileMillis( 50 ) );
+            mapPhase.put( "p99Millis", histogram.getPercentileMillis( 99 ) );
+            mapPhase.put( "p999Millis", histogram.getPercentileMillis( 99.9 ) );
+            mapPhase.put( "maxMillis", histogram.getMaxMillis( ) );
+            mapPhases.put( entry.getKey( ).name( ), mapPhase );
+        }
+
+        Map<String, Object> mapCounters = new LinkedHashMap<>( );
+        mapCounters.put( "bypassedRequests", getBypassedRequestCount( ) );
+        mapCounters.put( "tokenRefreshes", getTokenRefreshCount( ) );
+        mapCounters.put( "tokenRefreshFailures", getTokenRefreshFailureCount( ) );
+        mapCounters.put( "refreshTokenValidationHitRatio", getRefreshTokenValidationHitRatio( ) );
+        mapCounters.put( "knownLoginHitRatio", getKnownLoginHitRatio( ) );
+        mapCounters.put( "userInfoLoads", getUserInfoLoadCount( ) );
+        mapCounters.put( "userInfoCoalesced", getUserInfoCoalescedCount( ) );
+        mapCounters.put( "idTokenClaimsUsed", getIdTokenClaimsUsedCount( ) );
+        mapCounters.put( "idTokenClaimsFallbacks", getIdTokenClaimsFallbackCount( ) );
+        mapCounters.put( "localAccessTokenValid", getLocalAccessTokenValidCount( ) );
+        mapCounters.put( "localAccessTokenExpired", getLocalAccessTokenExpiredCount( ) );
+        mapCounters.put( "localAccessTokenInvalid", getLocalAccessTokenInvalidCount( ) );
+        mapCounters.put( "userInfoCalls", getUserInfoCallCount( ) );
+        mapCounters.put( "userInfoCallFailures", getUserInfoCallFailureCount( ) );
+        mapCounters.put( "userInfoCallsRejected", getUserInfoCallRejectedCount( ) );
+        mapCounters.put( "userInfoCallsActive", getUserInfoActiveCallCount( ) );
+        mapCounters.put( "userInfoCallsWaiting", getUserInfoWaitingCallCount( ) );
+        mapCounters.put( "circuitBreakerState", getCircuitBreakerState( ) );
+        mapCounters.put( "circuitBreakerOpened", getCircuitBreakerOpenedCount( ) );
+        mapCounters.put( "circuitBreakerRejected", getCircuitBreakerRejectedCount( ) );
+        mapCounters.put( "cachedProfilesServed", getCachedProfileServedCount( ) );
+        mapCounters.put( "profileFailFast", getProfileFailFastCount( ) );
+        mapCounters.put( "asyncCallbacks", getAsyncCallbackCount( ) );
+        mapCounters.put( "syncCallbacks", getSyncCallbackCount( ) );
+        mapCounters.put( "sessionAttributeWrites", getSessionAttributeWriteCount( ) );
+        mapCounters.put( "sessionAttributeSkippedWrites", getSessionAttributeSkippedWriteCount( ) );
+        mapCounters.put( "remaps", getRemapCount( ) );
+        mapCounters.put( "skippedRemaps", getSkippedRemapCount( ) );
+        mapCounters.put( "adminUserSessions", getAdminUserSessionCount( ) );
+        mapCounters.put( "sessionRegistryFootprint", getSessionRegistryFootprint( ) );
+
+        mapSnapshot.put( "timestamp", System.currentTimeMillis( ) );
+        mapSnapshot.put( "phases", mapPhases );
+        mapSnapshot.put( "outcomes", getOutcomeCounts( ) );
+        mapSnapshot.put( "counters", mapCounters );
+
+        return mapSnapshot;
+    }
+
+    @Override
+    public String exportJson( )
+    {
+        try
+        {
+            return _mapper.writeValueAsString( getSnapshot( ) );
+        }
+        catch( JsonProcessingException e )
+        {
+            AppLogService.error( "Unable to export the admin OAuth2 metrics", e );
+
+            return "{}";
+        }
+    }
+
+    @Override
+    public void reset( )
+    {
+        for ( LatencyHistogram histogram : _mapHistograms.values( ) )
+        {
+            histogram.reset( );
+        }
+        for ( Map<Outcome, LongAdder> mapOutcomes : _mapOutcomes.values( ) )
+        {
+            for ( LongAdder counter : mapOutcomes.values( ) )
+            {
+                counter.reset( );
+            }
+        }
+    }
+
+    private Map<String, Double> getPhaseValues( ToDoubleFunction<LatencyHistogram> function )
+    {
+        Map<String, Double> mapValues = new LinkedHashMap<>( );
+
+        for ( Map.Entry<Phase, LatencyHistogram> entry : _mapHistograms.entrySet( ) )
+        {
+            mapValues.put( entry.getKey( ).name( ), function.applyAsDouble( entry.getValue( ) ) );
+        }
+
+        return mapValues;
+    }
+
+    /**
+     * Register the MBean under a name keyed by the webapp, so that the webapps of a container sharing the platform MBean server each expose their
+     * own metrics
+     */
+    private void register( )
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer( );
+            ObjectName objectName = new ObjectName( OBJECT_NAME + KEY_WEBAPP + ObjectName.quote( AppPathService.getWebAppPath( ) ) );
+
+            if ( server.isRegistered( objectName ) )
+            {
+                // same webapp key : left by a previous deployment of this webapp, replaced so that the old class loader can be collected
+                server.unregisterMBean( objectName );
+            }
+            server.registerMBean( this, objectName );
+            _objectName = objectName;
+        }
+        catch( JMException e )
+        {
+            AppLogService.error( "Unable to register the admin OAuth2 metrics MBean", e );
+        }
+    }
+
+    /**
+     * Unregister the MBean registered by this instance, on the shutdown of the webapp. An MBean registered meanwhile under the same name by another
+     * deployment is left in place.
+     */
+    public void unregister( )
+    {
+        ObjectName objectName = _objectName;
+
+        if ( objectName == null )
+        {
+            return;
+        }
+
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer( );
+
+            if ( server.isRegistered( objectName ) && server.getClassLoaderFor( objectName ) == Oauth2Metrics.class.getClassLoader( ) )
+            {
+                server.unregisterMBean( objectName );
+            }
+            _objectName = null;
+        }
+        catch( JMException e )
+        {
+            AppLogService.error( "Unable to unregister the admin OAuth2 metrics MBean", e );
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics of the admin OAuth2 authentication. Latencies are in milliseconds, maps are keyed by phase name.
+ */
+public interface Oauth2MetricsMXBean
+{
+    Map<String, Long> getPhaseCounts( );
+
+    Map<String, Double> getPhaseMeanMillis( );
+
+    Map<String, Double> getPhaseP50Millis( );
+
+    Map<String, Double> getPhaseP99Millis( );
+
+    Map<String, Double> getPhaseP999Millis( );
+
+    Map<String, Double> getPhaseMaxMillis( );
+
+    /**
+     * @return the counts keyed by phase and outcome, as <code>PHASE.OUTCOME</code>
+     */
+    Map<String, Long> getOutcomeCounts( );
+
+    long getBypassedRequestCount( );
+
+    long getTokenRefreshCount( );
+
+    long getTokenRefreshFailureCount( );
+
+    double getRefreshTokenValidationHitRatio( );
+
+    double getKnownLoginHitRatio( );
+
+    long getUserInfoLoadCount( );
+
+    long getUserInfoCoalescedCount( );
+
+    long getIdTokenClaimsUsedCount( );
+
+    long getIdTokenClaimsFallbackCount( );
+
+    long getLocalAccessTokenValidCount( );
+
+    long getLocalAccessTokenExpiredCount( );
+
+    long getLocalAccessTokenInvalidCount( );
+
+    long getUserInfoCallCount( );
+
+    long getUserInfoCallFailureCount( );
+
+    long getUserInfoCallRejectedCount( );
+
+    int getUserInfoActiveCallCount( );
+
+    int getUserInfoWaitingCallCount( );
+
+    String getCircuitBreakerState( );
+
+    long getCircuitBreakerOpenedCount( );
+
+    long getCircuitBreakerRejectedCount( );
+
+    long getCachedProfileServedCount( );
+
+    long getProfileFailFastCount( );
+
+    long getAsyncCallbackCount( );
+
+    long getSyncCallbackCount( );
+
+    long getSessionAttributeWriteCount( );
+
+    long getSessionAttributeSkippedWriteCount( );
+
+    long getRemapCount( );
+
+    long getSkippedRemapCount( );
+
+    int getAdminUserSessionCount( );
+
+    long getSessionRegistryFootprint( );
+
+    /**
+     * @return a JSON snapshot of all the metrics
+     */
+    String exportJson( );
+
+    void reset( );
+}
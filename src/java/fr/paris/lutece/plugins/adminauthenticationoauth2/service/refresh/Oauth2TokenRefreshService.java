@@ -0,0 +1,459 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service.refresh;
+
+import fr.paris.lutece.plugins.adminauthenticationoauth2.business.authentication.AdminOauth2User;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Utils;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.cache.RefreshTokenValidationCache;
+import fr.paris.lutece.plugins.oauth2.business.Token;
+import fr.paris.lutece.plugins.oauth2.service.TokenService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.servlet.http.HttpSession;
+
+/**
+ * Renews the tokens of the live admin sessions in the background, shortly before they expire, so that request threads do not wait on the token
+ * endpoint. Sessions idle for longer than the configured delay are no longer renewed : their token is refreshed by their next request, if any.
+ */
+public final class Oauth2TokenRefreshService
+{
+    private static final Oauth2TokenRefreshService _singleton = new Oauth2TokenRefreshService( );
+    private static final String THREAD_NAME_PREFIX = "adminauthenticationoauth2-token-refresh-";
+
+    private final boolean _bEnabled;
+    private final long _lRefreshAheadMillis;
+    private final long _lMaxJitterMillis;
+    private final long _lMaxIdleMillis;
+    private final int _nPoolSize;
+    private final long _lRecentExchangeMillis;
+    private final Map<String, TrackedSession> _mapTrackedSessions = new ConcurrentHashMap<>( );
+    private final LongAdder _nRefreshCount = new LongAdder( );
+    private final LongAdder _nFailureCount = new LongAdder( );
+    private final LongAdder _nIdleCount = new LongAdder( );
+    private final LongAdder _lTotalLatencyMillis = new LongAdder( );
+    private final AtomicLong _lMaxLatencyMillis = new AtomicLong( );
+    private volatile ScheduledExecutorService _executor;
+
+    /**
+     * private constructor
+     */
+    private Oauth2TokenRefreshService( )
+    {
+        _bEnabled = AppPropertiesService.getPropertyBoolean( Oauth2Utils.PROPERTY_BACKGROUND_REFRESH_ENABLED, false );
+        _lRefreshAheadMillis = TimeUnit.SECONDS.toMillis( AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_BACKGROUND_REFRESH_SECONDS_BEFORE_EXPIRY, 60 ) );
+        _lMaxJitterMillis = AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_BACKGROUND_REFRESH_MAX_JITTER, 5000 );
+        _nPoolSize = AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_BACKGROUND_REFRESH_POOL_SIZE, 4 );
+        _lMaxIdleMillis = TimeUnit.SECONDS.toMillis( AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_BACKGROUND_REFRESH_MAX_IDLE, 1800 ) );
+        _lRecentExchangeMillis = TimeUnit.SECONDS
+                .toMillis( AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_VALIDATE_REFRESH_TOKEN_CACHE_TTL, 60 ) );
+    }
+
+    /**
+     * Gets the instance.
+     *
+     * @return the instance
+     */
+    public static Oauth2TokenRefreshService getInstance( )
+    {
+        return _singleton;
+    }
+
+    /**
+     * @return true if the background refresh is enabled
+     */
+    public boolean isEnabled( )
+    {
+        return _bEnabled;
+    }
+
+    /**
+     * Track the token of a session
+     *
+     * @param session
+     *            the session
+     * @param user
+     *            the user of the session
+     */
+    public void track( HttpSession session, AdminOauth2User user )
+    {
+        if ( _bEnabled && user.getToken( ) != null && user.getToken( ).getRefreshToken( ) != null && user.getToken( ).getExpiresIn( ) > 0 )
+        {
+            _mapTrackedSessions.put( session.getId( ), new TrackedSession( session, user ) );
+        }
+    }
+
+    /**
+     * Stop tracking the token of a session
+     *
+     * @param strSession
+     *            the session id
+     */
+    public void untrack( String strSession )
+    {
+        _mapTrackedSessions.remove( strSession );
+    }
+
+    /**
+     * Tell if the token of a session has been kept fresh by the background refresh
+     *
+     * @param strSession
+     *            the session id
+     * @param user
+     *            the user of the session
+     * @return true if the current token of the user can be used without being refreshed
+     */
+    public boolean isTokenFresh( String strSession, AdminOauth2User user )
+    {
+        TrackedSession trackedSession = ( strSession != null ) ? _mapTrackedSessions.get( strSession ) : null;
+
+        return trackedSession != null && trackedSession._user == user
+                && trackedSession._lExpirationTime - System.currentTimeMillis( ) > _lRefreshAheadMillis;
+    }
+
+    /**
+     * Exchange the refresh token of a user at the token endpoint. The exchanges of a user are serialized, whether they come from the background
+     * refresh, the validation of the filter or the reload of the user : with rotating refresh tokens, the second exchange of a refresh token is
+     * rejected, so a caller whose refresh token has been exchanged while it waited gets the token of that exchange instead.
+     *
+     * @param user
+     *            the user, whose token is replaced by the new one
+     * @param strRefreshToken
+     *            the refresh token read by the caller
+     * @return the new token, or null if the refresh token has been rejected
+     */
+    public Token exchangeRefreshToken( AdminOauth2User user, String strRefreshToken )
+    {
+        ReentrantLock lock = user.getTokenExchangeLock( );
+        lock.lock( );
+
+        try
+        {
+            Token current = user.getToken( );
+
+            if ( current != null && current.getRefreshToken( ) != null && !current.getRefreshToken( ).equals( strRefreshToken ) )
+            {
+                return current;
+            }
+
+            Token token = TokenService.getService( ).getTokenByRefreshToken( strRefreshToken );
+
+            if ( token != null )
+            {
+                user.setToken( token );
+                user.setTokenExchangeTime( System.currentTimeMillis( ) );
+            }
+
+            return token;
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    /**
+     * Tell if the refresh token of a user has been exchanged recently, the authorization server having then validated the session
+     *
+     * @param user
+     *            the user
+     * @return true if the token has been exchanged within the validity of a refresh token validation
+     */
+    public boolean isRecentlyExchanged( AdminOauth2User user )
+    {
+        return System.currentTimeMillis( ) - user.getTokenExchangeTime( ) < _lRecentExchangeMillis;
+    }
+
+    /**
+     * Schedule the refresh of the tokens expiring soon
+     *
+     * @return the number of refreshes scheduled
+     */
+    public int refreshExpiringTokens( )
+    {
+        if ( !_bEnabled )
+        {
+            return 0;
+        }
+
+        long lNow = System.currentTimeMillis( );
+        int nScheduled = 0;
+
+        for ( Iterator<Entry<String, TrackedSession>> iterator = _mapTrackedSessions.entrySet( ).iterator( ); iterator.hasNext( ); )
+        {
+            TrackedSession trackedSession = iterator.next( ).getValue( );
+
+            if ( isIdle( trackedSession, lNow ) )
+            {
+                iterator.remove( );
+                _nIdleCount.increment( );
+                continue;
+            }
+
+            if ( trackedSession._lExpirationTime - lNow <= _lRefreshAheadMillis && trackedSession._bInFlight.compareAndSet( false, true ) )
+            {
+                long lJitter = ( _lMaxJitterMillis > 0 ) ? ThreadLocalRandom.current( ).nextLong( _lMaxJitterMillis ) : 0;
+                getExecutor( ).schedule( ( ) -> refresh( trackedSession ), lJitter, TimeUnit.MILLISECONDS );
+                nScheduled++;
+            }
+        }
+
+        return nScheduled;
+    }
+
+    /**
+     * Refresh the token of a tracked session
+     *
+     * @param trackedSession
+     *            the tracked session
+     */
+    private void refresh( TrackedSession trackedSession )
+    {
+        long lStart = System.currentTimeMillis( );
+        AdminOauth2User user = trackedSession._user;
+
+        try
+        {
+            Token token = exchangeRefreshToken( user, user.getToken( ).getRefreshToken( ) );
+
+            if ( token != null )
+            {
+                trackedSession.setExpiresIn( token.getExpiresIn( ) );
+                replicate( trackedSession );
+                RefreshTokenValidationCache.getInstance( ).putValidated( token, user.getAccessCode( ) );
+                _nRefreshCount.increment( );
+            }
+            else
+            {
+                // the session is left to the request path which logs the user out
+                _mapTrackedSessions.values( ).remove( trackedSession );
+                _nFailureCount.increment( );
+            }
+        }
+        catch( RuntimeException e )
+        {
+            _nFailureCount.increment( );
+            AppLogService.error( "Error refreshing the token of admin user " + user.getAccessCode( ), e );
+        }
+        finally
+        {
+            long lLatency = System.currentTimeMillis( ) - lStart;
+            _lTotalLatencyMillis.add( lLatency );
+            _lMaxLatencyMillis.accumulateAndGet( lLatency, Math::max );
+            trackedSession._bInFlight.set( false );
+        }
+    }
+
+    /**
+     * Tell if a tracked session has had no request for longer than the configured delay, or has been invalidated
+     *
+     * @param trackedSession
+     *            the tracked session
+     * @param lNow
+     *            the current time in milliseconds
+     * @return true if the token of the session must no longer be renewed
+     */
+    private boolean isIdle( TrackedSession trackedSession, long lNow )
+    {
+        try
+        {
+            return lNow - trackedSession._session.getLastAccessedTime( ) > _lMaxIdleMillis;
+        }
+        catch( IllegalStateException e )
+        {
+            // invalidated session whose destruction has not been notified yet
+            return true;
+        }
+    }
+
+    /**
+     * Set again the user in its session once its token has been renewed : the token is changed in place, and the container only replicates the
+     * attributes which have been set.
+     *
+     * @param trackedSession
+     *            the tracked session
+     */
+    private void replicate( TrackedSession trackedSession )
+    {
+        try
+        {
+            HttpSession session = trackedSession._session;
+
+            if ( session.getAttribute( Oauth2Utils.SESSION_ATTRIBUTE_ADMIN_USER ) == trackedSession._user )
+            {
+                session.setAttribute( Oauth2Utils.SESSION_ATTRIBUTE_ADMIN_USER, trackedSession._user );
+            }
+        }
+        catch( IllegalStateException e )
+        {
+            _mapTrackedSessions.values( ).remove( trackedSession );
+        }
+    }
+
+    /**
+     * Stop the worker pool, on the shutdown of the webapp. The pool is created again if tokens are refreshed afterwards.
+     */
+    public void shutdown( )
+    {
+        ScheduledExecutorService executor;
+
+        synchronized( this )
+        {
+            executor = _executor;
+            _executor = null;
+        }
+
+        if ( executor != null )
+        {
+            executor.shutdownNow( );
+        }
+        _mapTrackedSessions.clear( );
+    }
+
+    /**
+     * Lazily create the worker pool
+     *
+     * @return the worker pool
+     */
+    private ScheduledExecutorService getExecutor( )
+    {
+        if ( _executor == null )
+        {
+            synchronized( this )
+            {
+                if ( _executor == null )
+                {
+                    AtomicInteger nThreadNumber = new AtomicInteger( );
+                    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor( _nPoolSize, runnable -> {
+                        Thread thread = new Thread( runnable, THREAD_NAME_PREFIX + nThreadNumber.incrementAndGet( ) );
+                        thread.setDaemon( true );
+
+                        return thread;
+                    } );
+                    executor.setRemoveOnCancelPolicy( true );
+                    _executor = executor;
+                }
+            }
+        }
+
+        return _executor;
+    }
+
+    /**
+     * @return the number of sessions whose token is tracked
+     */
+    public int getTrackedSessionCount( )
+    {
+        return _mapTrackedSessions.size( );
+    }
+
+    /**
+     * @return the number of successful refreshes
+     */
+    public long getRefreshCount( )
+    {
+        return _nRefreshCount.sum( );
+    }
+
+    /**
+     * @return the number of failed refreshes
+     */
+    public long getFailureCount( )
+    {
+        return _nFailureCount.sum( );
+    }
+
+    /**
+     * @return the number of sessions no longer renewed because they were idle
+     */
+    public long getIdleCount( )
+    {
+        return _nIdleCount.sum( );
+    }
+
+    /**
+     * @return the mean refresh latency in milliseconds
+     */
+    public long getMeanLatencyMillis( )
+    {
+        long lCount = getRefreshCount( ) + getFailureCount( );
+
+        return ( lCount == 0 ) ? 0 : _lTotalLatencyMillis.sum( ) / lCount;
+    }
+
+    /**
+     * @return the max refresh latency in milliseconds
+     */
+    public long getMaxLatencyMillis( )
+    {
+        return _lMaxLatencyMillis.get( );
+    }
+
+    /**
+     * Token of a live session
+     */
+    private static final class TrackedSession
+    {
+        private final HttpSession _session;
+        private final AdminOauth2User _user;
+        private final AtomicBoolean _bInFlight = new AtomicBoolean( );
+        private volatile long _lExpirationTime;
+
+        private TrackedSession( HttpSession session, AdminOauth2User user )
+        {
+            _session = session;
+            _user = user;
+            setExpiresIn( user.getToken( ).getExpiresIn( ) );
+        }
+
+        private void setExpiresIn( int nExpiresIn )
+        {
+            _lExpirationTime = System.currentTimeMillis( ) + TimeUnit.SECONDS.toMillis( nExpiresIn );
+        }
+    }
+}
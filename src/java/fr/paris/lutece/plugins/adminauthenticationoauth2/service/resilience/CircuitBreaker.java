@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service.resilience;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Circuit breaker protecting the calls to the authorization server. After a number of consecutive failures the circuit opens and the calls fail
+ * fast; once the open delay has elapsed a single trial call is let through, which closes the circuit on success or opens it again on failure.
+ */
+public final class CircuitBreaker
+{
+    /**
+     * States of the circuit
+     */
+    public enum State
+    {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int _nFailureThreshold;
+    private final long _lOpenDurationMillis;
+    private final LongAdder _nOpenedCount = new LongAdder( );
+    private final LongAdder _nRejectedCount = new LongAdder( );
+    private State _state = State.CLOSED;
+    private int _nConsecutiveFailures;
+    private long _lOpenedTime;
+
+    /**
+     * Constructor
+     *
+     * @param nFailureThreshold
+     *            the number of consecutive failures opening the circuit
+     * @param lOpenDurationMillis
+     *            the time during which the circuit stays open before a trial call
+     */
+    public CircuitBreaker( int nFailureThreshold, long lOpenDurationMillis )
+    {
+        _nFailureThreshold = Math.max( 1, nFailureThreshold );
+        _lOpenDurationMillis = lOpenDurationMillis;
+    }
+
+    /**
+     * Tell if a call is allowed. When the open delay has elapsed, only the first caller is allowed, as trial call.
+     *
+     * @return true if the call can be made
+     */
+    public synchronized boolean allowRequest( )
+    {
+        if ( _state == State.CLOSED )
+        {
+            return true;
+        }
+
+        if ( _state == State.OPEN && System.currentTimeMillis( ) - _lOpenedTime >= _lOpenDurationMillis )
+        {
+            _state = State.HALF_OPEN;
+
+            return true;
+        }
+
+        _nRejectedCount.increment( );
+
+        return false;
+    }
+
+    /**
+     * Record a successful call
+     */
+    public synchronized void recordSuccess( )
+    {
+        _nConsecutiveFailures = 0;
+        _state = State.CLOSED;
+    }
+
+    /**
+     * Record a failed call
+     */
+    public synchronized void recordFailure( )
+    {
+        _nConsecutiveFailures++;
+
+        if ( _state == State.HALF_OPEN || ( _state == State.CLOSED && _nConsecutiveFailures >= _nFailureThreshold ) )
+        {
+            _state = State.OPEN;
+            _lOpenedTime = System.currentTimeMillis( );
+            _nOpenedCount.increment( );
+        }
+    }
+
+    /**
+     * @return the state of the circuit
+     */
+    public synchronized State getState( )
+    {
+        return _state;
+    }
+
+    /**
+     * @return the number of times the circuit has opened
+     */
+    public long getOpenedCount( )
+    {
+        return _nOpenedCount.sum( );
+    }
+
+    /**
+     * @return the number of calls rejected while the circuit was open
+     */
+    public long getRejectedCount( )
+    {
+        return _nRejectedCount.sum( );
+    }
+}
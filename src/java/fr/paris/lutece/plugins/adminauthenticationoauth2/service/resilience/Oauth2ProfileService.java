@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service.resilience;
+
+import fr.paris.lutece.plugins.adminauthenticationoauth2.business.authentication.AdminOauth2UserInfo;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2UserInfoService;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.RefreshTokenRejectedException;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2UserInfoService.UserInfoLoader;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Utils;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.cache.BoundedTtlCache;
+import fr.paris.lutece.plugins.oauth2.business.Token;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the last profile retrieved for each admin user, to keep the back office usable when the authorization server degrades. While the server
+ * answers, the profiles are retrieved synchronously as before. When a retrieval fails, or when the circuit breaker is open, the last profile is served
+ * if it is not older than the staleness limit, flagged as cached so that the session retrieves it again on its next request : the retrieval stays on a
+ * request thread, where a renewed token is kept by the session. Without a cached profile the retrieval fails fast while the circuit is open. A refresh
+ * token rejected by the authorization server is not a failure of the server : it bypasses the cache and the circuit breaker.
+ */
+public final class Oauth2ProfileService
+{
+    private static final Oauth2ProfileService _singleton = new Oauth2ProfileService( );
+
+    private final boolean _bEnabled;
+    private final long _lMaxStalenessMillis;
+    private final BoundedTtlCache<AdminOauth2UserInfo> _cache;
+    private final CircuitBreaker _circuitBreaker;
+    private final LongAdder _nStaleServedCount = new LongAdder( );
+    private final LongAdder _nFailFastCount = new LongAdder( );
+
+    /**
+     * private constructor
+     */
+    private Oauth2ProfileService( )
+    {
+        this( AppPropertiesService.getPropertyBoolean( Oauth2Utils.PROPERTY_PROFILE_CACHE_ENABLED, false ),
+                TimeUnit.SECONDS.toMillis( AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_PROFILE_CACHE_MAX_STALENESS, 300 ) ),
+                AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_PROFILE_CACHE_MAX_SIZE, 10000 ),
+                new CircuitBreaker( AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_CIRCUIT_BREAKER_FAILURE_THRESHOLD, 5 ),
+                        TimeUnit.SECONDS.toMillis( AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_CIRCUIT_BREAKER_OPEN_DURATION, 30 ) ) ) );
+    }
+
+    /**
+     * Constructor
+     *
+     * @param bEnabled
+     *            true to cache the profiles and protect their retrieval by the circuit breaker
+     * @param lMaxStalenessMillis
+     *            the time during which a cached profile can be served
+     * @param nMaxSize
+     *            the maximum number of cached profiles
+     * @param circuitBreaker
+     *            the circuit breaker
+     */
+    Oauth2ProfileService( boolean bEnabled, long lMaxStalenessMillis, int nMaxSize, CircuitBreaker circuitBreaker )
+    {
+        _bEnabled = bEnabled;
+        _lMaxStalenessMillis = lMaxStalenessMillis;
+        _cache = new BoundedTtlCache<>( nMaxSize );
+        _circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Gets the instance.
+     *
+     * @return the instance
+     */
+    public static Oauth2ProfileService getInstance( )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Get the profile of an admin user
+     *
+     * @param strAccessCode
+     *            the access code of the admin user
+     * @param currentToken
+     *            the token currently held by the user, associated to a profile served from the cache
+     * @param loader
+     *            the loader retrieving the profile from the authorization server
+     * @return the profile, owned by the caller
+     * @throws RefreshTokenRejectedException
+     *             if the refresh token of the user has been rejected
+     * @throws IOException
+     *             if the profile can neither be retrieved nor served from the cache
+     */
+    public AdminOauth2UserInfo getUserInfo( String strAccessCode, Token currentToken, UserInfoLoader loader ) throws IOException
+    {
+        if ( !_bEnabled )
+        {
+            return Oauth2UserInfoService.getInstance( ).getUserInfo( currentToken, loader );
+        }
+
+        if ( !_circuitBreaker.allowRequest( ) )
+        {
+            AdminOauth2UserInfo cachedUserInfo = getCachedUserInfo( strAccessCode, currentToken );
+
+            if ( cachedUserInfo == null )
+            {
+                _nFailFastCount.increment( );
+                throw new IOException( "The authorization server is unavailable (circuit open) and no recent profile is cached" );
+            }
+
+            return cachedUserInfo;
+        }
+
+        try
+        {
+            return load( strAccessCode, currentToken, loader );
+        }
+        catch( RefreshTokenRejectedException e )
+        {
+            // the session is revoked : no cached profile keeps it alive
+            _cache.remove( strAccessCode );
+            throw e;
+        }
+        catch( IOException e )
+        {
+            AdminOauth2UserInfo cachedUserInfo = getCachedUserInfo( strAccessCode, currentToken );
+
+            if ( cachedUserInfo == null )
+            {
+                throw e;
+            }
+
+            AppLogService.error( "Unable to retrieve the profile of " + strAccessCode + ", the cached profile is used", e );
+
+            return cachedUserInfo;
+        }
+    }
+
+    /**
+     * Remove the cached profile of an admin user
+     *
+     * @param strAccessCode
+     *            the access code of the admin user
+     */
+    public void invalidate( String strAccessCode )
+    {
+        _cache.remove( strAccessCode );
+    }
+
+    /**
+     * @return the circuit breaker
+     */
+    public CircuitBreaker getCircuitBreaker( )
+    {
+        return _circuitBreaker;
+    }
+
+    /**
+     * @return the number of cached profiles served instead of a retrieval
+     */
+    public long getStaleServedCount( )
+    {
+        return _nStaleServedCount.sum( );
+    }
+
+    /**
+     * @return the number of retrievals failed fast by the open circuit
+     */
+    public long getFailFastCount( )
+    {
+        return _nFailFastCount.sum( );
+    }
+
+    private AdminOauth2UserInfo load( String strAccessCode, Token currentToken, UserInfoLoader loader ) throws IOException
+    {
+        try
+        {
+            AdminOauth2UserInfo userInfo = Oauth2UserInfoService.getInstance( ).getUserInfo( currentToken, loader );
+            _circuitBreaker.recordSuccess( );
+            _cache.put( strAccessCode, userInfo.copy( ), _lMaxStalenessMillis );
+
+            return userInfo;
+        }
+        catch( RefreshTokenRejectedException e )
+        {
+            // the authorization server has answered : a trial call closes the circuit instead of leaving it half open
+            _circuitBreaker.recordSuccess( );
+            throw e;
+        }
+        catch( IOException | RuntimeException e )
+        {
+            _circuitBreaker.recordFailure( );
+            throw e;
+        }
+    }
+
+    private AdminOauth2UserInfo getCachedUserInfo( String strAccessCode, Token currentToken )
+    {
+        // the cache entries expire after the staleness limit
+        AdminOauth2UserInfo cachedUserInfo = _cache.get( strAccessCode );
+
+        if ( cachedUserInfo == null )
+        {
+            return null;
+        }
+
+        _nStaleServedCount.increment( );
+
+        return new AdminOauth2UserInfo( currentToken, cachedUserInfo.copy( ).getUserInfo( ), true );
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service.session;
+
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Utils;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Admin user version store backed by append only files shared by the nodes (nodes of a single host or on a shared file system). Each notification
+ * is a line holding the id of the notifying node and the admin user name. The files are rotated : a new file is started at each rotation period,
+ * the nodes keep reading the file of the previous period for the late writers, and the older files are deleted.
+ */
+public class FileAdminUserVersionStore implements IAdminUserVersionStore
+{
+    private static final byte LINE_SEPARATOR = '\n';
+    private static final char NODE_SEPARATOR = '\t';
+    private static final char PERIOD_SEPARATOR = '.';
+
+    private final String _strNodeId = UUID.randomUUID( ).toString( );
+    private final LongSupplier _clock;
+    private final Map<Long, Long> _mapReadOffsets = new TreeMap<>( );
+    private Path _path;
+    private long _lRotationMillis;
+
+    /**
+     * Constructor
+     */
+    public FileAdminUserVersionStore( )
+    {
+        this( System::currentTimeMillis );
+    }
+
+    /**
+     * Constructor, package-private for the tests
+     *
+     * @param clock
+     *            the clock giving the current time in milliseconds
+     */
+    FileAdminUserVersionStore( LongSupplier clock )
+    {
+        _clock = clock;
+
+        String strFilePath = AppPropertiesService.getProperty( Oauth2Utils.PROPERTY_VERSION_STORE_FILE_PATH );
+        _path = StringUtils.isNotBlank( strFilePath ) ? Paths.get( strFilePath.trim( ) ) : null;
+        _lRotationMillis = TimeUnit.SECONDS.toMillis( AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_VERSION_STORE_FILE_ROTATION, 3600 ) );
+    }
+
+    /**
+     * Set the path of the shared files, overriding the plugin property. The path of each period is suffixed by the number of the period.
+     *
+     * @param strFilePath
+     *            the file path
+     */
+    public void setFilePath( String strFilePath )
+    {
+        _path = Paths.get( strFilePath );
+    }
+
+    /**
+     * Set the rotation period of the files, overriding the plugin property
+     *
+     * @param nRotationSeconds
+     *            the rotation period in seconds
+     */
+    public void setRotationSeconds( int nRotationSeconds )
+    {
+        _lRotationMillis = TimeUnit.SECONDS.toMillis( nRotationSeconds );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void incrementVersions( Collection<String> collectionAdminUserNames )
+    {
+        if ( _path == null )
+        {
+            throw new IllegalStateException( "No file configured for the admin user versions : " + Oauth2Utils.PROPERTY_VERSION_STORE_FILE_PATH );
+        }
+
+        if ( collectionAdminUserNames.isEmpty( ) )
+        {
+            return;
+        }
+
+        StringBuilder sbLines = new StringBuilder( );
+
+        for ( String strAdminUserName : collectionAdminUserNames )
+        {
+            sbLines.append( _strNodeId ).append( NODE_SEPARATOR ).append( strAdminUserName ).append( (char) LINE_SEPARATOR );
+        }
+
+        long lPeriod = getPeriod( );
+        Path path = getPath( lPeriod );
+        boolean bNewFile;
+
+        try ( FileChannel channel = FileChannel.open( path, StandardOpenOption.CREATE, StandardOpenOption.WRITE ); FileLock lock = channel.lock( ) )
+        {
+            long lOffset = channel.size( );
+            bNewFile = lOffset == 0;
+
+            ByteBuffer buffer = ByteBuffer.wrap( sbLines.toString( ).getBytes( StandardCharsets.UTF_8 ) );
+            while ( buffer.hasRemaining( ) )
+            {
+                lOffset += channel.write( buffer, lOffset );
+            }
+        }
+        catch( IOException e )
+        {
+            throw new UncheckedIOException( "Unable to write the admin user versions in " + path, e );
+        }
+
+        if ( bNewFile )
+        {
+            // the first writer of a period deletes the files no longer read
+            deleteFilesBefore( lPeriod - 1 );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Set<String> pollUpdatedVersions( )
+    {
+        Set<String> setAdminUserNames = new HashSet<>( );
+
+        if ( _path == null )
+        {
+            return setAdminUserNames;
+        }
+
+        long lPeriod = getPeriod( );
+
+        if ( _mapReadOffsets.isEmpty( ) )
+        {
+            // first poll : only the notifications to come are relevant
+            _mapReadOffsets.put( lPeriod - 1, size( getPath( lPeriod - 1 ) ) );
+            _mapReadOffsets.put( lPeriod, size( getPath( lPeriod ) ) );
+
+            return setAdminUserNames;
+        }
+
+        // the file of the previous period is still read for the nodes which wrote in it just before the rotation
+        for ( long lReadPeriod = lPeriod - 1; lReadPeriod <= lPeriod; lReadPeriod++ )
+        {
+            long lReadOffset = _mapReadOffsets.getOrDefault( lReadPeriod, 0L );
+            _mapReadOffsets.put( lReadPeriod, read( getPath( lReadPeriod ), lReadOffset, setAdminUserNames ) );
+        }
+
+        _mapReadOffsets.keySet( ).removeIf( lReadPeriod -> lReadPeriod < lPeriod - 1 );
+
+        return setAdminUserNames;
+    }
+
+    /**
+     * Read the notifications of the other nodes appended to a file since an offset
+     *
+     * @param path
+     *            the file path
+     * @param lReadOffset
+     *            the offset of the first unread line
+     * @param setAdminUserNames
+     *            the set receiving the admin user names
+     * @return the offset of the first unread line, an incomplete last line being read on the next poll
+     */
+    private long read( Path path, long lReadOffset, Set<String> setAdminUserNames )
+    {
+        if ( !Files.exists( path ) )
+        {
+            return lReadOffset;
+        }
+
+        try ( FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ) )
+        {
+            long lSize = channel.size( );
+
+            if ( lReadOffset >= lSize )
+            {
+                return lSize;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate( (int) ( lSize - lReadOffset ) );
+            while ( buffer.hasRemaining( ) && channel.read( buffer, lReadOffset + buffer.position( ) ) > 0 )
+            {
+                // read up to the current end of the file
+            }
+
+            byte [ ] tabBytes = buffer.array( );
+            int nLineStart = 0;
+
+            for ( int i = 0; i < buffer.position( ); i++ )
+            {
+                if ( tabBytes [i] == LINE_SEPARATOR )
+                {
+                    String strLine = new String( tabBytes, nLineStart, i - nLineStart, StandardCharsets.UTF_8 );
+                    int nNodeEnd = strLine.indexOf( NODE_SEPARATOR );
+
+                    if ( nNodeEnd > 0 && !_strNodeId.equals( strLine.substring( 0, nNodeEnd ) ) )
+                    {
+                        setAdminUserNames.add( strLine.substring( nNodeEnd + 1 ) );
+                    }
+
+                    nLineStart = i + 1;
+                }
+            }
+
+            return lReadOffset + nLineStart;
+        }
+        catch( IOException e )
+        {
+            AppLogService.error( "Unable to read the admin user versions in " + path, e );
+
+            return lReadOffset;
+        }
+    }
+
+    /**
+     * Delete the files of the periods preceding a period
+     *
+     * @param lPeriod
+     *            the first period kept
+     */
+    private void deleteFilesBefore( long lPeriod )
+    {
+        Path directory = _path.toAbsolutePath( ).getParent( );
+        String strPrefix = _path.getFileName( ).toString( ) + PERIOD_SEPARATOR;
+
+        try ( DirectoryStream<Path> stream = Files.newDirectoryStream( directory, strPrefix + "*" ) )
+        {
+            for ( Path path : stream )
+            {
+                String strPeriod = path.getFileName( ).toString( ).substring( strPrefix.length( ) );
+
+                if ( StringUtils.isNumeric( strPeriod ) && Long.parseLong( strPeriod ) < lPeriod )
+                {
+                    Files.deleteIfExists( path );
+                }
+            }
+        }
+        catch( IOException e )
+        {
+            AppLogService.error( "Unable to delete the former admin user versions in " + directory, e );
+        }
+    }
+
+    /**
+     * @return the current rotation period
+     */
+    private long getPeriod( )
+    {
+        return _clock.getAsLong( ) / _lRotationMillis;
+    }
+
+    /**
+     * Get the file of a period
+     *
+     * @param lPeriod
+     *            the period
+     * @return the file path
+     */
+    private Path getPath( long lPeriod )
+    {
+        return _path.resolveSibling( _path.getFileName( ).toString( ) + PERIOD_SEPARATOR + lPeriod );
+    }
+
+    /**
+     * Get the size of a file
+     *
+     * @param path
+     *            the file path
+     * @return the size, 0 if the file does not exist
+     */
+    private static long size( Path path )
+    {
+        try
+        {
+            return Files.exists( path ) ? Files.size( path ) : 0;
+        }
+        catch( IOException e )
+        {
+            return 0;
+        }
+    }
+}
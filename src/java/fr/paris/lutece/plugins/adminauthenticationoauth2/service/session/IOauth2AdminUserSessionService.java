@@ -33,6 +33,11 @@
  */
 package fr.paris.lutece.plugins.adminauthenticationoauth2.service.session;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
 public interface IOauth2AdminUserSessionService
 {
     boolean isAdminUserUpToDate( String strSession );
@@ -42,4 +47,59 @@ public interface IOauth2AdminUserSessionService
     void removeAdminUserSession( String strSession );
 
     void notifyAdminUserUpdating( String strAdminUserName );
+
+    // optional operations : their defaults keep the implementations written against the four methods above working
+
+    default void touchAdminUserSession( String strSession )
+    {
+    }
+
+    default void markAdminUserSessionStale( String strSession )
+    {
+    }
+
+    default boolean restoreAdminUserSession( String strAdminUserName, String strSession, boolean bUpToDate )
+    {
+        return false;
+    }
+
+    default Map<String, String> getAdminUserSessions( )
+    {
+        return Collections.emptyMap( );
+    }
+
+    default Set<String> getStaleAdminUserSessions( )
+    {
+        return Collections.emptySet( );
+    }
+
+    default int notifyAdminUsersUpdating( Collection<String> collectionAdminUserNames )
+    {
+        for ( String strAdminUserName : collectionAdminUserNames )
+        {
+            notifyAdminUserUpdating( strAdminUserName );
+        }
+
+        return 0;
+    }
+
+    default int propagateNotifications( )
+    {
+        return 0;
+    }
+
+    default int sweepAdminUserSessions( )
+    {
+        return 0;
+    }
+
+    default int getAdminUserSessionCount( )
+    {
+        return 0;
+    }
+
+    default long getEstimatedFootprint( )
+    {
+        return 0L;
+    }
 }
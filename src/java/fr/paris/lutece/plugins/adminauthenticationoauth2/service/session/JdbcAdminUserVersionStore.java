@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service.session;
+
+import fr.paris.lutece.plugins.adminauthenticationoauth2.business.session.AdminUserVersionDAO;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admin user version store backed by the database shared by the nodes. The increments are tagged with an id of the node, drawn at startup, so that
+ * the polls only return the increments of the other nodes.
+ */
+public class JdbcAdminUserVersionStore implements IAdminUserVersionStore
+{
+    private final AdminUserVersionDAO _dao = new AdminUserVersionDAO( );
+    private final String _strNodeId = UUID.randomUUID( ).toString( );
+    private long _lClockSkewMillis = TimeUnit.SECONDS.toMillis( 30 );
+    private long _lLastPollTime = System.currentTimeMillis( );
+    private Map<String, Long> _mapPolledVersions = new HashMap<>( );
+
+    /**
+     * Set the maximum clock difference between the nodes. The polls overlap by this delay so that no update is missed.
+     *
+     * @param nClockSkewSeconds
+     *            the clock skew in seconds
+     */
+    public void setClockSkewSeconds( int nClockSkewSeconds )
+    {
+        _lClockSkewMillis = TimeUnit.SECONDS.toMillis( nClockSkewSeconds );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void incrementVersions( Collection<String> collectionAdminUserNames )
+    {
+        if ( !collectionAdminUserNames.isEmpty( ) )
+        {
+            _dao.incrementVersions( new ArrayList<>( collectionAdminUserNames ), _strNodeId, System.currentTimeMillis( ) );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Set<String> pollUpdatedVersions( )
+    {
+        long lNow = System.currentTimeMillis( );
+        Map<String, Long> mapVersions = _dao.selectVersionsUpdatedSince( _lLastPollTime - _lClockSkewMillis, _strNodeId );
+        Set<String> setAdminUserNames = new HashSet<>( );
+
+        // the overlapping polls return the same versions again : only the versions not returned by the previous poll are new
+        for ( Entry<String, Long> entry : mapVersions.entrySet( ) )
+        {
+            if ( !entry.getValue( ).equals( _mapPolledVersions.get( entry.getKey( ) ) ) )
+            {
+                setAdminUserNames.add( entry.getKey( ) );
+            }
+        }
+
+        _mapPolledVersions = mapVersions;
+        _lLastPollTime = lNow;
+
+        return setAdminUserNames;
+    }
+}
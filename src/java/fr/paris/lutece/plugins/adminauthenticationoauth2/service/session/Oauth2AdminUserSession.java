@@ -33,46 +33,82 @@
  */
 package fr.paris.lutece.plugins.adminauthenticationoauth2.service.session;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Entry of the admin user session registry. The session id is the key of the entry in the registry and is not repeated here.
+ */
 public class Oauth2AdminUserSession
 {
-    private String _strIdSession;
-    private String _strAdminUserName;
-    private boolean _bUpToDate;
+    private static final AtomicIntegerFieldUpdater<Oauth2AdminUserSession> UP_TO_DATE_UPDATER = AtomicIntegerFieldUpdater
+            .newUpdater( Oauth2AdminUserSession.class, "_nUpToDate" );
+    private static final int STALE = 0;
+    private static final int UP_TO_DATE = 1;
+
+    private final String _strAdminUserName;
+    private volatile int _nUpToDate;
+    private volatile long _lLastAccessTime;
 
-    public Oauth2AdminUserSession( String strIdSession, String strAdminUserName, boolean bUpToDate )
+    /**
+     * Constructor
+     *
+     * @param strAdminUserName
+     *            the admin user name, shared by all the sessions of the user
+     * @param bUpToDate
+     *            true if the user of the session is up to date
+     */
+    public Oauth2AdminUserSession( String strAdminUserName, boolean bUpToDate )
     {
-        _strIdSession = strIdSession;
         _strAdminUserName = strAdminUserName;
-        _bUpToDate = bUpToDate;
+        _nUpToDate = bUpToDate ? UP_TO_DATE : STALE;
+        _lLastAccessTime = System.currentTimeMillis( );
     }
 
-    public String getIdSession( )
+    public String getAdminUserName( )
     {
-        return _strIdSession;
+        return _strAdminUserName;
     }
 
-    public void setIdSession( String strIdSession )
+    public boolean isUpToDate( )
     {
-        this._strIdSession = strIdSession;
+        return _nUpToDate == UP_TO_DATE;
     }
 
-    public String getAdminUserName( )
+    public void setUpToDate( boolean bUpToDate )
     {
-        return _strAdminUserName;
+        _nUpToDate = bUpToDate ? UP_TO_DATE : STALE;
     }
 
-    public void setAdminUserName( String strAdminUserName )
+    /**
+     * Atomically marks the session as up to date
+     *
+     * @return true if the session was stale and this call is the one that refreshed it
+     */
+    public boolean markUpToDate( )
     {
-        this._strAdminUserName = strAdminUserName;
+        return UP_TO_DATE_UPDATER.compareAndSet( this, STALE, UP_TO_DATE );
     }
 
-    public boolean isUpToDate( )
+    /**
+     * @return the time of the last request of the session, in milliseconds
+     */
+    public long getLastAccessTime( )
     {
-        return _bUpToDate;
+        return _lLastAccessTime;
     }
 
-    public void setUpToDate( boolean bUpToDate )
+    /**
+     * Record a request of the session
+     *
+     * @param lNow
+     *            the current time in milliseconds
+     */
+    public void touch( long lNow )
     {
-        this._bUpToDate = bUpToDate;
+        // avoid writing a shared cache line on each request of the same millisecond
+        if ( _lLastAccessTime != lNow )
+        {
+            _lLastAccessTime = lNow;
+        }
     }
 }
@@ -34,28 +34,55 @@
 package fr.paris.lutece.plugins.adminauthenticationoauth2.service.session;
 
 import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Utils;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.cache.AdminUserLoginCache;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.cache.RefreshTokenValidationCache;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.refresh.Oauth2TokenRefreshService;
 import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
 
 public class Oauth2AdminUserSessionService implements IOauth2AdminUserSessionService
 {
     public static final String BEAN_LUTECE_USER_SESSION_SERVICE = "adminauthenticationoauth2.oauth2AdminUserSessionService";
 
-    private static IOauth2AdminUserSessionService _singleton;
-    private static Map<String, Oauth2AdminUserSession> _hashSession;
-    private static Map<String, Set<String>> _hashAdminUserName;
+    // rough sizes in bytes of the objects of the registry, for the footprint estimate
+    private static final int ESTIMATED_SESSION_ENTRY_SIZE = 32 + 32 + 32 + 24 + 40;
+    private static final int ESTIMATED_USER_ENTRY_SIZE = 32 + 64;
+    private static final int ESTIMATED_STRING_SIZE = 40;
+    // the access order is only updated when the last access time of a session moves by this delay
+    private static final long ACCESS_TIME_RESOLUTION_MILLIS = 1000;
+
+    private static volatile IOauth2AdminUserSessionService _singleton;
+    private static final long _lMaxIdleMillis = TimeUnit.SECONDS
+            .toMillis( AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_SESSION_REGISTRY_MAX_IDLE, 7200 ) );
+    private static final int _nMaxSize = AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_SESSION_REGISTRY_MAX_SIZE, 100000 );
+    private static final Map<String, Oauth2AdminUserSession> _hashSession = new ConcurrentHashMap<>( );
+    private static final Map<String, Set<String>> _hashAdminUserName = new ConcurrentHashMap<>( );
+    // sessions by last access time, updated with the session entry so that both always agree
+    private static final ConcurrentSkipListSet<SessionAccess> _setAccessOrder = new ConcurrentSkipListSet<>(
+            Comparator.comparingLong( SessionAccess::getAccessTime ).thenComparing( SessionAccess::getSession ) );
+
+    private IAdminUserVersionStore _versionStore;
+    private final Set<String> _setPendingNotifications = ConcurrentHashMap.newKeySet( );
 
     public static IOauth2AdminUserSessionService getInstance( )
     {
         if ( _singleton == null )
         {
             _singleton = SpringContextService.getBean( BEAN_LUTECE_USER_SESSION_SERVICE );
-            _hashSession = new HashMap<>( );
-            _hashAdminUserName = new HashMap<>( );
         }
 
         return _singleton;
@@ -63,55 +90,413 @@ public class Oauth2AdminUserSessionService implements IOauth2AdminUserSessionSer
 
     public boolean isAdminUserUpToDate( String strSession )
     {
-        if ( _hashSession.containsKey( strSession ) && !_hashSession.get( strSession ).isUpToDate( ) )
-        {
-            _hashSession.get( strSession ).setUpToDate( true );
+        Oauth2AdminUserSession adminUserSession = _hashSession.get( strSession );
 
-            return false;
-        }
+        // only the request winning the CAS reloads the user, concurrent ones see it up to date
+        return adminUserSession == null || !adminUserSession.markUpToDate( );
+    }
+
+    /**
+     * Mark a session as stale, so that its admin user is reloaded on its next request
+     *
+     * @param strSession
+     *            the session id
+     */
+    public void markAdminUserSessionStale( String strSession )
+    {
+        Oauth2AdminUserSession adminUserSession = _hashSession.get( strSession );
 
-        return true;
+        if ( adminUserSession != null )
+        {
+            adminUserSession.setUpToDate( false );
+        }
     }
 
-    public void addAdminUserSession( String strAdminUserName, String strSession )
+    /**
+     * Record an access to a session, whatever the request, so that a session in use is never swept nor evicted first. The common case, a session
+     * accessed less than a second ago, takes no lock.
+     *
+     * @param strSession
+     *            the session id
+     */
+    public void touchAdminUserSession( String strSession )
     {
-        _hashAdminUserName.putIfAbsent( strAdminUserName, new HashSet<>( ) );
-        _hashAdminUserName.get( strAdminUserName ).add( strSession );
-        _hashSession.put( strSession, new Oauth2AdminUserSession( strSession, strAdminUserName, true ) );
+        long lNow = System.currentTimeMillis( );
+        Oauth2AdminUserSession adminUserSession = _hashSession.get( strSession );
+
+        if ( adminUserSession != null && lNow - adminUserSession.getLastAccessTime( ) >= ACCESS_TIME_RESOLUTION_MILLIS )
+        {
+            _hashSession.computeIfPresent( strSession, ( strKey, current ) -> {
+                _setAccessOrder.remove( new SessionAccess( current.getLastAccessTime( ), strKey ) );
+                current.touch( lNow );
+                _setAccessOrder.add( new SessionAccess( lNow, strKey ) );
+
+                return current;
+            } );
+        }
     }
 
-    public void removeAdminUserSession( String strSession )
+    public void addAdminUserSession( String strUserName, String strSession )
     {
-        if ( _hashSession.containsKey( strSession ) )
+        // one instance of the user name shared by all its sessions
+        String strAdminUserName = strUserName.intern( );
+
+        if ( _hashSession.size( ) >= _nMaxSize && !_hashSession.containsKey( strSession ) )
         {
-            String strAdminUserName = _hashSession.get( strSession ).getAdminUserName( );
-            _hashSession.remove( strSession );
+            evictForCapacity( );
+        }
 
-            if ( _hashAdminUserName.containsKey( strAdminUserName ) )
+        // the session entry, the sessions of the users and the access order are updated under the lock of the session entry
+        _hashSession.compute( strSession, ( strKey, previous ) -> {
+            if ( previous != null )
             {
-                _hashAdminUserName.get( strAdminUserName ).remove( strSession );
+                _setAccessOrder.remove( new SessionAccess( previous.getLastAccessTime( ), strKey ) );
 
-                if ( _hashAdminUserName.get( strAdminUserName ).isEmpty( ) )
+                if ( !previous.getAdminUserName( ).equals( strAdminUserName ) )
                 {
-                    _hashAdminUserName.remove( strAdminUserName );
+                    removeFromAdminUserName( previous.getAdminUserName( ), strKey );
                 }
             }
+
+            return newAdminUserSession( strAdminUserName, strKey, true );
+        } );
+    }
+
+    /**
+     * Create a session entry, adding it to the sessions of its user and to the access order. Called under the lock of the session entry.
+     *
+     * @param strAdminUserName
+     *            the admin user name
+     * @param strSession
+     *            the session id
+     * @param bUpToDate
+     *            true if the admin user of the session is up to date
+     * @return the session entry
+     */
+    private static Oauth2AdminUserSession newAdminUserSession( String strAdminUserName, String strSession, boolean bUpToDate )
+    {
+        Oauth2AdminUserSession adminUserSession = new Oauth2AdminUserSession( strAdminUserName, bUpToDate );
+
+        _hashAdminUserName.compute( strAdminUserName, ( strKey, setSession ) -> {
+            Set<String> setResult = ( setSession != null ) ? setSession : ConcurrentHashMap.newKeySet( );
+            setResult.add( strSession );
+
+            return setResult;
+        } );
+        _setAccessOrder.add( new SessionAccess( adminUserSession.getLastAccessTime( ), strSession ) );
+
+        return adminUserSession;
+    }
+
+    /**
+     * Register a session activated by the container and recorded in a snapshot of the registry, with the state it had in the snapshot
+     *
+     * @param strUserName
+     *            the admin user name
+     * @param strSession
+     *            the session id
+     * @param bUpToDate
+     *            false if the admin user of the session must be reloaded on its next request
+     * @return true if the session has been registered, false if it was already known or if the registry is full
+     */
+    public boolean restoreAdminUserSession( String strUserName, String strSession, boolean bUpToDate )
+    {
+        String strAdminUserName = strUserName.intern( );
+
+        if ( _hashSession.size( ) >= _nMaxSize || _hashSession.containsKey( strSession ) )
+        {
+            return false;
         }
+
+        boolean [ ] tabRestored = new boolean [ 1 ];
+        _hashSession.computeIfAbsent( strSession, strKey -> {
+            tabRestored [0] = true;
+
+            return newAdminUserSession( strAdminUserName, strKey, bUpToDate );
+        } );
+
+        return tabRestored [0];
+    }
+
+    /**
+     * Gets the registered sessions
+     *
+     * @return a copy of the admin user names keyed by session id
+     */
+    public Map<String, String> getAdminUserSessions( )
+    {
+        Map<String, String> mapSessions = new HashMap<>( );
+
+        for ( Entry<String, Oauth2AdminUserSession> entry : _hashSession.entrySet( ) )
+        {
+            mapSessions.put( entry.getKey( ), entry.getValue( ).getAdminUserName( ) );
+        }
+
+        return mapSessions;
+    }
+
+    /**
+     * Gets the stale sessions
+     *
+     * @return the ids of the registered sessions whose admin user must be reloaded
+     */
+    public Set<String> getStaleAdminUserSessions( )
+    {
+        Set<String> setSessions = new HashSet<>( );
+
+        for ( Entry<String, Oauth2AdminUserSession> entry : _hashSession.entrySet( ) )
+        {
+            if ( !entry.getValue( ).isUpToDate( ) )
+            {
+                setSessions.add( entry.getKey( ) );
+            }
+        }
+
+        return setSessions;
+    }
+
+    public void removeAdminUserSession( String strSession )
+    {
+        _hashSession.computeIfPresent( strSession, ( strKey, adminUserSession ) -> {
+            _setAccessOrder.remove( new SessionAccess( adminUserSession.getLastAccessTime( ), strKey ) );
+            removeFromAdminUserName( adminUserSession.getAdminUserName( ), strKey );
+
+            return null;
+        } );
+        Oauth2TokenRefreshService.getInstance( ).untrack( strSession );
+    }
+
+    /**
+     * Set the store propagating the notifications to the other nodes of a cluster
+     *
+     * @param versionStore
+     *            the version store, null to keep the notifications local
+     */
+    public void setVersionStore( IAdminUserVersionStore versionStore )
+    {
+        _versionStore = versionStore;
     }
 
     public void notifyAdminUserUpdating( String strAdminUserName )
     {
-        if ( _hashAdminUserName.containsKey( strAdminUserName ) )
+        RefreshTokenValidationCache.getInstance( ).invalidateAdminUser( strAdminUserName );
+        markAdminUserStale( strAdminUserName );
+
+        if ( _versionStore != null )
         {
-            Set<String> setSession = _hashAdminUserName.get( strAdminUserName );
+            // deduplicated until the next propagation
+            _setPendingNotifications.add( strAdminUserName );
+        }
+    }
+
+    /**
+     * Notify a batch of admin users
+     *
+     * @param collectionAdminUserNames
+     *            the admin user names
+     * @return the number of sessions marked as stale
+     */
+    public int notifyAdminUsersUpdating( Collection<String> collectionAdminUserNames )
+    {
+        int nSessions = 0;
+        RefreshTokenValidationCache.getInstance( ).invalidateAdminUsers( collectionAdminUserNames );
 
+        for ( String strAdminUserName : collectionAdminUserNames )
+        {
+            nSessions += markAdminUserStale( strAdminUserName );
+        }
+
+        if ( _versionStore != null )
+        {
+            _setPendingNotifications.addAll( collectionAdminUserNames );
+        }
+
+        return nSessions;
+    }
+
+    /**
+     * Mark as stale the local sessions of the users notified on other nodes, then publish the pending local notifications to the version store. The
+     * poll comes first so that the increments of the other nodes are read before the increments of this node replace them.
+     *
+     * @return the number of users notified on other nodes
+     */
+    public int propagateNotifications( )
+    {
+        if ( _versionStore == null )
+        {
+            return 0;
+        }
+
+        Set<String> setRemoteAdminUserNames = _versionStore.pollUpdatedVersions( );
+
+        for ( String strAdminUserName : setRemoteAdminUserNames )
+        {
+            RefreshTokenValidationCache.getInstance( ).invalidateAdminUser( strAdminUserName );
+            markAdminUserStale( strAdminUserName );
+        }
+
+        if ( !_setPendingNotifications.isEmpty( ) )
+        {
+            List<String> listAdminUserNames = new ArrayList<>( _setPendingNotifications );
+            _setPendingNotifications.removeAll( listAdminUserNames );
+
+            try
+            {
+                _versionStore.incrementVersions( listAdminUserNames );
+            }
+            catch( RuntimeException e )
+            {
+                // published again on the next run
+                _setPendingNotifications.addAll( listAdminUserNames );
+                AppLogService.error( "Unable to propagate the notifications of " + listAdminUserNames.size( ) + " admin users", e );
+            }
+        }
+
+        return setRemoteAdminUserNames.size( );
+    }
+
+    /**
+     * Mark the local sessions of an admin user as stale
+     *
+     * @param strAdminUserName
+     *            the admin user name
+     * @return the number of sessions marked as stale
+     */
+    private static int markAdminUserStale( String strAdminUserName )
+    {
+        int nSessions = 0;
+        AdminUserLoginCache.getInstance( ).invalidate( strAdminUserName );
+        SessionRegistrySnapshotService.getInstance( ).markPendingSessionsStale( strAdminUserName );
+
+        Set<String> setSession = _hashAdminUserName.get( strAdminUserName );
+
+        if ( setSession != null )
+        {
             for ( String strSession : setSession )
             {
-                if ( _hashSession.containsKey( strSession ) )
+                Oauth2AdminUserSession adminUserSession = _hashSession.get( strSession );
+
+                if ( adminUserSession != null )
                 {
-                    _hashSession.get( strSession ).setUpToDate( false );
+                    adminUserSession.setUpToDate( false );
+                    nSessions++;
                 }
             }
         }
+
+        return nSessions;
+    }
+
+    /**
+     * Remove the sessions idle for longer than the configured delay. Their destruction event has been missed (container restart, session migrated
+     * away, ...) since a live session would have been used or expired by the container meanwhile.
+     *
+     * @return the number of sessions removed
+     */
+    public int sweepAdminUserSessions( )
+    {
+        long lIdleLimit = System.currentTimeMillis( ) - _lMaxIdleMillis;
+        int nRemoved = 0;
+
+        // only the idle sessions are visited, in the access order
+        for ( SessionAccess sessionAccess : _setAccessOrder )
+        {
+            if ( sessionAccess.getAccessTime( ) >= lIdleLimit )
+            {
+                break;
+            }
+
+            removeAdminUserSession( sessionAccess.getSession( ) );
+            nRemoved++;
+        }
+
+        return nRemoved;
+    }
+
+    /**
+     * Make room in a full registry : sweep the idle sessions, or evict the least recently used one
+     */
+    private void evictForCapacity( )
+    {
+        if ( sweepAdminUserSessions( ) > 0 )
+        {
+            return;
+        }
+
+        SessionAccess oldest = _setAccessOrder.pollFirst( );
+
+        if ( oldest != null )
+        {
+            AppLogService.info( "The admin user session registry is full (" + _nMaxSize + " sessions), the least recently used session is evicted" );
+            removeAdminUserSession( oldest.getSession( ) );
+        }
+    }
+
+    public int getAdminUserSessionCount( )
+    {
+        return _hashSession.size( );
+    }
+
+    /**
+     * Estimate the heap used by the registry
+     *
+     * @return the estimated footprint in bytes
+     */
+    public long getEstimatedFootprint( )
+    {
+        long lFootprint = 0;
+
+        for ( String strSession : _hashSession.keySet( ) )
+        {
+            lFootprint += ESTIMATED_SESSION_ENTRY_SIZE + ESTIMATED_STRING_SIZE + strSession.length( );
+        }
+        for ( String strAdminUserName : _hashAdminUserName.keySet( ) )
+        {
+            lFootprint += ESTIMATED_USER_ENTRY_SIZE + ESTIMATED_STRING_SIZE + strAdminUserName.length( );
+        }
+
+        return lFootprint;
+    }
+
+    /**
+     * Remove a session from the sessions of an admin user, dropping the user entry once it has no session left
+     *
+     * @param strAdminUserName
+     *            the admin user name
+     * @param strSession
+     *            the session id
+     */
+    private static void removeFromAdminUserName( String strAdminUserName, String strSession )
+    {
+        _hashAdminUserName.computeIfPresent( strAdminUserName, ( strKey, setSession ) -> {
+            setSession.remove( strSession );
+
+            return setSession.isEmpty( ) ? null : setSession;
+        } );
+    }
+
+    /**
+     * Entry of the access order : a session and its last access time when it was ordered
+     */
+    private static final class SessionAccess
+    {
+        private final long _lAccessTime;
+        private final String _strSession;
+
+        private SessionAccess( long lAccessTime, String strSession )
+        {
+            _lAccessTime = lAccessTime;
+            _strSession = strSession;
+        }
+
+        private long getAccessTime( )
+        {
+            return _lAccessTime;
+        }
+
+        private String getSession( )
+        {
+            return _strSession;
+        }
     }
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service.session;
+
+import javax.servlet.http.HttpSession;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes the session attributes of the plugin only when their value changes : with replicated sessions, every call to
+ * {@link HttpSession#setAttribute(String, Object)} is sent to the other nodes.
+ */
+public final class SessionAttributeWriter
+{
+    private static final LongAdder _nWriteCount = new LongAdder( );
+    private static final LongAdder _nSkippedWriteCount = new LongAdder( );
+
+    /** Private constructor */
+    private SessionAttributeWriter( )
+    {
+    }
+
+    /**
+     * Set a session attribute if its value differs from the current one
+     *
+     * @param session
+     *            the session
+     * @param strName
+     *            the attribute name
+     * @param value
+     *            the attribute value
+     * @return true if the attribute has been written
+     */
+    public static boolean setAttribute( HttpSession session, String strName, Object value )
+    {
+        if ( Objects.equals( session.getAttribute( strName ), value ) )
+        {
+            _nSkippedWriteCount.increment( );
+
+            return false;
+        }
+
+        session.setAttribute( strName, value );
+        _nWriteCount.increment( );
+
+        return true;
+    }
+
+    /**
+     * @return the number of attribute writes made
+     */
+    public static long getWriteCount( )
+    {
+        return _nWriteCount.sum( );
+    }
+
+    /**
+     * @return the number of attribute writes avoided because the value was unchanged
+     */
+    public static long getSkippedWriteCount( )
+    {
+        return _nSkippedWriteCount.sum( );
+    }
+}
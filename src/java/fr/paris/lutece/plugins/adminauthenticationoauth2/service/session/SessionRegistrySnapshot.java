@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service.session;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Memory-mapped snapshot of the admin user session registry. The snapshot is written to a temporary file which atomically replaces the previous one,
+ * so a crash during a write never leaves a partial snapshot. The session ids being credentials, the file is only readable by its owner.
+ *
+ * Layout : magic, version, timestamp, count, then for each session the session id and the admin user name as length-prefixed UTF-8 strings, and a
+ * byte set to 1 if the session is up to date.
+ */
+public final class SessionRegistrySnapshot
+{
+    private static final int MAGIC = 0x4F413253;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES + Long.BYTES + Integer.BYTES;
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+    private static final String OWNER_ONLY_PERMISSIONS = "rw-------";
+
+    private final long _lTimestamp;
+    private final Map<String, String> _mapSessions;
+    private final Set<String> _setStaleSessions;
+
+    /**
+     * Constructor
+     *
+     * @param lTimestamp
+     *            the time of the snapshot
+     * @param mapSessions
+     *            the admin user names keyed by session id
+     * @param setStaleSessions
+     *            the ids of the stale sessions
+     */
+    private SessionRegistrySnapshot( long lTimestamp, Map<String, String> mapSessions, Set<String> setStaleSessions )
+    {
+        _lTimestamp = lTimestamp;
+        _mapSessions = mapSessions;
+        _setStaleSessions = setStaleSessions;
+    }
+
+    /**
+     * @return the time of the snapshot
+     */
+    public long getTimestamp( )
+    {
+        return _lTimestamp;
+    }
+
+    /**
+     * @return the admin user names keyed by session id
+     */
+    public Map<String, String> getSessions( )
+    {
+        return _mapSessions;
+    }
+
+    /**
+     * @return the ids of the sessions which were stale at the time of the snapshot
+     */
+    public Set<String> getStaleSessions( )
+    {
+        return _setStaleSessions;
+    }
+
+    /**
+     * Write a snapshot
+     *
+     * @param path
+     *            the snapshot file
+     * @param mapSessions
+     *            the admin user names keyed by session id
+     * @param setStaleSessions
+     *            the ids of the stale sessions
+     * @throws IOException
+     *             if an error occurs
+     */
+    public static void write( Path path, Map<String, String> mapSessions, Set<String> setStaleSessions ) throws IOException
+    {
+        List<String> listSessions = new ArrayList<>( mapSessions.size( ) );
+        List<byte [ ]> listStrings = new ArrayList<>( mapSessions.size( ) * 2 );
+        long lSize = HEADER_SIZE;
+
+        for ( Map.Entry<String, String> entry : mapSessions.entrySet( ) )
+        {
+            byte [ ] session = entry.getKey( ).getBytes( StandardCharsets.UTF_8 );
+            byte [ ] adminUserName = entry.getValue( ).getBytes( StandardCharsets.UTF_8 );
+            listSessions.add( entry.getKey( ) );
+            listStrings.add( session );
+            listStrings.add( adminUserName );
+            lSize += Integer.BYTES + session.length + Integer.BYTES + adminUserName.length + 1;
+        }
+
+        if ( lSize > Integer.MAX_VALUE )
+        {
+            throw new IOException( "The session registry is too large for a snapshot" );
+        }
+
+        Path pathTemporary = path.resolveSibling( path.getFileName( ) + TEMPORARY_FILE_SUFFIX );
+
+        // a leftover temporary file would keep its permissions, it is recreated
+        Files.deleteIfExists( pathTemporary );
+
+        try ( FileChannel channel = openOwnerOnly( pathTemporary ) )
+        {
+            MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_WRITE, 0, lSize );
+            buffer.putInt( MAGIC );
+            buffer.putInt( VERSION );
+            buffer.putLong( System.currentTimeMillis( ) );
+            buffer.putInt( mapSessions.size( ) );
+
+            for ( int i = 0; i < listSessions.size( ); i++ )
+            {
+                putString( buffer, listStrings.get( 2 * i ) );
+                putString( buffer, listStrings.get( 2 * i + 1 ) );
+                buffer.put( setStaleSessions.contains( listSessions.get( i ) ) ? (byte) 0 : (byte) 1 );
+            }
+
+            buffer.force( );
+        }
+
+        Files.move( pathTemporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    /**
+     * Create a file readable and writable by its owner only, where the file system supports the POSIX permissions
+     *
+     * @param path
+     *            the file
+     * @return the channel of the file
+     * @throws IOException
+     *             if an error occurs
+     */
+    private static FileChannel openOwnerOnly( Path path ) throws IOException
+    {
+        Set<StandardOpenOption> setOptions = EnumSet.of( StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE );
+        FileAttribute<?> permissions = PosixFilePermissions.asFileAttribute( PosixFilePermissions.fromString( OWNER_ONLY_PERMISSIONS ) );
+
+        try
+        {
+            return FileChannel.open( path, setOptions, permissions );
+        }
+        catch( UnsupportedOperationException e )
+        {
+            return FileChannel.open( path, setOptions );
+        }
+    }
+
+    private static void putString( MappedByteBuffer buffer, byte [ ] string )
+    {
+        buffer.putInt( string.length );
+        buffer.put( string );
+    }
+
+    /**
+     * Read a snapshot
+     *
+     * @param path
+     *            the snapshot file
+     * @return the snapshot, or null if the file does not exist
+     * @throws IOException
+     *             if the file cannot be read or is not a valid snapshot
+     */
+    public static SessionRegistrySnapshot read( Path path ) throws IOException
+    {
+        if ( !Files.exists( path ) )
+        {
+            return null;
+        }
+
+        try ( FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ) )
+        {
+            MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size( ) );
+
+            if ( buffer.getInt( ) != MAGIC || buffer.getInt( ) != VERSION )
+            {
+                throw new IOException( "Unsupported session registry snapshot " + path );
+            }
+
+            long lTimestamp = buffer.getLong( );
+            int nCount = buffer.getInt( );
+            Map<String, String> mapSessions = new HashMap<>( nCount * 4 / 3 + 1 );
+            Set<String> setStaleSessions = new HashSet<>( );
+
+            for ( int i = 0; i < nCount; i++ )
+            {
+                String strSession = readString( buffer );
+                mapSessions.put( strSession, readString( buffer ) );
+
+                if ( buffer.get( ) == 0 )
+                {
+                    setStaleSessions.add( strSession );
+                }
+            }
+
+            return new SessionRegistrySnapshot( lTimestamp, mapSessions, setStaleSessions );
+        }
+        catch( BufferUnderflowException | IllegalArgumentException e )
+        {
+            throw new IOException( "Truncated session registry snapshot " + path, e );
+        }
+    }
+
+    private static String readString( MappedByteBuffer buffer )
+    {
+        byte [ ] string = new byte [ buffer.getInt( ) ];
+        buffer.get( string );
+
+        return new String( string, StandardCharsets.UTF_8 );
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service.session;
+
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Utils;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves the admin user session registry to a snapshot file and restores it at startup, so that the notifications reach the sessions persisted by the
+ * container across a restart.
+ * <p>
+ * The restored sessions wait for their activation by the container : only the sessions which survived the restart are registered again, each with
+ * the state it had when it was saved, so that only the stale ones reload their admin user. The sessions never activated are forgotten after the idle
+ * limit of the registry.
+ * </p>
+ */
+public final class SessionRegistrySnapshotService
+{
+    private static final SessionRegistrySnapshotService _singleton = new SessionRegistrySnapshotService( );
+
+    private final String _strSnapshotFile;
+    private final long _lMaxAgeMillis;
+    private final Map<String, PendingSession> _mapPendingSessions = new ConcurrentHashMap<>( );
+    private volatile long _lPendingTimestamp;
+
+    /**
+     * private constructor
+     */
+    private SessionRegistrySnapshotService( )
+    {
+        _strSnapshotFile = AppPropertiesService.getProperty( Oauth2Utils.PROPERTY_SESSION_REGISTRY_SNAPSHOT_FILE );
+        _lMaxAgeMillis = TimeUnit.SECONDS.toMillis( AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_SESSION_REGISTRY_MAX_IDLE, 7200 ) );
+    }
+
+    /**
+     * Gets the instance.
+     *
+     * @return the instance
+     */
+    public static SessionRegistrySnapshotService getInstance( )
+    {
+        return _singleton;
+    }
+
+    /**
+     * @return true if a snapshot file is configured
+     */
+    public boolean isEnabled( )
+    {
+        return StringUtils.isNotBlank( _strSnapshotFile );
+    }
+
+    /**
+     * Save the registry, with the restored sessions not activated yet
+     *
+     * @return the number of sessions saved
+     * @throws IOException
+     *             if the snapshot cannot be written
+     */
+    public int save( ) throws IOException
+    {
+        IOauth2AdminUserSessionService service = Oauth2AdminUserSessionService.getInstance( );
+        Map<String, String> mapSessions = new HashMap<>( );
+        Set<String> setStaleSessions = service.getStaleAdminUserSessions( );
+
+        if ( System.currentTimeMillis( ) - _lPendingTimestamp > _lMaxAgeMillis )
+        {
+            _mapPendingSessions.clear( );
+        }
+
+        for ( Map.Entry<String, PendingSession> entry : _mapPendingSessions.entrySet( ) )
+        {
+            mapSessions.put( entry.getKey( ), entry.getValue( ).getAdminUserName( ) );
+
+            if ( !entry.getValue( ).isUpToDate( ) )
+            {
+                setStaleSessions.add( entry.getKey( ) );
+            }
+        }
+
+        mapSessions.putAll( service.getAdminUserSessions( ) );
+        SessionRegistrySnapshot.write( getPath( ), mapSessions, setStaleSessions );
+
+        return mapSessions.size( );
+    }
+
+    /**
+     * Load the last snapshot. A snapshot older than the idle limit of the registry is ignored, its sessions would all be swept.
+     *
+     * @return the number of sessions waiting for their activation
+     */
+    public int restore( )
+    {
+        if ( !isEnabled( ) )
+        {
+            return 0;
+        }
+
+        try
+        {
+            SessionRegistrySnapshot snapshot = SessionRegistrySnapshot.read( getPath( ) );
+
+            if ( snapshot == null || System.currentTimeMillis( ) - snapshot.getTimestamp( ) > _lMaxAgeMillis )
+            {
+                return 0;
+            }
+
+            _lPendingTimestamp = snapshot.getTimestamp( );
+
+            for ( Map.Entry<String, String> entry : snapshot.getSessions( ).entrySet( ) )
+            {
+                boolean bUpToDate = !snapshot.getStaleSessions( ).contains( entry.getKey( ) );
+                _mapPendingSessions.put( entry.getKey( ), new PendingSession( entry.getValue( ), bUpToDate ) );
+            }
+
+            return _mapPendingSessions.size( );
+        }
+        catch( IOException e )
+        {
+            AppLogService.error( "Unable to restore the admin user session registry from " + _strSnapshotFile, e );
+
+            return 0;
+        }
+    }
+
+    /**
+     * Register a session activated by the container if it was saved in the snapshot
+     *
+     * @param strSession
+     *            the session id
+     * @param strAdminUserName
+     *            the admin user name of the session
+     * @return true if the session has been registered
+     */
+    public boolean activate( String strSession, String strAdminUserName )
+    {
+        PendingSession pendingSession = _mapPendingSessions.get( strSession );
+
+        if ( pendingSession == null )
+        {
+            return false;
+        }
+
+        IOauth2AdminUserSessionService service = Oauth2AdminUserSessionService.getInstance( );
+
+        // the admin user may have changed since the snapshot, it is reloaded
+        boolean bUpToDate = pendingSession.isUpToDate( ) && pendingSession.getAdminUserName( ).equals( strAdminUserName );
+        boolean bRestored = service.restoreAdminUserSession( strAdminUserName, strSession, bUpToDate );
+        _mapPendingSessions.remove( strSession );
+
+        // a notification received before the session was registered
+        if ( bRestored && !pendingSession.isUpToDate( ) )
+        {
+            service.markAdminUserSessionStale( strSession );
+        }
+
+        return bRestored;
+    }
+
+    /**
+     * Mark as stale the restored sessions of an admin user not activated yet, so that a notification received meanwhile is not lost
+     *
+     * @param strAdminUserName
+     *            the admin user name
+     */
+    public void markPendingSessionsStale( String strAdminUserName )
+    {
+        if ( _mapPendingSessions.isEmpty( ) )
+        {
+            return;
+        }
+
+        for ( PendingSession pendingSession : _mapPendingSessions.values( ) )
+        {
+            if ( pendingSession.getAdminUserName( ).equals( strAdminUserName ) )
+            {
+                pendingSession.setUpToDate( false );
+            }
+        }
+    }
+
+    private Path getPath( )
+    {
+        return Paths.get( _strSnapshotFile );
+    }
+
+    /**
+     * A session read from the snapshot, waiting for its activation
+     */
+    private static final class PendingSession
+    {
+        private final String _strAdminUserName;
+        private volatile boolean _bUpToDate;
+
+        PendingSession( String strAdminUserName, boolean bUpToDate )
+        {
+            _strAdminUserName = strAdminUserName;
+            _bUpToDate = bUpToDate;
+        }
+
+        String getAdminUserName( )
+        {
+            return _strAdminUserName;
+        }
+
+        boolean isUpToDate( )
+        {
+            return _bUpToDate;
+        }
+
+        void setUpToDate( boolean bUpToDate )
+        {
+            _bUpToDate = bUpToDate;
+        }
+    }
+}
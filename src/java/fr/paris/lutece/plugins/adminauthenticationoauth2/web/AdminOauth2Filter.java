@@ -35,31 +35,31 @@ package fr.paris.lutece.plugins.adminauthenticationoauth2.web;
 
 import fr.paris.lutece.plugins.adminauthenticationoauth2.business.authentication.AdminOauth2Authentication;
 import fr.paris.lutece.plugins.adminauthenticationoauth2.business.authentication.AdminOauth2User;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.cache.RefreshTokenValidationCache;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.jwt.AccessTokenValidator;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.metrics.Oauth2Metrics;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.metrics.Oauth2Metrics.Outcome;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.metrics.Oauth2Metrics.Phase;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.refresh.Oauth2TokenRefreshService;
 import fr.paris.lutece.plugins.adminauthenticationoauth2.service.session.Oauth2AdminUserSessionService;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.session.SessionAttributeWriter;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Service;
 import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Utils;
 import fr.paris.lutece.plugins.oauth2.business.Token;
-import fr.paris.lutece.plugins.oauth2.service.TokenService;
 import fr.paris.lutece.portal.business.user.AdminUser;
-import fr.paris.lutece.portal.business.user.AdminUserHome;
 import fr.paris.lutece.portal.service.admin.AccessDeniedException;
 import fr.paris.lutece.portal.service.admin.AdminAuthenticationService;
 import fr.paris.lutece.portal.service.admin.AdminUserService;
 import fr.paris.lutece.portal.service.security.UserNotSignedException;
 import fr.paris.lutece.portal.service.spring.SpringContextService;
-import fr.paris.lutece.portal.service.util.AppPathService;
 import fr.paris.lutece.portal.service.util.AppPropertiesService;
-import fr.paris.lutece.util.url.UrlItem;
-import org.apache.commons.lang3.StringUtils;
 
 import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * ParisConnectLuteceFilters
@@ -67,11 +67,13 @@ import java.util.Map;
  */
 public class AdminOauth2Filter implements Filter
 {
+    private static final LongAdder _nBypassedRequestCount = new LongAdder( );
 
     private boolean _bUsePromptNone;
     private boolean _bValidateRefreshToken;
-    private List<String> _listUsePromptWhiteUrls;
-    private Map<String, List<String>> _mapUsePromptWhiteHeaders;
+    private boolean _bValidateAccessTokenLocally;
+    private PromptNoneWhiteListMatcher _promptNoneWhiteListMatcher;
+    private RequestBypassMatcher _requestBypassMatcher;
 
     /**
      *
@@ -93,27 +95,47 @@ public class AdminOauth2Filter implements Filter
     {
         HttpServletRequest request = (HttpServletRequest) servletRequest;
         HttpServletResponse resp = (HttpServletResponse) response;
+        HttpSession currentSession = ( request != null ) ? request.getSession( false ) : null;
+
+        if ( currentSession != null )
+        {
+            // every request keeps its session alive in the registry, whatever its method and even when it is bypassed
+            Oauth2AdminUserSessionService.getInstance( ).touchAdminUserSession( currentSession.getId( ) );
+        }
+
+        if ( request != null && !_requestBypassMatcher.isEmpty( ) && _requestBypassMatcher.matches( request ) )
+        {
+            // no session nor authentication refresh needed for this request
+            _nBypassedRequestCount.increment( );
+            chain.doFilter( servletRequest, response );
+
+            return;
+        }
+
         if ( request != null && "GET".equals( request.getMethod( ) ) )
         {
+            Oauth2Metrics metrics = Oauth2Metrics.getInstance( );
+            long lStart = metrics.start( );
             AdminUser user = AdminUserService.getAdminUser( request );
 
             if ( user == null && isUsePomptNoneForRequest( request ) )
             {
                 HttpSession session = request.getSession( true );
+                Object errorLogin = session.getAttribute( Oauth2Utils.SESSION_ERROR_LOGIN );
 
-                if ( ( session.getAttribute( Oauth2Utils.SESSION_ERROR_LOGIN ) == null && request.getParameter( Oauth2Utils.PARAM_ERROR_LOGIN ) == null )
-                        || session.getAttribute( Oauth2Utils.SESSION_ERROR_LOGIN ) != null
-                                && session.getAttribute( Oauth2Utils.SESSION_ERROR_LOGIN ).equals( Oauth2Utils.REINIT_ERROR_LOGIN ) )
+                if ( ( errorLogin == null && request.getParameter( Oauth2Utils.PARAM_ERROR_LOGIN ) == null )
+                        || Oauth2Utils.REINIT_ERROR_LOGIN.equals( errorLogin ) )
                 {
-                    session.setAttribute( Oauth2Utils.SESSION_ERROR_LOGIN, "" );
+                    SessionAttributeWriter.setAttribute( session, Oauth2Utils.SESSION_ERROR_LOGIN, "" );
                     String strRedirectLoginUrl = AdminAuthenticationService.getInstance( ).getLoginPageUrl( );
 
                     resp.sendRedirect( strRedirectLoginUrl );
+                    metrics.record( Phase.FILTER, lStart, Outcome.LOGIN_REQUIRED );
 
                     return;
                 }
 
-                session.setAttribute( Oauth2Utils.SESSION_ERROR_LOGIN, Oauth2Utils.REINIT_ERROR_LOGIN );
+                SessionAttributeWriter.setAttribute( session, Oauth2Utils.SESSION_ERROR_LOGIN, Oauth2Utils.REINIT_ERROR_LOGIN );
             }
             else
                 if ( _bValidateRefreshToken && user instanceof AdminOauth2User )
@@ -121,15 +143,27 @@ public class AdminOauth2Filter implements Filter
                     AdminOauth2User oauth2User = (AdminOauth2User) user;
                     if ( oauth2User.getToken( ) != null && oauth2User.getToken( ).getRefreshToken( ) != null )
                     {
-                        Token token = TokenService.getService( ).getTokenByRefreshToken( oauth2User.getToken( ).getRefreshToken( ) );
-                        if ( token == null )
+                        RefreshTokenValidationCache validationCache = RefreshTokenValidationCache.getInstance( );
+                        Oauth2TokenRefreshService refreshService = Oauth2TokenRefreshService.getInstance( );
+                        String strRefreshToken = oauth2User.getToken( ).getRefreshToken( );
+
+                        // a signed access token still valid, or a token just exchanged by another path, proves the session without calling the
+                        // authorization server
+                        if ( !isAccessTokenValid( oauth2User.getToken( ) ) && !validationCache.isValidated( strRefreshToken )
+                                && !refreshService.isRecentlyExchanged( oauth2User ) )
                         {
-
-                            AdminAuthenticationService.getInstance( ).logoutUser( request );
-                        }
-                        else
-                        {
-                            oauth2User.setToken( token );
+                            long lRefreshStart = metrics.start( );
+                            Token token = refreshService.exchangeRefreshToken( oauth2User, strRefreshToken );
+                            metrics.record( Phase.TOKEN_REFRESH, lRefreshStart, ( token != null ) ? Outcome.SUCCESS : Outcome.LOGIN_REQUIRED );
+                            if ( token == null )
+                            {
+
+                                AdminAuthenticationService.getInstance( ).logoutUser( request );
+                            }
+                            else
+                            {
+                                validationCache.putValidated( token, oauth2User.getAccessCode( ) );
+                            }
                         }
                     }
                     else
@@ -137,7 +171,18 @@ public class AdminOauth2Filter implements Filter
                         AdminAuthenticationService.getInstance( ).logoutUser( request );
                     }
                 }
-            if ( !Oauth2AdminUserSessionService.getInstance( ).isAdminUserUpToDate( request.getSession( true ).getId( ) ) )
+            // a request without session has no registered admin user to reload
+            HttpSession session = request.getSession( false );
+
+            if ( session != null && user instanceof AdminOauth2User && user.getAccessCode( ) != null
+                    && user == AdminUserService.getAdminUser( request ) )
+            {
+                // a session unknown to the registry (restarted node, evicted entry) is registered stale so that its user is reloaded below, and
+                // notified afterwards ; a known session is left as is
+                Oauth2AdminUserSessionService.getInstance( ).restoreAdminUserSession( user.getAccessCode( ), session.getId( ), false );
+            }
+
+            if ( session != null && !Oauth2AdminUserSessionService.getInstance( ).isAdminUserUpToDate( session.getId( ) ) )
             {
 
                 AdminOauth2Authentication oauth2Authentication = SpringContextService.getBean( "adminauthenticationoauth2.authentication" );
@@ -145,30 +190,20 @@ public class AdminOauth2Filter implements Filter
 
                 if ( user != null && user.getAccessCode( ) != null )
                 {
-                    AdminUser bindUser = AdminUserHome.findUserByLogin( user.getAccessCode( ) );
-                    if ( bindUser == null )
-                    {
-                        if ( user.getLastName( ) == null )
-                        {
-                            user.setLastName( "" );
-                        }
-                        if ( user.getFirstName( ) == null )
-                        {
-                            user.setFirstName( "" );
-                        }
-                        AdminUserHome.create( user );
-                    }
+                    Oauth2Service.getInstance( ).createAdminUserIfNeeded( user );
                 }
                 try
                 {
-                    AdminAuthenticationService.getInstance( ).registerUser( request, user );
+                    Oauth2Service.getInstance( ).registerUser( request, user );
                 }
                 catch( AccessDeniedException | UserNotSignedException e )
                 {
+                    metrics.record( Phase.FILTER, lStart, Outcome.ACCESS_DENIED );
                     throw new RuntimeException( e );
                 }
             }
 
+            metrics.record( Phase.FILTER, lStart, Outcome.SUCCESS );
         }
 
         chain.doFilter( servletRequest, response );
@@ -183,131 +218,30 @@ public class AdminOauth2Filter implements Filter
     {
         _bUsePromptNone = AppPropertiesService.getPropertyBoolean( Oauth2Utils.PROPERTY_USE_PROMPT_NONE, false );
         _bValidateRefreshToken = AppPropertiesService.getPropertyBoolean( Oauth2Utils.PROPERTY_VALIDATE_REFRESH_TOKEN, false );
-
-        String strTabWhiteListingUrls = AppPropertiesService.getProperty( Oauth2Utils.PROPERTY_USE_PROMPT_NONE_WHITE_LISTING_URLS );
-        String strTabWhiteListingHeaders = AppPropertiesService.getProperty( Oauth2Utils.PROPERTY_USE_PROMPT_NONE_WHITE_LISTING_HEADERS );
-        if ( StringUtils.isNotBlank( strTabWhiteListingUrls ) )
-        {
-            _listUsePromptWhiteUrls = Arrays.asList( strTabWhiteListingUrls.split( Oauth2Utils.SEPARATOR ) );
-        }
-        if ( StringUtils.isNotBlank( strTabWhiteListingHeaders ) )
-        {
-            _mapUsePromptWhiteHeaders = new HashMap<>( );
-            Arrays.stream( strTabWhiteListingHeaders.split( Oauth2Utils.SEPARATOR ) )
-                    .forEach( x -> _mapUsePromptWhiteHeaders.put( x, Arrays.asList( AppPropertiesService
-                            .getProperty( Oauth2Utils.PROPERTY_USE_PROMPT_NONE_WHITE_LISTING_HEADERS + "." + x, "" ).split( Oauth2Utils.SEPARATOR ) ) ) );
-        }
-
-    }
-
-    private boolean isUsePomptNoneForRequest( HttpServletRequest request )
-    {
-        boolean bReturn = true;
-        if ( _bUsePromptNone )
-        {
-            // test headers white list
-            if ( _mapUsePromptWhiteHeaders != null && _mapUsePromptWhiteHeaders.size( ) > 0 )
-            {
-                bReturn = _mapUsePromptWhiteHeaders.keySet( ).stream( ).noneMatch( x -> request.getHeader( x ) != null
-                        && _mapUsePromptWhiteHeaders.get( x ).stream( ).anyMatch( v -> v.equalsIgnoreCase( request.getHeader( x ) ) ) );
-            }
-            // test url white List
-            if ( bReturn && _listUsePromptWhiteUrls != null && !_listUsePromptWhiteUrls.isEmpty( ) )
-            {
-                bReturn = _listUsePromptWhiteUrls.stream( ).noneMatch( x -> matchUrl( request, x ) );
-            }
-
-        }
-        else
-        {
-            bReturn = false;
-        }
-
-        return bReturn;
-
+        _bValidateAccessTokenLocally = Oauth2Utils.VALIDATION_MODE_JWT
+                .equals( AppPropertiesService.getProperty( Oauth2Utils.PROPERTY_VALIDATE_REFRESH_TOKEN_MODE, Oauth2Utils.VALIDATION_MODE_REFRESH ) );
+        _promptNoneWhiteListMatcher = PromptNoneWhiteListMatcher.compile( );
+        _requestBypassMatcher = RequestBypassMatcher.compile( );
     }
 
     /**
-     * method to test if the URL matches the pattern
-     * 
-     * @param request
-     *            the request
-     * @param strUrlPatern
-     *            the pattern
-     * @return true if the URL matches the pattern
+     * Gets the number of requests which bypassed the authentication refresh
+     *
+     * @return the number of bypassed requests
      */
-    private boolean matchUrl( HttpServletRequest request, String strUrlPatern )
+    public static long getBypassedRequestCount( )
     {
-        boolean bMatch = false;
-
-        if ( strUrlPatern != null )
-        {
-            UrlItem url = new UrlItem( getResquestedUrl( request ) );
-
-            if ( strUrlPatern.contains( Oauth2Utils.URL_INTERROGATIVE ) )
-            {
-                for ( String strParamPatternValue : strUrlPatern.substring( strUrlPatern.indexOf( Oauth2Utils.URL_INTERROGATIVE ) + 1 )
-                        .split( Oauth2Utils.URL_AMPERSAND ) )
-                {
-                    String [ ] arrayPatternParamValue = strParamPatternValue.split( Oauth2Utils.URL_EQUAL );
-
-                    if ( request.getParameter( arrayPatternParamValue [0] ) != null )
-                    {
-                        url.addParameter( arrayPatternParamValue [0], request.getParameter( arrayPatternParamValue [0] ) );
-                    }
-                }
-            }
-
-            if ( strUrlPatern.contains( Oauth2Utils.URL_STAR ) )
-            {
-                String strUrlPaternLeftEnd = strUrlPatern.substring( 0, strUrlPatern.indexOf( Oauth2Utils.URL_STAR ) );
-                String strAbsoluteUrlPattern = getAbsoluteUrl( request, strUrlPaternLeftEnd );
-                bMatch = url.getUrl( ).startsWith( strAbsoluteUrlPattern );
-            }
-            else
-            {
-                String strAbsoluteUrlPattern = getAbsoluteUrl( request, strUrlPatern );
-                bMatch = url.getUrl( ).equals( strAbsoluteUrlPattern );
-            }
-        }
-
-        return bMatch;
+        return _nBypassedRequestCount.sum( );
     }
 
-    /**
-     * Returns the absolute url corresponding to the given one, if the later was found to be relative. An url starting with "http://" is absolute. A relative
-     * url should be given relatively to the webapp root.
-     *
-     * @param request
-     *            the http request (provides the base path if needed)
-     * @param strUrl
-     *            the url to transform
-     * @return the corresonding absolute url
-     *
-     */
-    private String getAbsoluteUrl( HttpServletRequest request, String strUrl )
+    private boolean isAccessTokenValid( Token token )
     {
-        if ( ( strUrl != null ) && !strUrl.startsWith( "http://" ) && !strUrl.startsWith( "https://" ) )
-        {
-            return AppPathService.getBaseUrl( request ) + strUrl;
-        }
-        else
-        {
-            return strUrl;
-        }
+        return _bValidateAccessTokenLocally && AccessTokenValidator.getInstance( ).validate( token.getAccessToken( ) ) == AccessTokenValidator.Result.VALID;
     }
 
-    /**
-     * Return the absolute representation of the requested url
-     *
-     * @param request
-     *            the http request (provides the base path if needed)
-     * @return the requested url has a string
-     *
-     */
-    private String getResquestedUrl( HttpServletRequest request )
+    private boolean isUsePomptNoneForRequest( HttpServletRequest request )
     {
-        return request.getRequestURL( ).toString( );
+        return _bUsePromptNone && !_promptNoneWhiteListMatcher.matches( request );
     }
 
 }
@@ -33,13 +33,31 @@
  */
 package fr.paris.lutece.plugins.adminauthenticationoauth2.web;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import fr.paris.lutece.plugins.adminauthenticationoauth2.service.session.Oauth2AdminUserSessionService;
 import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Utils;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import fr.paris.lutece.util.json.JsonResponse;
+import fr.paris.lutece.util.json.JsonUtil;
 import org.apache.commons.lang3.StringUtils;
 
 import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * ParisConnectLuteceFilters
@@ -47,6 +65,17 @@ import javax.servlet.http.HttpServletResponse;
  */
 public class NotifyAdminUserFilter implements Filter
 {
+    private static final String METHOD_POST = "POST";
+    private static final String CONTENT_TYPE_JSON = "json";
+    private static final String CONTENT_TYPE_TEXT = "text/plain";
+    private static final String RESULT_USERS = "users";
+    private static final String RESULT_SESSIONS = "sessions";
+    private static final String RESULT_FAILURES = "failures";
+    private static final String FAILURE_ERROR = "error";
+    private static final String FAILURE_READ_IDS = "readIds";
+    private static final JsonFactory _jsonFactory = new JsonFactory( );
+
+    private int _nBatchSize;
 
     @Override
     public void destroy( )
@@ -55,13 +84,21 @@ public class NotifyAdminUserFilter implements Filter
     }
 
     @Override
-    public void doFilter( ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain )
+    public void doFilter( ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain ) throws IOException
     {
         HttpServletRequest request = (HttpServletRequest) servletRequest;
         HttpServletResponse response = (HttpServletResponse) servletResponse;
 
         String strGuidParameter = request.getParameter( Oauth2Utils.PARAMETER_UID );
 
+        // a request naming its user keeps the single notification, whatever its body
+        if ( strGuidParameter == null && isBulkRequest( request ) )
+        {
+            doBulkNotify( request, response );
+
+            return;
+        }
+
         if ( !StringUtils.isEmpty( strGuidParameter ) )
         {
             Oauth2AdminUserSessionService.getInstance( ).notifyAdminUserUpdating( strGuidParameter );
@@ -73,6 +110,171 @@ public class NotifyAdminUserFilter implements Filter
     @Override
     public void init( FilterConfig config )
     {
-        // nothing
+        _nBatchSize = Math.max( 1, AppPropertiesService.getPropertyInt( Oauth2Utils.PROPERTY_NOTIFY_BATCH_SIZE, 500 ) );
+    }
+
+    /**
+     * Tell if the request is a bulk notification : a POST without uid parameter whose body is a JSON array or newline delimited list of user ids
+     *
+     * @param request
+     *            the request
+     * @return true for a bulk notification
+     */
+    private static boolean isBulkRequest( HttpServletRequest request )
+    {
+        String strContentType = request.getContentType( );
+
+        return METHOD_POST.equals( request.getMethod( ) ) && strContentType != null
+                && ( strContentType.contains( CONTENT_TYPE_JSON ) || strContentType.startsWith( CONTENT_TYPE_TEXT ) );
+    }
+
+    /**
+     * Notify the user ids of the request body, read as a stream and processed by batches. The body is not validated before the notifications : when
+     * it turns out to be invalid, the user ids read before the error are notified all the same. The response is always a 200 whose failures list
+     * holds the error and the number of user ids read before it, so that the caller knows which part of its request has been processed ; the list is
+     * empty when the whole body has been processed.
+     *
+     * @param request
+     *            the request
+     * @param response
+     *            the response, holding the number of notified users, the number of affected sessions and the failures
+     * @throws IOException
+     *             if an error occurs
+     */
+    private void doBulkNotify( HttpServletRequest request, HttpServletResponse response ) throws IOException
+    {
+        BatchNotifier notifier = new BatchNotifier( _nBatchSize );
+        List<Map<String, Object>> listFailures = new ArrayList<>( );
+
+        try
+        {
+            if ( request.getContentType( ).contains( CONTENT_TYPE_JSON ) )
+            {
+                readJsonArray( request, notifier );
+            }
+            else
+            {
+                readLines( request, notifier );
+            }
+        }
+        catch( JsonProcessingException e )
+        {
+            AppLogService.error( "Invalid bulk admin user notification", e );
+
+            Map<String, Object> mapFailure = new HashMap<>( );
+            mapFailure.put( FAILURE_ERROR, e.getOriginalMessage( ) );
+            mapFailure.put( FAILURE_READ_IDS, notifier._nReadIds );
+            listFailures.add( mapFailure );
+        }
+
+        notifier.flush( );
+
+        Map<String, Object> mapResult = new HashMap<>( );
+        mapResult.put( RESULT_USERS, notifier._nUsers );
+        mapResult.put( RESULT_SESSIONS, notifier._nSessions );
+        mapResult.put( RESULT_FAILURES, listFailures );
+
+        byte [ ] tabJsonResult = JsonUtil.buildJsonResponse( new JsonResponse( mapResult ) ).getBytes( StandardCharsets.UTF_8 );
+        response.setStatus( HttpServletResponse.SC_OK );
+        response.setContentType( "application/json" );
+        response.setContentLength( tabJsonResult.length );
+        response.getOutputStream( ).write( tabJsonResult );
+    }
+
+    /**
+     * Read a JSON array of user ids
+     *
+     * @param request
+     *            the request
+     * @param notifier
+     *            the batch notifier
+     * @throws IOException
+     *             if an error occurs
+     */
+    private static void readJsonArray( HttpServletRequest request, BatchNotifier notifier ) throws IOException
+    {
+        try ( JsonParser parser = _jsonFactory.createParser( request.getInputStream( ) ) )
+        {
+            if ( parser.nextToken( ) != JsonToken.START_ARRAY )
+            {
+                throw new JsonParseException( parser, "A JSON array of user ids is expected" );
+            }
+
+            JsonToken token;
+            while ( ( token = parser.nextToken( ) ) != null && token != JsonToken.END_ARRAY )
+            {
+                if ( token.isScalarValue( ) )
+                {
+                    notifier.add( parser.getText( ) );
+                }
+                else
+                {
+                    parser.skipChildren( );
+                }
+            }
+        }
+    }
+
+    /**
+     * Read newline delimited user ids
+     *
+     * @param request
+     *            the request
+     * @param notifier
+     *            the batch notifier
+     * @throws IOException
+     *             if an error occurs
+     */
+    private static void readLines( HttpServletRequest request, BatchNotifier notifier ) throws IOException
+    {
+        BufferedReader reader = request.getReader( );
+        String strLine;
+
+        while ( ( strLine = reader.readLine( ) ) != null )
+        {
+            notifier.add( strLine.trim( ) );
+        }
+    }
+
+    /**
+     * Accumulates the user ids and notifies them by batches
+     */
+    private static final class BatchNotifier
+    {
+        private final int _nBatchSize;
+        private final Set<String> _setBatch;
+        private int _nReadIds;
+        private int _nUsers;
+        private int _nSessions;
+
+        private BatchNotifier( int nBatchSize )
+        {
+            _nBatchSize = nBatchSize;
+            _setBatch = new LinkedHashSet<>( );
+        }
+
+        private void add( String strUserId )
+        {
+            if ( StringUtils.isNotEmpty( strUserId ) )
+            {
+                _nReadIds++;
+                _setBatch.add( strUserId );
+
+                if ( _setBatch.size( ) >= _nBatchSize )
+                {
+                    flush( );
+                }
+            }
+        }
+
+        private void flush( )
+        {
+            if ( !_setBatch.isEmpty( ) )
+            {
+                _nSessions += Oauth2AdminUserSessionService.getInstance( ).notifyAdminUsersUpdating( _setBatch );
+                _nUsers += _setBatch.size( );
+                _setBatch.clear( );
+            }
+        }
     }
 }
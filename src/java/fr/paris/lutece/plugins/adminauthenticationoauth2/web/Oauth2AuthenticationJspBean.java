@@ -33,6 +33,9 @@
  */
 package fr.paris.lutece.plugins.adminauthenticationoauth2.web;
 
+import fr.paris.lutece.plugins.adminauthenticationoauth2.business.authentication.AdminOauth2User;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.cache.RefreshTokenValidationCache;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.resilience.Oauth2ProfileService;
 import fr.paris.lutece.plugins.adminauthenticationoauth2.service.session.Oauth2AdminUserSessionService;
 import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Utils;
 import fr.paris.lutece.portal.business.user.AdminUser;
@@ -65,6 +68,12 @@ public class Oauth2AuthenticationJspBean implements Serializable
 
         AdminUser user = AdminAuthenticationService.getInstance( ).getRegisteredUser( request );
 
+        if ( user instanceof AdminOauth2User && ( (AdminOauth2User) user ).getToken( ) != null )
+        {
+            RefreshTokenValidationCache.getInstance( ).invalidate( ( (AdminOauth2User) user ).getToken( ).getRefreshToken( ) );
+            Oauth2ProfileService.getInstance( ).invalidate( user.getAccessCode( ) );
+        }
+
         if ( session != null )
         {
             Oauth2AdminUserSessionService.getInstance( ).removeAdminUserSession( session.getId( ) );
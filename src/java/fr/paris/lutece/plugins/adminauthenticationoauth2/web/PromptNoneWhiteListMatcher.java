@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.web;
+
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Utils;
+import fr.paris.lutece.portal.service.util.AppPathService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import fr.paris.lutece.util.url.UrlItem;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Matcher of the requests white listed from the "prompt none" flow, compiled once from the plugin properties. URL patterns without parameters are
+ * stored in two character tries (relative and absolute URLs) matched without allocation, header values in case insensitive sets.
+ */
+public final class PromptNoneWhiteListMatcher
+{
+    private static final String PREFIX_HTTP = "http://";
+    private static final String PREFIX_HTTPS = "https://";
+
+    private final TrieNode _relativeUrls = new TrieNode( );
+    private final TrieNode _absoluteUrls = new TrieNode( );
+    private final List<String> _listParameterizedUrlPatterns = new ArrayList<>( );
+    private final String [ ] _tabHeaderNames;
+    private final Set<String> [ ] _tabHeaderValues;
+
+    /**
+     * Constructor, package-private for the tests : the webapp compiles the matcher from the properties
+     *
+     * @param listUrlPatterns
+     *            the white listed URL patterns
+     * @param listHeaderNames
+     *            the white listed header names
+     * @param listHeaderValues
+     *            the white listed values of each header
+     */
+    @SuppressWarnings( "unchecked" )
+    PromptNoneWhiteListMatcher( List<String> listUrlPatterns, List<String> listHeaderNames, List<Set<String>> listHeaderValues )
+    {
+        for ( String strUrlPattern : listUrlPatterns )
+        {
+            if ( strUrlPattern.contains( Oauth2Utils.URL_INTERROGATIVE ) )
+            {
+                // the request parameters take part in the matched url
+                _listParameterizedUrlPatterns.add( strUrlPattern );
+                continue;
+            }
+
+            boolean bPrefix = strUrlPattern.contains( Oauth2Utils.URL_STAR );
+            String strUrl = bPrefix ? strUrlPattern.substring( 0, strUrlPattern.indexOf( Oauth2Utils.URL_STAR ) ) : strUrlPattern;
+            TrieNode root = isAbsolute( strUrl ) ? _absoluteUrls : _relativeUrls;
+            root.insert( strUrl, bPrefix );
+        }
+
+        _tabHeaderNames = listHeaderNames.toArray( new String [ 0 ] );
+        _tabHeaderValues = listHeaderValues.toArray( new Set [ 0 ] );
+    }
+
+    /**
+     * Compile the white lists from the plugin properties
+     *
+     * @return the matcher
+     */
+    public static PromptNoneWhiteListMatcher compile( )
+    {
+        List<String> listUrlPatterns = new ArrayList<>( );
+        List<String> listHeaderNames = new ArrayList<>( );
+        List<Set<String>> listHeaderValues = new ArrayList<>( );
+
+        String strTabWhiteListingUrls = AppPropertiesService.getProperty( Oauth2Utils.PROPERTY_USE_PROMPT_NONE_WHITE_LISTING_URLS );
+        String strTabWhiteListingHeaders = AppPropertiesService.getProperty( Oauth2Utils.PROPERTY_USE_PROMPT_NONE_WHITE_LISTING_HEADERS );
+        if ( StringUtils.isNotBlank( strTabWhiteListingUrls ) )
+        {
+            listUrlPatterns.addAll( Arrays.asList( strTabWhiteListingUrls.split( Oauth2Utils.SEPARATOR ) ) );
+        }
+        if ( StringUtils.isNotBlank( strTabWhiteListingHeaders ) )
+        {
+            for ( String strHeaderName : strTabWhiteListingHeaders.split( Oauth2Utils.SEPARATOR ) )
+            {
+                Set<String> setValues = new TreeSet<>( String.CASE_INSENSITIVE_ORDER );
+                setValues.addAll( Arrays.asList( AppPropertiesService
+                        .getProperty( Oauth2Utils.PROPERTY_USE_PROMPT_NONE_WHITE_LISTING_HEADERS + "." + strHeaderName, "" ).split( Oauth2Utils.SEPARATOR ) ) );
+                listHeaderNames.add( strHeaderName );
+                listHeaderValues.add( setValues );
+            }
+        }
+
+        return new PromptNoneWhiteListMatcher( listUrlPatterns, listHeaderNames, listHeaderValues );
+    }
+
+    /**
+     * Tell if a request is white listed by its headers or its URL
+     *
+     * @param request
+     *            the request
+     * @return true if the request is white listed
+     */
+    public boolean matches( HttpServletRequest request )
+    {
+        for ( int i = 0; i < _tabHeaderNames.length; i++ )
+        {
+            String strHeaderValue = request.getHeader( _tabHeaderNames [i] );
+
+            if ( strHeaderValue != null && _tabHeaderValues [i].contains( strHeaderValue ) )
+            {
+                return true;
+            }
+        }
+
+        if ( _relativeUrls.isEmpty( ) && _absoluteUrls.isEmpty( ) && _listParameterizedUrlPatterns.isEmpty( ) )
+        {
+            return false;
+        }
+
+        String strRequestUrl = request.getRequestURL( ).toString( );
+
+        if ( _absoluteUrls.matches( strRequestUrl, 0 ) )
+        {
+            return true;
+        }
+
+        String strBaseUrl = AppPathService.getBaseUrl( request );
+
+        if ( strRequestUrl.startsWith( strBaseUrl ) && _relativeUrls.matches( strRequestUrl, strBaseUrl.length( ) ) )
+        {
+            return true;
+        }
+
+        for ( String strUrlPattern : _listParameterizedUrlPatterns )
+        {
+            if ( matchParameterizedUrl( request, strRequestUrl, strBaseUrl, strUrlPattern ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Match a pattern containing parameters : the parameters of the pattern found in the request are added to the requested url before the comparison
+     *
+     * @param request
+     *            the request
+     * @param strRequestUrl
+     *            the requested url
+     * @param strBaseUrl
+     *            the base url of the webapp
+     * @param strUrlPattern
+     *            the pattern
+     * @return true if the URL matches the pattern
+     */
+    private static boolean matchParameterizedUrl( HttpServletRequest request, String strRequestUrl, String strBaseUrl, String strUrlPattern )
+    {
+        UrlItem url = new UrlItem( strRequestUrl );
+
+        for ( String strParamPatternValue : strUrlPattern.substring( strUrlPattern.indexOf( Oauth2Utils.URL_INTERROGATIVE ) + 1 )
+                .split( Oauth2Utils.URL_AMPERSAND ) )
+        {
+            String [ ] arrayPatternParamValue = strParamPatternValue.split( Oauth2Utils.URL_EQUAL );
+
+            if ( request.getParameter( arrayPatternParamValue [0] ) != null )
+            {
+                url.addParameter( arrayPatternParamValue [0], request.getParameter( arrayPatternParamValue [0] ) );
+            }
+        }
+
+        String strUrl = strUrlPattern;
+        boolean bPrefix = strUrlPattern.contains( Oauth2Utils.URL_STAR );
+        if ( bPrefix )
+        {
+            strUrl = strUrlPattern.substring( 0, strUrlPattern.indexOf( Oauth2Utils.URL_STAR ) );
+        }
+        if ( !isAbsolute( strUrl ) )
+        {
+            strUrl = strBaseUrl + strUrl;
+        }
+
+        return bPrefix ? url.getUrl( ).startsWith( strUrl ) : url.getUrl( ).equals( strUrl );
+    }
+
+    /**
+     * Tell if an url is absolute
+     *
+     * @param strUrl
+     *            the url
+     * @return true if the url starts with a http scheme
+     */
+    private static boolean isAbsolute( String strUrl )
+    {
+        return strUrl.startsWith( PREFIX_HTTP ) || strUrl.startsWith( PREFIX_HTTPS );
+    }
+
+    /**
+     * Node of a character trie. A node ends either exact patterns or prefix patterns.
+     */
+    private static final class TrieNode
+    {
+        private char [ ] _tabKeys = new char [ 0 ];
+        private TrieNode [ ] _tabChildren = new TrieNode [ 0 ];
+        private boolean _bExact;
+        private boolean _bPrefix;
+
+        private void insert( String strUrl, boolean bPrefix )
+        {
+            TrieNode node = this;
+
+            for ( int i = 0; i < strUrl.length( ); i++ )
+            {
+                node = node.getOrCreateChild( strUrl.charAt( i ) );
+            }
+
+            if ( bPrefix )
+            {
+                node._bPrefix = true;
+            }
+            else
+            {
+                node._bExact = true;
+            }
+        }
+
+        private TrieNode getOrCreateChild( char c )
+        {
+            TrieNode child = getChild( c );
+
+            if ( child == null )
+            {
+                child = new TrieNode( );
+                _tabKeys = Arrays.copyOf( _tabKeys, _tabKeys.length + 1 );
+                _tabChildren = Arrays.copyOf( _tabChildren, _tabChildren.length + 1 );
+                _tabKeys [_tabKeys.length - 1] = c;
+                _tabChildren [_tabChildren.length - 1] = child;
+            }
+
+            return child;
+        }
+
+        private TrieNode getChild( char c )
+        {
+            for ( int i = 0; i < _tabKeys.length; i++ )
+            {
+                if ( _tabKeys [i] == c )
+                {
+                    return _tabChildren [i];
+                }
+            }
+
+            return null;
+        }
+
+        private boolean isEmpty( )
+        {
+            return _tabKeys.length == 0 && !_bExact && !_bPrefix;
+        }
+
+        /**
+         * Tell if the end of a string, from an offset, matches a pattern of the trie
+         */
+        private boolean matches( String strUrl, int nOffset )
+        {
+            TrieNode node = this;
+
+            for ( int i = nOffset; i < strUrl.length( ); i++ )
+            {
+                if ( node._bPrefix )
+                {
+                    return true;
+                }
+
+                node = node.getChild( strUrl.charAt( i ) );
+
+                if ( node == null )
+                {
+                    return false;
+                }
+            }
+
+            return node._bExact || node._bPrefix;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.web;
+
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Utils;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Matcher of the requests which need no authentication refresh (static resources, ...), compiled once from the plugin properties. The path rules are
+ * matched against the servlet path and path info decoded and normalized by the container, never against the raw request URI : a path which still
+ * contains path parameters, encoded or relative segments is not bypassed. Header rules require explicit values ; headers are set by the client, so
+ * they must only designate requests that do not need an up to date admin user.
+ */
+public final class RequestBypassMatcher
+{
+    private static final char EXTENSION_SEPARATOR = '.';
+    private static final char PATH_SEPARATOR = '/';
+    private static final char PATH_PARAMETER_SEPARATOR = ';';
+    private static final char ENCODED_CHARACTER_PREFIX = '%';
+    private static final char BACKSLASH = '\\';
+    private static final String RELATIVE_SEGMENT = "/.";
+    private static final String EMPTY_SEGMENT = "//";
+
+    private final String [ ] _tabExtensions;
+    private final String [ ] _tabPathPrefixes;
+    private final String [ ] _tabHeaderNames;
+    private final Set<String> [ ] _tabHeaderValues;
+
+    /**
+     * Constructor, package-private for the tests : the webapp compiles the matcher from the properties
+     *
+     * @param tabExtensions
+     *            the bypassed extensions
+     * @param tabPathPrefixes
+     *            the bypassed path prefixes, relative to the webapp
+     * @param listHeaderNames
+     *            the bypassing header names
+     * @param listHeaderValues
+     *            the bypassing values of each header
+     */
+    @SuppressWarnings( "unchecked" )
+    RequestBypassMatcher( String [ ] tabExtensions, String [ ] tabPathPrefixes, List<String> listHeaderNames, List<Set<String>> listHeaderValues )
+    {
+        _tabExtensions = tabExtensions;
+        _tabPathPrefixes = tabPathPrefixes;
+        _tabHeaderNames = listHeaderNames.toArray( new String [ 0 ] );
+        _tabHeaderValues = listHeaderValues.toArray( new Set [ 0 ] );
+    }
+
+    /**
+     * Compile the bypass rules from the plugin properties
+     *
+     * @return the matcher
+     */
+    public static RequestBypassMatcher compile( )
+    {
+        List<String> listHeaderNames = new ArrayList<>( );
+        List<Set<String>> listHeaderValues = new ArrayList<>( );
+        String strHeaders = AppPropertiesService.getProperty( Oauth2Utils.PROPERTY_FILTER_BYPASS_HEADERS );
+
+        if ( StringUtils.isNotBlank( strHeaders ) )
+        {
+            for ( String strHeaderName : split( strHeaders ) )
+            {
+                Set<String> setValues = new TreeSet<>( String.CASE_INSENSITIVE_ORDER );
+                setValues.addAll( Arrays.asList( split( AppPropertiesService.getProperty( Oauth2Utils.PROPERTY_FILTER_BYPASS_HEADERS + "." + strHeaderName ) ) ) );
+
+                if ( setValues.isEmpty( ) )
+                {
+                    // the mere presence of a header set by the client must not bypass the authentication refresh
+                    AppLogService.error( "The bypass header " + strHeaderName + " has no value configured, it is ignored" );
+                    continue;
+                }
+
+                listHeaderNames.add( strHeaderName );
+                listHeaderValues.add( setValues );
+            }
+        }
+
+        return new RequestBypassMatcher( split( AppPropertiesService.getProperty( Oauth2Utils.PROPERTY_FILTER_BYPASS_EXTENSIONS ) ),
+                split( AppPropertiesService.getProperty( Oauth2Utils.PROPERTY_FILTER_BYPASS_PATH_PREFIXES ) ), listHeaderNames, listHeaderValues );
+    }
+
+    /**
+     * Split a list property
+     *
+     * @param strValues
+     *            the property value
+     * @return the trimmed non empty values
+     */
+    private static String [ ] split( String strValues )
+    {
+        if ( StringUtils.isBlank( strValues ) )
+        {
+            return new String [ 0 ];
+        }
+
+        return Arrays.stream( strValues.split( Oauth2Utils.SEPARATOR ) ).map( String::trim ).filter( StringUtils::isNotEmpty ).toArray( String [ ]::new );
+    }
+
+    /**
+     * @return true if no bypass rule is configured
+     */
+    public boolean isEmpty( )
+    {
+        return _tabExtensions.length == 0 && _tabPathPrefixes.length == 0 && _tabHeaderNames.length == 0;
+    }
+
+    /**
+     * Tell if a request can bypass the authentication refresh
+     *
+     * @param request
+     *            the request
+     * @return true if the request matches a bypass rule
+     */
+    public boolean matches( HttpServletRequest request )
+    {
+        String strPath = getPath( request );
+
+        if ( strPath != null )
+        {
+            for ( String strPathPrefix : _tabPathPrefixes )
+            {
+                if ( strPath.startsWith( strPathPrefix ) )
+                {
+                    return true;
+                }
+            }
+
+            int nExtensionStart = strPath.lastIndexOf( EXTENSION_SEPARATOR ) + 1;
+
+            if ( nExtensionStart > 0 && strPath.indexOf( PATH_SEPARATOR, nExtensionStart ) < 0 )
+            {
+                int nExtensionLength = strPath.length( ) - nExtensionStart;
+
+                for ( String strExtension : _tabExtensions )
+                {
+                    if ( strExtension.length( ) == nExtensionLength && strPath.regionMatches( true, nExtensionStart, strExtension, 0, nExtensionLength ) )
+                    {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        for ( int i = 0; i < _tabHeaderNames.length; i++ )
+        {
+            String strHeaderValue = request.getHeader( _tabHeaderNames [i] );
+
+            if ( strHeaderValue != null && _tabHeaderValues [i].contains( strHeaderValue ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Get the path of the request within the webapp, as resolved by the container
+     *
+     * @param request
+     *            the request
+     * @return the servlet path followed by the path info, or null if the path is not in a normalized form
+     */
+    private static String getPath( HttpServletRequest request )
+    {
+        String strServletPath = request.getServletPath( );
+        String strPathInfo = request.getPathInfo( );
+        String strPath = ( strPathInfo != null ) ? ( ( strServletPath != null ) ? strServletPath + strPathInfo : strPathInfo ) : strServletPath;
+
+        if ( StringUtils.isEmpty( strPath ) || strPath.indexOf( PATH_PARAMETER_SEPARATOR ) >= 0 || strPath.indexOf( ENCODED_CHARACTER_PREFIX ) >= 0
+                || strPath.indexOf( BACKSLASH ) >= 0 || strPath.contains( RELATIVE_SEGMENT ) || strPath.contains( EMPTY_SEGMENT ) )
+        {
+            return null;
+        }
+
+        return strPath;
+    }
+}
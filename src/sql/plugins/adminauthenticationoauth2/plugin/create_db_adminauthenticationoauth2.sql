@@ -0,0 +1,13 @@
+--
+-- Structure for table adminauthenticationoauth2_user_version
+--
+DROP TABLE IF EXISTS adminauthenticationoauth2_user_version;
+CREATE TABLE adminauthenticationoauth2_user_version (
+	admin_user_name VARCHAR(255) NOT NULL,
+	version BIGINT DEFAULT 0 NOT NULL,
+	origin_node VARCHAR(50) DEFAULT '' NOT NULL,
+	date_update BIGINT DEFAULT 0 NOT NULL,
+	PRIMARY KEY (admin_user_name)
+);
+
+CREATE INDEX index_adminauthenticationoauth2_user_version ON adminauthenticationoauth2_user_version ( date_update );
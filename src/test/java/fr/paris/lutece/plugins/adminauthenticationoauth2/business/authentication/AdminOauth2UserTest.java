@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.business.authentication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import fr.paris.lutece.plugins.oauth2.business.Token;
+import fr.paris.lutece.test.LuteceTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+/**
+ * AdminOauth2User Test : the token survives the serialization of the user, and the token layouts of the other versions of the plugin are read
+ */
+public class AdminOauth2UserTest extends LuteceTestCase
+{
+    private static final String ACCESS_CODE = "admin";
+    private static final String FINGERPRINT = "fingerprint";
+    private static final int EXPIRES_IN = 300;
+    private static final int END_MARKER = 0x5EA1ED;
+
+    /**
+     * Build a token
+     *
+     * @return the token, whose access token exceeds the 64 KB limit of writeUTF
+     */
+    private static Token newToken( )
+    {
+        Token token = new Token( );
+        token.setAccessToken( StringUtils.repeat( "a", 70000 ) );
+        token.setRefreshToken( "refresh-\u00e9" );
+        token.setTokenType( "Bearer" );
+        token.setIdTokenString( null );
+        token.setExpiresIn( EXPIRES_IN );
+
+        return token;
+    }
+
+    private static void assertToken( Token expected, Token actual )
+    {
+        assertNotNull( actual );
+        assertEquals( expected.getAccessToken( ), actual.getAccessToken( ) );
+        assertEquals( expected.getRefreshToken( ), actual.getRefreshToken( ) );
+        assertEquals( expected.getTokenType( ), actual.getTokenType( ) );
+        assertEquals( expected.getIdTokenString( ), actual.getIdTokenString( ) );
+        assertEquals( expected.getExpiresIn( ), actual.getExpiresIn( ) );
+    }
+
+    /**
+     * Serialize then deserialize a user
+     *
+     * @param user
+     *            the user
+     * @return the deserialized user
+     * @throws IOException
+     *             if an error occurs
+     * @throws ClassNotFoundException
+     *             if a class is not found
+     */
+    private static AdminOauth2User roundTrip( AdminOauth2User user ) throws IOException, ClassNotFoundException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( );
+
+        try ( ObjectOutputStream out = new ObjectOutputStream( bytes ) )
+        {
+            out.writeObject( user );
+        }
+
+        try ( ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes.toByteArray( ) ) ) )
+        {
+            return (AdminOauth2User) in.readObject( );
+        }
+    }
+
+    /**
+     * Write the fields of a token as the first layout did
+     *
+     * @param out
+     *            the output
+     * @param token
+     *            the token
+     * @throws IOException
+     *             if an error occurs
+     */
+    private static void writeTokenFields( DataOutputStream out, Token token ) throws IOException
+    {
+        out.writeBoolean( true );
+
+        for ( String strValue : new String [ ] {
+                token.getAccessToken( ), token.getRefreshToken( ), token.getTokenType( ), token.getIdTokenString( )
+        } )
+        {
+            if ( strValue == null )
+            {
+                out.writeInt( -1 );
+            }
+            else
+            {
+                byte [ ] tabValue = strValue.getBytes( StandardCharsets.UTF_8 );
+                out.writeInt( tabValue.length );
+                out.write( tabValue );
+            }
+        }
+
+        out.writeInt( token.getExpiresIn( ) );
+    }
+
+    /**
+     * The user and its token survive the serialization
+     *
+     * @throws Exception
+     *             if an error occurs
+     */
+    @Test
+    public void testRoundTrip( ) throws Exception
+    {
+        Token token = newToken( );
+        AdminOauth2User user = new AdminOauth2User( ACCESS_CODE, token, null );
+        user.setClaimsFingerprint( FINGERPRINT );
+
+        AdminOauth2User copy = roundTrip( user );
+
+        assertEquals( ACCESS_CODE, copy.getAccessCode( ) );
+        assertEquals( FINGERPRINT, copy.getClaimsFingerprint( ) );
+        assertToken( token, copy.getToken( ) );
+    }
+
+    /**
+     * A user without token is deserialized without token
+     *
+     * @throws Exception
+     *             if an error occurs
+     */
+    @Test
+    public void testRoundTripWithoutToken( ) throws Exception
+    {
+        AdminOauth2User copy = roundTrip( new AdminOauth2User( ACCESS_CODE, null, null ) );
+
+        assertEquals( ACCESS_CODE, copy.getAccessCode( ) );
+        assertNull( copy.getToken( ) );
+    }
+
+    /**
+     * The inline layout of the first version is read
+     *
+     * @throws IOException
+     *             if an error occurs
+     */
+    @Test
+    public void testInlineLayout( ) throws IOException
+    {
+        Token token = newToken( );
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( );
+        DataOutputStream out = new DataOutputStream( bytes );
+        out.writeByte( 1 );
+        writeTokenFields( out, token );
+        out.writeInt( END_MARKER );
+
+        DataInputStream in = new DataInputStream( new ByteArrayInputStream( bytes.toByteArray( ) ) );
+        assertToken( token, AdminOauth2User.readToken( in ) );
+        assertEquals( END_MARKER, in.readInt( ) );
+    }
+
+    /**
+     * The fields appended by a newer layout are skipped
+     *
+     * @throws IOException
+     *             if an error occurs
+     */
+    @Test
+    public void testNewerLayout( ) throws IOException
+    {
+        Token token = newToken( );
+        ByteArrayOutputStream block = new ByteArrayOutputStream( );
+        DataOutputStream blockOut = new DataOutputStream( block );
+        writeTokenFields( blockOut, token );
+        blockOut.writeLong( System.currentTimeMillis( ) );
+        blockOut.writeUTF( "a field of a newer version" );
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( );
+        DataOutputStream out = new DataOutputStream( bytes );
+        out.writeByte( 9 );
+        out.writeInt( block.size( ) );
+        out.write( block.toByteArray( ) );
+        out.writeInt( END_MARKER );
+
+        DataInputStream in = new DataInputStream( new ByteArrayInputStream( bytes.toByteArray( ) ) );
+        assertToken( token, AdminOauth2User.readToken( in ) );
+        assertEquals( END_MARKER, in.readInt( ) );
+    }
+
+    /**
+     * The current layout is read back
+     *
+     * @throws IOException
+     *             if an error occurs
+     */
+    @Test
+    public void testCurrentLayout( ) throws IOException
+    {
+        Token token = newToken( );
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( );
+        DataOutputStream out = new DataOutputStream( bytes );
+        AdminOauth2User.writeToken( out, token );
+        AdminOauth2User.writeToken( out, null );
+        out.writeInt( END_MARKER );
+
+        DataInputStream in = new DataInputStream( new ByteArrayInputStream( bytes.toByteArray( ) ) );
+        assertToken( token, AdminOauth2User.readToken( in ) );
+        assertNull( AdminOauth2User.readToken( in ) );
+        assertEquals( END_MARKER, in.readInt( ) );
+    }
+
+    /**
+     * An invalid version is rejected
+     *
+     * @throws IOException
+     *             if an error occurs
+     */
+    @Test
+    public void testInvalidVersion( ) throws IOException
+    {
+        try
+        {
+            AdminOauth2User.readToken( new DataInputStream( new ByteArrayInputStream( new byte [ ] {
+                    0, 0, 0, 0, 0
+            } ) ) );
+            fail( "A token layout version 0 must be rejected" );
+        }
+        catch( StreamCorruptedException e )
+        {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fr.paris.lutece.plugins.adminauthenticationoauth2.business.authentication.AuthDataClient;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.business.authentication.AuthDataClientJson;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.web.AdminOauth2Filter;
+import fr.paris.lutece.plugins.oauth2.business.Token;
+import fr.paris.lutece.plugins.oauth2.dataclient.AbstractDataClient;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.test.LuteceTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockFilterConfig;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+
+/**
+ * Load test of the admin login flow against the stub authorization server : the code is exchanged at the token endpoint, the data clients fetch the
+ * user info and authenticate the user, then the filter serves the requests of the authenticated sessions. The throughput and the latency
+ * percentiles of each step are logged.
+ * <p>
+ * Not run by the unit tests : the load-tests profile runs it with failsafe. The load is set by system properties, a light load by default :
+ * adminauthenticationoauth2.load.concurrency, .warmUpIterations, .iterations, .latencyMillis, .failureRate and .payloadBytes, e.g.
+ * <code>mvn verify -P load-tests -Dadminauthenticationoauth2.load.concurrency=64 -Dadminauthenticationoauth2.load.iterations=2000
+ * -Dadminauthenticationoauth2.load.latencyMillis=20</code>
+ * </p>
+ */
+public class AdminLoginLoadIT extends LuteceTestCase
+{
+    private static final String PROPERTY_PREFIX = "adminauthenticationoauth2.load.";
+    private static final String TOKEN_METHOD_HEADER = "HEADER";
+    private static final String URL_CALLBACK = "/lutece/servlet/plugins/oauth2/callback";
+    private static final String URL_ADMIN_MENU = "/lutece/jsp/admin/AdminMenu.jsp";
+
+    private final int _nConcurrency = Integer.getInteger( PROPERTY_PREFIX + "concurrency", 4 );
+    private final int _nWarmUpIterations = Integer.getInteger( PROPERTY_PREFIX + "warmUpIterations", 5 );
+    private final int _nIterations = Integer.getInteger( PROPERTY_PREFIX + "iterations", 25 );
+    private final double _dFailureRate = Double.parseDouble( System.getProperty( PROPERTY_PREFIX + "failureRate", "0" ) );
+    private final ObjectMapper _mapper = new ObjectMapper( );
+    private StubIdentityProvider _identityProvider;
+    private LoadDriver _driver;
+
+    /**
+     * Start the stub authorization server
+     *
+     * @throws IOException
+     *             if the server cannot be started
+     */
+    @Before
+    public void startIdentityProvider( ) throws IOException
+    {
+        _identityProvider = new StubIdentityProvider( );
+        _identityProvider.setLatencyMillis( Long.getLong( PROPERTY_PREFIX + "latencyMillis", 2 ) );
+        _identityProvider.setFailureRate( _dFailureRate );
+        _identityProvider.setPayloadBytes( Integer.getInteger( PROPERTY_PREFIX + "payloadBytes", 512 ) );
+        _identityProvider.start( );
+        _driver = new LoadDriver( _nConcurrency, _nWarmUpIterations, _nIterations );
+    }
+
+    /**
+     * Stop the stub authorization server
+     */
+    @After
+    public void stopIdentityProvider( )
+    {
+        _identityProvider.stop( );
+    }
+
+    /**
+     * Login through the redirecting data client
+     *
+     * @throws InterruptedException
+     *             if the test is interrupted
+     */
+    @Test
+    public void testAuthDataClient( ) throws InterruptedException
+    {
+        AuthDataClient dataClient = initDataClient( new AuthDataClient( ) );
+
+        LoadDriver.Report report = _driver.run( "AuthDataClient.handleToken", ( nWorker, nIteration ) -> {
+            MockHttpServletResponse response = new MockHttpServletResponse( );
+            dataClient.handleToken( requestToken( nWorker ), new MockHttpServletRequest( "GET", URL_CALLBACK ), response );
+
+            if ( response.getRedirectedUrl( ) == null )
+            {
+                throw new IllegalStateException( "The user has not been authenticated" );
+            }
+
+            logout( );
+        } );
+
+        assertReport( report );
+
+        if ( _dFailureRate == 0 )
+        {
+            assertEquals( ( _nWarmUpIterations + _nIterations ) * _nConcurrency, _identityProvider.getUserInfoRequestCount( ) );
+        }
+    }
+
+    /**
+     * Login through the JSON data client
+     *
+     * @throws InterruptedException
+     *             if the test is interrupted
+     */
+    @Test
+    public void testAuthDataClientJson( ) throws InterruptedException
+    {
+        AuthDataClientJson dataClient = initDataClient( new AuthDataClientJson( ) );
+
+        LoadDriver.Report report = _driver.run( "AuthDataClientJson.handleToken", ( nWorker, nIteration ) -> {
+            MockHttpServletResponse response = new MockHttpServletResponse( );
+            dataClient.handleToken( requestToken( nWorker ), new MockHttpServletRequest( "GET", URL_CALLBACK ), response );
+
+            if ( !response.getContentAsString( ).contains( "true" ) )
+            {
+                throw new IllegalStateException( "The user has not been authenticated : " + response.getContentAsString( ) );
+            }
+        } );
+
+        assertReport( report );
+    }
+
+    /**
+     * Requests of authenticated sessions through the filter
+     *
+     * @throws Exception
+     *             if the sessions cannot be authenticated or if the test is interrupted
+     */
+    @Test
+    public void testFilter( ) throws Exception
+    {
+        AuthDataClient dataClient = initDataClient( new AuthDataClient( ) );
+        MockHttpSession [ ] sessions = new MockHttpSession [ _nConcurrency ];
+
+        // the failures are injected in the requests of the load only
+        _identityProvider.setFailureRate( 0 );
+
+        for ( int i = 0; i < _nConcurrency; i++ )
+        {
+            sessions [i] = new MockHttpSession( );
+
+            MockHttpServletRequest request = new MockHttpServletRequest( "GET", URL_CALLBACK );
+            request.setSession( sessions [i] );
+            dataClient.handleToken( requestToken( i ), request, new MockHttpServletResponse( ) );
+        }
+
+        _identityProvider.setFailureRate( _dFailureRate );
+
+        AdminOauth2Filter filter = new AdminOauth2Filter( );
+        filter.init( new MockFilterConfig( ) );
+
+        LoadDriver.Report report = _driver.run( "AdminOauth2Filter.doFilter", ( nWorker, nIteration ) -> {
+            MockHttpServletRequest request = new MockHttpServletRequest( "GET", URL_ADMIN_MENU );
+            request.setSession( sessions [nWorker] );
+            MockFilterChain chain = new MockFilterChain( );
+            filter.doFilter( request, new MockHttpServletResponse( ), chain );
+
+            if ( chain.getRequest( ) == null )
+            {
+                throw new IllegalStateException( "The request has not been served" );
+            }
+        } );
+
+        assertReport( report );
+    }
+
+    private <T extends AbstractDataClient> T initDataClient( T dataClient )
+    {
+        dataClient.setName( "load" + dataClient.getClass( ).getSimpleName( ) );
+        dataClient.setDataServerUri( _identityProvider.getUri( StubIdentityProvider.PATH_USERINFO ) );
+        dataClient.setTokenMethod( TOKEN_METHOD_HEADER );
+
+        return dataClient;
+    }
+
+    private void assertReport( LoadDriver.Report report )
+    {
+        AppLogService.info( report.toString( ) );
+        assertEquals( _nConcurrency * _nIterations, report.getCount( ) );
+
+        if ( _dFailureRate == 0 )
+        {
+            assertEquals( report.toString( ), 0, report.getErrorCount( ) );
+        }
+        else
+        {
+            assertTrue( report.toString( ), report.getErrorCount( ) <= _identityProvider.getFailureCount( ) );
+        }
+    }
+
+    /**
+     * Exchange the authorization code of a user at the token endpoint, as the callback of the OAuth2 plugin does
+     *
+     * @param nUser
+     *            the index of the user
+     * @return the token
+     * @throws IOException
+     *             if the token endpoint fails
+     */
+    private Token requestToken( int nUser ) throws IOException
+    {
+        String strCode = URLEncoder.encode( StubIdentityProvider.getCode( nUser ), StandardCharsets.UTF_8.name( ) );
+        String strForm = "grant_type=authorization_code&code=" + strCode;
+        JsonNode node = _mapper.readTree( post( StubIdentityProvider.PATH_TOKEN, strForm ) );
+
+        Token token = new Token( );
+        token.setAccessToken( node.path( "access_token" ).asText( ) );
+        token.setRefreshToken( node.path( "refresh_token" ).asText( ) );
+        token.setTokenType( node.path( "token_type" ).asText( ) );
+        token.setExpiresIn( node.path( "expires_in" ).asInt( ) );
+
+        return token;
+    }
+
+    /**
+     * Call the logout endpoint, as the browser redirected there does
+     *
+     * @throws IOException
+     *             if the logout endpoint fails
+     */
+    private void logout( ) throws IOException
+    {
+        post( StubIdentityProvider.PATH_LOGOUT, "" );
+    }
+
+    private byte [ ] post( String strPath, String strForm ) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) new URL( _identityProvider.getUri( strPath ) ).openConnection( );
+        connection.setRequestMethod( "POST" );
+        connection.setDoOutput( true );
+        connection.setRequestProperty( "Content-Type", "application/x-www-form-urlencoded" );
+
+        try ( OutputStream out = connection.getOutputStream( ) )
+        {
+            out.write( strForm.getBytes( StandardCharsets.UTF_8 ) );
+        }
+
+        if ( connection.getResponseCode( ) >= 300 )
+        {
+            throw new IOException( strPath + " : HTTP " + connection.getResponseCode( ) );
+        }
+
+        try ( InputStream in = connection.getInputStream( ) )
+        {
+            return readAll( in );
+        }
+    }
+
+    private static byte [ ] readAll( InputStream in ) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        byte [ ] buffer = new byte [ 4096 ];
+        int nRead;
+
+        while ( ( nRead = in.read( buffer ) ) != -1 )
+        {
+            out.write( buffer, 0, nRead );
+        }
+
+        return out.toByteArray( );
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.load;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load driver : runs a scenario from a fixed number of threads, each thread running its warm-up iterations then, once all the threads are warmed
+ * up, its measured iterations. Every measured latency is kept, so that the percentiles are exact.
+ */
+public final class LoadDriver
+{
+    private final int _nConcurrency;
+    private final int _nWarmUpIterations;
+    private final int _nIterations;
+
+    /**
+     * A step of the load, run by a worker thread
+     */
+    @FunctionalInterface
+    public interface Scenario
+    {
+        /**
+         * Run an iteration
+         *
+         * @param nWorker
+         *            the index of the worker thread, between 0 and the concurrency
+         * @param nIteration
+         *            the index of the iteration in the worker thread
+         * @throws Exception
+         *             if the iteration fails, counted as an error
+         */
+        void run( int nWorker, int nIteration ) throws Exception;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param nConcurrency
+     *            the number of worker threads
+     * @param nWarmUpIterations
+     *            the number of iterations of each thread before the measure
+     * @param nIterations
+     *            the number of measured iterations of each thread
+     */
+    public LoadDriver( int nConcurrency, int nWarmUpIterations, int nIterations )
+    {
+        _nConcurrency = nConcurrency;
+        _nWarmUpIterations = nWarmUpIterations;
+        _nIterations = nIterations;
+    }
+
+    /**
+     * Run a scenario
+     *
+     * @param strName
+     *            the name of the scenario
+     * @param scenario
+     *            the scenario
+     * @return the report of the measured iterations
+     * @throws InterruptedException
+     *             if the current thread is interrupted
+     */
+    public Report run( String strName, Scenario scenario ) throws InterruptedException
+    {
+        long [ ] [ ] tabLatencies = new long [ _nConcurrency ] [ _nIterations ];
+        LongAdder nErrors = new LongAdder( );
+        AtomicLong lStart = new AtomicLong( );
+        CyclicBarrier barrier = new CyclicBarrier( _nConcurrency, ( ) -> lStart.set( System.nanoTime( ) ) );
+        List<Thread> listThreads = new ArrayList<>( _nConcurrency );
+
+        for ( int i = 0; i < _nConcurrency; i++ )
+        {
+            int nWorker = i;
+            Thread thread = new Thread( ( ) -> work( scenario, nWorker, barrier, tabLatencies [nWorker], nErrors ), "load-" + strName + "-" + i );
+            listThreads.add( thread );
+            thread.start( );
+        }
+
+        for ( Thread thread : listThreads )
+        {
+            thread.join( );
+        }
+
+        long lElapsed = System.nanoTime( ) - lStart.get( );
+        long [ ] latencies = new long [ _nConcurrency * _nIterations ];
+
+        for ( int i = 0; i < _nConcurrency; i++ )
+        {
+            System.arraycopy( tabLatencies [i], 0, latencies, i * _nIterations, _nIterations );
+        }
+
+        Arrays.sort( latencies );
+
+        return new Report( strName, latencies, nErrors.sum( ), lElapsed );
+    }
+
+    private void work( Scenario scenario, int nWorker, CyclicBarrier barrier, long [ ] latencies, LongAdder nErrors )
+    {
+        for ( int i = 0; i < _nWarmUpIterations; i++ )
+        {
+            runIteration( scenario, nWorker, i );
+        }
+
+        try
+        {
+            barrier.await( );
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread( ).interrupt( );
+
+            return;
+        }
+        catch( BrokenBarrierException e )
+        {
+            return;
+        }
+
+        for ( int i = 0; i < _nIterations; i++ )
+        {
+            long lStart = System.nanoTime( );
+
+            if ( !runIteration( scenario, nWorker, _nWarmUpIterations + i ) )
+            {
+                nErrors.increment( );
+            }
+
+            latencies [i] = System.nanoTime( ) - lStart;
+        }
+    }
+
+    private static boolean runIteration( Scenario scenario, int nWorker, int nIteration )
+    {
+        try
+        {
+            scenario.run( nWorker, nIteration );
+
+            return true;
+        }
+        catch( Exception e )
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Throughput and latency percentiles of a run
+     */
+    public static final class Report
+    {
+        private final String _strName;
+        private final long [ ] _latencies;
+        private final long _lErrors;
+        private final long _lElapsedNanos;
+
+        Report( String strName, long [ ] latencies, long lErrors, long lElapsedNanos )
+        {
+            _strName = strName;
+            _latencies = latencies;
+            _lErrors = lErrors;
+            _lElapsedNanos = lElapsedNanos;
+        }
+
+        /**
+         * @return the number of measured iterations
+         */
+        public int getCount( )
+        {
+            return _latencies.length;
+        }
+
+        /**
+         * @return the number of failed iterations
+         */
+        public long getErrorCount( )
+        {
+            return _lErrors;
+        }
+
+        /**
+         * @return the number of iterations per second
+         */
+        public double getThroughput( )
+        {
+            return ( _lElapsedNanos > 0 ) ? _latencies.length * (double) TimeUnit.SECONDS.toNanos( 1 ) / _lElapsedNanos : 0;
+        }
+
+        /**
+         * Gets a percentile of the latencies, with the nearest rank method
+         *
+         * @param dPercentile
+         *            the percentile, between 0 and 100
+         * @return the latency in milliseconds
+         */
+        public double getPercentileMillis( double dPercentile )
+        {
+            if ( _latencies.length == 0 )
+            {
+                return 0;
+            }
+
+            int nRank = (int) Math.ceil( dPercentile / 100 * _latencies.length );
+
+            return toMillis( _latencies [Math.max( nRank, 1 ) - 1] );
+        }
+
+        private static double toMillis( long lNanos )
+        {
+            return lNanos / (double) TimeUnit.MILLISECONDS.toNanos( 1 );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString( )
+        {
+            return String.format( Locale.ROOT, "%s : %d iterations, %d errors, %.1f/s, p50 %.2f ms, p99 %.2f ms, p999 %.2f ms, max %.2f ms",
+                    _strName, getCount( ), getErrorCount( ), getThroughput( ), getPercentileMillis( 50 ), getPercentileMillis( 99 ),
+                    getPercentileMillis( 99.9 ), getPercentileMillis( 100 ) );
+        }
+    }
+}
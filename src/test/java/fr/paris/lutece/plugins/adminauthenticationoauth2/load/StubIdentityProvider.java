@@ -0,0 +1,403 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.load;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * In-process stub of the authorization server, serving the token, userinfo and logout endpoints on the loopback interface with a configurable
+ * latency, failure rate and size of the user info documents.
+ * <p>
+ * The authorization code and the refresh token name the user : the code <code>code-&lt;n&gt;</code> is exchanged for the access token
+ * <code>at-&lt;n&gt;-&lt;sequence&gt;</code>, whose userinfo document describes the user <code>loaduser&lt;n&gt;</code>.
+ * </p>
+ */
+public final class StubIdentityProvider
+{
+    public static final String PATH_TOKEN = "/token";
+    public static final String PATH_USERINFO = "/userinfo";
+    public static final String PATH_LOGOUT = "/logout";
+
+    private static final String CODE_PREFIX = "code-";
+    private static final String ACCESS_TOKEN_PREFIX = "at-";
+    private static final String REFRESH_TOKEN_PREFIX = "rt-";
+    private static final String USER_NAME_PREFIX = "loaduser";
+    private static final String BEARER_PREFIX = "Bearer ";
+    private static final String HEADER_AUTHORIZATION = "Authorization";
+    private static final String HEADER_CONTENT_TYPE = "Content-Type";
+    private static final String CONTENT_TYPE_JSON = "application/json";
+    private static final String PARAMETER_CODE = "code";
+    private static final String PARAMETER_REFRESH_TOKEN = "refresh_token";
+    private static final int EXPIRES_IN = 300;
+    private static final int BACKLOG = 1024;
+    private static final int NO_BODY = -1;
+    private static final String PROPERTY_NO_DELAY = "sun.net.httpserver.nodelay";
+
+    private final ObjectMapper _mapper = new ObjectMapper( );
+    private final AtomicLong _lTokenSequence = new AtomicLong( );
+    private final LongAdder _nTokenRequests = new LongAdder( );
+    private final LongAdder _nUserInfoRequests = new LongAdder( );
+    private final LongAdder _nLogoutRequests = new LongAdder( );
+    private final LongAdder _nFailures = new LongAdder( );
+    private final HttpServer _server;
+    private final ExecutorService _executor;
+    private volatile long _lLatencyMillis;
+    private volatile double _dFailureRate;
+    private volatile int _nPayloadBytes;
+
+    /**
+     * Constructor, binding a free port of the loopback interface
+     *
+     * @throws IOException
+     *             if the server cannot be bound
+     */
+    public StubIdentityProvider( ) throws IOException
+    {
+        // without TCP_NODELAY, the headers and the body written separately wait for the delayed ACK of the client, adding 40 ms to every response
+        System.setProperty( PROPERTY_NO_DELAY, Boolean.TRUE.toString( ) );
+
+        _server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress( ), 0 ), BACKLOG );
+        _server.createContext( PATH_TOKEN, this::handleToken );
+        _server.createContext( PATH_USERINFO, this::handleUserInfo );
+        _server.createContext( PATH_LOGOUT, this::handleLogout );
+
+        // one thread per exchange, so that the latency of the stub does not serialize the requests
+        _executor = Executors.newCachedThreadPool( runnable -> {
+            Thread thread = new Thread( runnable, "stub-idp" );
+            thread.setDaemon( true );
+
+            return thread;
+        } );
+        _server.setExecutor( _executor );
+    }
+
+    /**
+     * Start the server
+     */
+    public void start( )
+    {
+        _server.start( );
+    }
+
+    /**
+     * Stop the server
+     */
+    public void stop( )
+    {
+        _server.stop( 0 );
+        _executor.shutdownNow( );
+    }
+
+    /**
+     * Gets the URI of an endpoint
+     *
+     * @param strPath
+     *            the path of the endpoint
+     * @return the URI
+     */
+    public String getUri( String strPath )
+    {
+        return "http://" + _server.getAddress( ).getAddress( ).getHostAddress( ) + ":" + _server.getAddress( ).getPort( ) + strPath;
+    }
+
+    /**
+     * Gets the authorization code of a user
+     *
+     * @param nUser
+     *            the index of the user
+     * @return the code
+     */
+    public static String getCode( int nUser )
+    {
+        return CODE_PREFIX + nUser;
+    }
+
+    /**
+     * Gets the name of a user
+     *
+     * @param nUser
+     *            the index of the user
+     * @return the user name
+     */
+    public static String getUserName( int nUser )
+    {
+        return USER_NAME_PREFIX + nUser;
+    }
+
+    /**
+     * @param lLatencyMillis
+     *            the delay added to every response
+     */
+    public void setLatencyMillis( long lLatencyMillis )
+    {
+        _lLatencyMillis = lLatencyMillis;
+    }
+
+    /**
+     * @param dFailureRate
+     *            the ratio of the requests answered by a 503 error, between 0 and 1
+     */
+    public void setFailureRate( double dFailureRate )
+    {
+        _dFailureRate = dFailureRate;
+    }
+
+    /**
+     * @param nPayloadBytes
+     *            the size of the padding claim of the userinfo documents
+     */
+    public void setPayloadBytes( int nPayloadBytes )
+    {
+        _nPayloadBytes = nPayloadBytes;
+    }
+
+    /**
+     * @return the number of requests received by the token endpoint
+     */
+    public long getTokenRequestCount( )
+    {
+        return _nTokenRequests.sum( );
+    }
+
+    /**
+     * @return the number of requests received by the userinfo endpoint
+     */
+    public long getUserInfoRequestCount( )
+    {
+        return _nUserInfoRequests.sum( );
+    }
+
+    /**
+     * @return the number of requests received by the logout endpoint
+     */
+    public long getLogoutRequestCount( )
+    {
+        return _nLogoutRequests.sum( );
+    }
+
+    /**
+     * @return the number of requests answered by an injected failure
+     */
+    public long getFailureCount( )
+    {
+        return _nFailures.sum( );
+    }
+
+    private void handleToken( HttpExchange exchange ) throws IOException
+    {
+        _nTokenRequests.increment( );
+
+        if ( !delay( exchange ) )
+        {
+            return;
+        }
+
+        Map<String, String> mapParameters = parseForm( exchange.getRequestBody( ) );
+        String strUser = StringUtils.removeStart( mapParameters.get( PARAMETER_CODE ), CODE_PREFIX );
+
+        if ( strUser == null )
+        {
+            strUser = StringUtils.removeStart( mapParameters.get( PARAMETER_REFRESH_TOKEN ), REFRESH_TOKEN_PREFIX );
+        }
+
+        if ( !StringUtils.isNumeric( strUser ) )
+        {
+            send( exchange, 400, "{\"error\":\"invalid_grant\"}" );
+
+            return;
+        }
+
+        Map<String, Object> mapToken = new LinkedHashMap<>( );
+        mapToken.put( "access_token", ACCESS_TOKEN_PREFIX + strUser + "-" + _lTokenSequence.incrementAndGet( ) );
+        mapToken.put( "token_type", "Bearer" );
+        mapToken.put( "expires_in", EXPIRES_IN );
+        mapToken.put( "refresh_token", REFRESH_TOKEN_PREFIX + strUser );
+        send( exchange, 200, toJson( mapToken ) );
+    }
+
+    private void handleUserInfo( HttpExchange exchange ) throws IOException
+    {
+        _nUserInfoRequests.increment( );
+
+        if ( !delay( exchange ) )
+        {
+            return;
+        }
+
+        String strAuthorization = exchange.getRequestHeaders( ).getFirst( HEADER_AUTHORIZATION );
+        String strAccessToken = StringUtils.removeStart( strAuthorization, BEARER_PREFIX );
+        String strUser = StringUtils.substringBetween( strAccessToken, ACCESS_TOKEN_PREFIX, "-" );
+
+        if ( strAuthorization == null || !StringUtils.isNumeric( strUser ) )
+        {
+            send( exchange, 401, "{\"error\":\"invalid_token\"}" );
+
+            return;
+        }
+
+        // the claims read by the default mapping of the plugin
+        Map<String, Object> mapUserInfo = new LinkedHashMap<>( );
+        mapUserInfo.put( "uid", getUserName( Integer.parseInt( strUser ) ) );
+        mapUserInfo.put( "ids.first_name", "Load" );
+        mapUserInfo.put( "ids.preferred_username", "User " + strUser );
+        mapUserInfo.put( "ids.email", getUserName( Integer.parseInt( strUser ) ) + "@example.com" );
+        mapUserInfo.put( "padding", StringUtils.repeat( 'x', _nPayloadBytes ) );
+        send( exchange, 200, toJson( mapUserInfo ) );
+    }
+
+    private void handleLogout( HttpExchange exchange ) throws IOException
+    {
+        _nLogoutRequests.increment( );
+
+        if ( delay( exchange ) )
+        {
+            exchange.sendResponseHeaders( 204, NO_BODY );
+            exchange.close( );
+        }
+    }
+
+    /**
+     * Apply the latency, then the failure rate
+     *
+     * @param exchange
+     *            the exchange
+     * @return false if a failure has been sent
+     * @throws IOException
+     *             if an error occurs
+     */
+    private boolean delay( HttpExchange exchange ) throws IOException
+    {
+        long lLatencyMillis = _lLatencyMillis;
+
+        if ( lLatencyMillis > 0 )
+        {
+            try
+            {
+                TimeUnit.MILLISECONDS.sleep( lLatencyMillis );
+            }
+            catch( InterruptedException e )
+            {
+                Thread.currentThread( ).interrupt( );
+            }
+        }
+
+        if ( _dFailureRate > 0 && ThreadLocalRandom.current( ).nextDouble( ) < _dFailureRate )
+        {
+            _nFailures.increment( );
+            send( exchange, 503, "{\"error\":\"temporarily_unavailable\"}" );
+
+            return false;
+        }
+
+        return true;
+    }
+
+    private String toJson( Map<String, Object> mapValues ) throws IOException
+    {
+        try
+        {
+            return _mapper.writeValueAsString( mapValues );
+        }
+        catch( JsonProcessingException e )
+        {
+            throw new IOException( e );
+        }
+    }
+
+    private static Map<String, String> parseForm( InputStream in ) throws IOException
+    {
+        Map<String, String> mapParameters = new LinkedHashMap<>( );
+        String strForm = new String( readAll( in ), StandardCharsets.UTF_8 );
+
+        for ( String strParameter : StringUtils.split( strForm, '&' ) )
+        {
+            String strName = URLDecoder.decode( StringUtils.substringBefore( strParameter, "=" ), StandardCharsets.UTF_8.name( ) );
+            String strValue = URLDecoder.decode( StringUtils.substringAfter( strParameter, "=" ), StandardCharsets.UTF_8.name( ) );
+            mapParameters.put( strName, strValue );
+        }
+
+        return mapParameters;
+    }
+
+    private static byte [ ] readAll( InputStream in ) throws IOException
+    {
+        try ( InputStream input = in )
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream( );
+            byte [ ] buffer = new byte [ 4096 ];
+            int nRead;
+
+            while ( ( nRead = input.read( buffer ) ) != -1 )
+            {
+                out.write( buffer, 0, nRead );
+            }
+
+            return out.toByteArray( );
+        }
+    }
+
+    private static void send( HttpExchange exchange, int nStatus, String strBody ) throws IOException
+    {
+        byte [ ] body = strBody.getBytes( StandardCharsets.UTF_8 );
+        exchange.getResponseHeaders( ).set( HEADER_CONTENT_TYPE, CONTENT_TYPE_JSON );
+        exchange.sendResponseHeaders( nStatus, body.length );
+
+        try ( OutputStream out = exchange.getResponseBody( ) )
+        {
+            out.write( body );
+        }
+    }
+}
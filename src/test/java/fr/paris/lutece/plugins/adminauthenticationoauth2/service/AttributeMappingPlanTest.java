@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import fr.paris.lutece.plugins.adminauthenticationoauth2.business.authentication.AdminOauth2User;
+import fr.paris.lutece.test.LuteceTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * AttributeMappingPlan Test : the compiled plan must build the same admin users as the per-login mapping it replaces
+ */
+public class AttributeMappingPlanTest extends LuteceTestCase
+{
+    private static final long SEED = 20240501L;
+    private static final int PAYLOADS = 500;
+    private static final String [ ] USER_KEY_NAMES = {
+            "sub", "preferred_username"
+    };
+    private static final String IDENTITY_KEY = "idp_uid";
+    private static final String EMAIL_KEY = "email";
+    private static final String LAST_NAME_KEY = "family_name";
+    private static final String FIRST_NAME_KEY = "given_name";
+
+    // user info key -> claim name
+    private static final Map<String, String> MAPPING = new LinkedHashMap<>( );
+
+    static
+    {
+        MAPPING.put( "user.name.given", FIRST_NAME_KEY );
+        MAPPING.put( "user.name.family", LAST_NAME_KEY );
+        MAPPING.put( "user.home-info.online.email", EMAIL_KEY );
+        MAPPING.put( "user.business-info.online.email", EMAIL_KEY );
+        MAPPING.put( "user.groups", "groups" );
+        MAPPING.put( "user.roles", "roles" );
+        MAPPING.put( "user.department", "department" );
+        MAPPING.put( "user.phone", "phone_number" );
+        MAPPING.put( "user.locale", "locale" );
+    }
+
+    private final Map<String, String> _mapProperties = new HashMap<>( );
+
+    private AttributeMappingPlan compilePlan( )
+    {
+        _mapProperties.put( Oauth2Utils.PROPERTY_USER_KEY_NAME, String.join( Oauth2Utils.SEPARATOR, USER_KEY_NAMES ) );
+        _mapProperties.put( Oauth2Utils.PROPERTY_USER_MAPPING_ATTRIBUTES, String.join( Oauth2Utils.SEPARATOR, MAPPING.keySet( ) ) );
+        for ( Entry<String, String> entry : MAPPING.entrySet( ) )
+        {
+            _mapProperties.put( Oauth2Utils.CONSTANT_LUTECE_USER_PROPERTIES_PATH + "." + entry.getKey( ), entry.getValue( ) );
+        }
+        _mapProperties.put( Oauth2Utils.PROPERTY_IDENTITY_ATTRIBUTE_KEY, IDENTITY_KEY );
+        _mapProperties.put( Oauth2Utils.PROPERTY_EMAIL_ATTRIBUTE_KEY, EMAIL_KEY );
+        _mapProperties.put( Oauth2Utils.PROPERTY_LASTNAME_ATTRIBUTE_KEY, LAST_NAME_KEY );
+        _mapProperties.put( Oauth2Utils.PROPERTY_FIRSTNAME_ATTRIBUTE_KEY, FIRST_NAME_KEY );
+
+        return AttributeMappingPlan.compile( _mapProperties::get );
+    }
+
+    @Test
+    public void testEquivalenceWithPerLoginMapping( )
+    {
+        AttributeMappingPlan plan = compilePlan( );
+        Random random = new Random( SEED );
+        int nUsers = 0;
+
+        for ( int i = 0; i < PAYLOADS; i++ )
+        {
+            Map<String, Object> mapUserInfo = buildUserInfo( random );
+            AdminOauth2User expected = mapPerLogin( mapUserInfo );
+            AdminOauth2User actual = plan.createUser( new HashMap<>( mapUserInfo ), null, null );
+
+            if ( expected == null )
+            {
+                assertNull( actual );
+                continue;
+            }
+
+            nUsers++;
+            assertNotNull( actual );
+            assertEquals( expected.getAccessCode( ), actual.getAccessCode( ) );
+            assertEquals( expected.getEmail( ), actual.getEmail( ) );
+            assertEquals( expected.getLastName( ), actual.getLastName( ) );
+            assertEquals( expected.getFirstName( ), actual.getFirstName( ) );
+            assertEquals( expected.getUserInfos( ), actual.getUserInfos( ) );
+        }
+
+        assertTrue( nUsers > PAYLOADS / 2 );
+    }
+
+    @Test
+    public void testFingerprint( )
+    {
+        AttributeMappingPlan plan = compilePlan( );
+        Map<String, Object> mapUserInfo = buildUserInfo( new Random( SEED ) );
+        mapUserInfo.put( "department", "DSIN" );
+
+        Map<String, Object> mapReordered = new LinkedHashMap<>( );
+        List<String> listClaimNames = new ArrayList<>( mapUserInfo.keySet( ) );
+        for ( int i = listClaimNames.size( ) - 1; i >= 0; i-- )
+        {
+            mapReordered.put( listClaimNames.get( i ), mapUserInfo.get( listClaimNames.get( i ) ) );
+        }
+        assertEquals( plan.getFingerprint( mapUserInfo ), plan.getFingerprint( mapReordered ) );
+
+        // a claim which is not mapped does not change the admin user
+        Map<String, Object> mapUnmappedChange = new HashMap<>( mapUserInfo );
+        mapUnmappedChange.put( "claim_unmapped", "changed" );
+        assertEquals( plan.getFingerprint( mapUserInfo ), plan.getFingerprint( mapUnmappedChange ) );
+
+        Map<String, Object> mapMappedChange = new HashMap<>( mapUserInfo );
+        mapMappedChange.put( "department", "DRH" );
+        assertNotEquals( plan.getFingerprint( mapUserInfo ), plan.getFingerprint( mapMappedChange ) );
+    }
+
+    @Test
+    public void testClaimNames( )
+    {
+        AttributeMappingPlan plan = compilePlan( );
+
+        assertTrue( plan.getClaimNames( ).containsAll( MAPPING.values( ) ) );
+        assertTrue( plan.getClaimNames( ).containsAll( Arrays.asList( USER_KEY_NAMES ) ) );
+        assertTrue( plan.getClaimNames( ).contains( IDENTITY_KEY ) );
+    }
+
+    /**
+     * Build a user info of 30 to 50 claims : the mapped claims are each present or not, with single or multiple values, among unmapped claims
+     *
+     * @param random
+     *            the random generator
+     * @return the user info
+     */
+    private static Map<String, Object> buildUserInfo( Random random )
+    {
+        Map<String, Object> mapUserInfo = new LinkedHashMap<>( );
+        List<String> listClaimNames = new ArrayList<>( Arrays.asList( USER_KEY_NAMES ) );
+        listClaimNames.add( IDENTITY_KEY );
+        listClaimNames.addAll( MAPPING.values( ) );
+
+        for ( String strClaimName : listClaimNames )
+        {
+            if ( random.nextInt( 5 ) > 0 )
+            {
+                mapUserInfo.put( strClaimName, claimValue( random, strClaimName, "groups".equals( strClaimName ) || "roles".equals( strClaimName ) ) );
+            }
+        }
+
+        int nUnmapped = 30 + random.nextInt( 21 ) - mapUserInfo.size( );
+        for ( int i = 0; i < nUnmapped; i++ )
+        {
+            mapUserInfo.put( "claim_" + i, claimValue( random, "claim_" + i, random.nextInt( 4 ) == 0 ) );
+        }
+
+        return mapUserInfo;
+    }
+
+    private static Object claimValue( Random random, String strClaimName, boolean bMultiValued )
+    {
+        if ( !bMultiValued )
+        {
+            return strClaimName + "-" + random.nextInt( 1000 );
+        }
+
+        List<String> listValues = new ArrayList<>( );
+        int nValues = random.nextInt( 4 );
+        for ( int i = 0; i < nValues; i++ )
+        {
+            listValues.add( strClaimName + "-" + random.nextInt( 1000 ) );
+        }
+
+        return listValues;
+    }
+
+    /**
+     * Reference implementation : the mapping done by Oauth2Service.processAuthentication before the compiled plan, reading the properties on each login
+     *
+     * @param mapUserInfo
+     *            the user info
+     * @return the admin user
+     */
+    private AdminOauth2User mapPerLogin( Map<String, Object> mapUserInfo )
+    {
+        Map<String, List<String>> mapUserMapping = new HashMap<>( );
+        for ( String strUserProperty : _mapProperties.get( Oauth2Utils.PROPERTY_USER_MAPPING_ATTRIBUTES ).split( Oauth2Utils.SEPARATOR ) )
+        {
+            String strClaimName = _mapProperties.get( Oauth2Utils.CONSTANT_LUTECE_USER_PROPERTIES_PATH + "." + strUserProperty );
+            mapUserMapping.computeIfAbsent( strClaimName, k -> new ArrayList<>( ) ).add( strUserProperty );
+        }
+
+        AdminOauth2User user = null;
+        for ( String s : _mapProperties.get( Oauth2Utils.PROPERTY_USER_KEY_NAME ).split( Oauth2Utils.SEPARATOR ) )
+        {
+            if ( mapUserInfo.containsKey( s ) )
+            {
+                user = new AdminOauth2User( (String) mapUserInfo.get( s ), null, null );
+            }
+        }
+
+        if ( user == null )
+        {
+            return null;
+        }
+
+        for ( Entry<String, Object> entry : mapUserInfo.entrySet( ) )
+        {
+            if ( mapUserMapping.containsKey( entry.getKey( ) ) )
+            {
+                for ( String strUserInfo : mapUserMapping.get( entry.getKey( ) ) )
+                {
+                    Object val = entry.getValue( );
+                    if ( val instanceof ArrayList<?> )
+                    {
+                        StringBuilder strBufVal = new StringBuilder( );
+                        for ( Object tabVal : (ArrayList<?>) val )
+                        {
+                            strBufVal.append( tabVal.toString( ) );
+                            strBufVal.append( Oauth2Utils.SEPARATOR );
+                        }
+                        user.setUserInfo( strUserInfo, strBufVal.toString( ) );
+                    }
+                    else
+                    {
+                        user.setUserInfo( strUserInfo, (String) val );
+                    }
+                }
+            }
+        }
+
+        String strIdentityKey = user.getAccessCode( );
+        String strIdentityKeyAttribute = _mapProperties.get( Oauth2Utils.PROPERTY_IDENTITY_ATTRIBUTE_KEY );
+        if ( strIdentityKeyAttribute != null && mapUserInfo.containsKey( strIdentityKeyAttribute ) )
+        {
+            strIdentityKey = mapUserInfo.get( strIdentityKeyAttribute ).toString( );
+        }
+        user.setAccessCode( strIdentityKey );
+
+        String strEmailKeyAttribute = _mapProperties.get( Oauth2Utils.PROPERTY_EMAIL_ATTRIBUTE_KEY );
+        if ( strEmailKeyAttribute != null && mapUserInfo.containsKey( strEmailKeyAttribute ) )
+        {
+            user.setEmail( mapUserInfo.get( strEmailKeyAttribute ).toString( ) );
+        }
+
+        String strLastNameKeyAttribute = _mapProperties.get( Oauth2Utils.PROPERTY_LASTNAME_ATTRIBUTE_KEY );
+        if ( strLastNameKeyAttribute != null && mapUserInfo.containsKey( strLastNameKeyAttribute ) )
+        {
+            user.setLastName( mapUserInfo.get( strLastNameKeyAttribute ).toString( ) );
+        }
+
+        String strFirstNameKeyAttribute = _mapProperties.get( Oauth2Utils.PROPERTY_FIRSTNAME_ATTRIBUTE_KEY );
+        if ( strFirstNameKeyAttribute != null && mapUserInfo.containsKey( strFirstNameKeyAttribute ) )
+        {
+            user.setFirstName( mapUserInfo.get( strFirstNameKeyAttribute ).toString( ) );
+        }
+
+        return user;
+    }
+}
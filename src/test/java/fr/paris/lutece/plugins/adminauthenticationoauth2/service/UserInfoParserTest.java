@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.paris.lutece.test.LuteceTestCase;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * UserInfoParser Test : the streaming extraction must give the same claims as the full parsing
+ */
+public class UserInfoParserTest extends LuteceTestCase
+{
+    private static final int GROUPS = 500;
+
+    /**
+     * A large user info document : group list, nested address, numbers, booleans, nulls, escaped strings, a duplicated claim
+     *
+     * @return the document
+     */
+    private static String buildUserInfo( )
+    {
+        StringBuilder sbJson = new StringBuilder( "{" );
+        sbJson.append( "\"sub\":\"f2a5c1e0-1234\"," );
+        sbJson.append( "\"preferred_username\":\"jdoe\"," );
+        sbJson.append( "\"groups\":[" );
+        for ( int i = 0; i < GROUPS; i++ )
+        {
+            sbJson.append( ( i > 0 ) ? "," : "" ).append( "\"/paris/direction/group-" ).append( i ).append( '"' );
+        }
+        sbJson.append( "]," );
+        sbJson.append( "\"address\":{\"street_address\":\"1 place de l'H\\u00f4tel de Ville\",\"locality\":\"Paris\",\"postal_code\":\"75004\"," );
+        sbJson.append( "\"geo\":{\"lat\":48.8566,\"lon\":2.3522,\"tags\":[[1,2],{\"a\":null}]}}," );
+        sbJson.append( "\"email\":\"john.doe@paris.fr\"," );
+        sbJson.append( "\"email_verified\":true," );
+        sbJson.append( "\"updated_at\":1714557600," );
+        sbJson.append( "\"score\":12.5," );
+        sbJson.append( "\"nickname\":null," );
+        sbJson.append( "\"family_name\":\"Doe \\\"Junior\\\"\"," );
+        sbJson.append( "\"given_name\":\"John\"," );
+        sbJson.append( "\"roles\":[\"admin\",\"editor\"]," );
+        sbJson.append( "\"given_name\":\"Johnny\"" );
+        sbJson.append( "}" );
+
+        return sbJson.toString( );
+    }
+
+    @Test
+    public void testSameClaimsAsFullParsing( ) throws IOException
+    {
+        String strJson = buildUserInfo( );
+        Map<String, Object> mapFull = fullParse( strJson );
+        Set<String> setClaimNames = new HashSet<>( Arrays.asList( "sub", "preferred_username", "email", "family_name", "given_name", "roles",
+                "email_verified", "updated_at", "score", "nickname", "address", "missing_claim" ) );
+
+        Map<String, Object> mapStreamed = UserInfoParser.parse( strJson, setClaimNames );
+
+        for ( String strClaimName : setClaimNames )
+        {
+            assertEquals( strClaimName, mapFull.containsKey( strClaimName ), mapStreamed.containsKey( strClaimName ) );
+            assertEquals( strClaimName, mapFull.get( strClaimName ), mapStreamed.get( strClaimName ) );
+        }
+
+        // the unused subtrees are skipped
+        assertFalse( mapStreamed.containsKey( "groups" ) );
+        assertEquals( 11, mapStreamed.size( ) );
+        // the last occurrence of a duplicated claim wins, as in the full parsing
+        assertEquals( "Johnny", mapStreamed.get( "given_name" ) );
+    }
+
+    @Test
+    public void testAllClaims( ) throws IOException
+    {
+        String strJson = buildUserInfo( );
+        Map<String, Object> mapFull = fullParse( strJson );
+
+        assertEquals( mapFull, UserInfoParser.parse( strJson, mapFull.keySet( ) ) );
+        assertEquals( GROUPS, ( (List<?>) mapFull.get( "groups" ) ).size( ) );
+    }
+
+    @Test
+    public void testNoClaim( ) throws IOException
+    {
+        assertTrue( UserInfoParser.parse( buildUserInfo( ), Collections.<String> emptySet( ) ).isEmpty( ) );
+        assertTrue( UserInfoParser.parse( "{}", Collections.singleton( "sub" ) ).isEmpty( ) );
+    }
+
+    @Test
+    public void testNotAnObject( )
+    {
+        try
+        {
+            UserInfoParser.parse( "[\"sub\"]", Collections.singleton( "sub" ) );
+            fail( "An array is not a user info" );
+        }
+        catch( IOException e )
+        {
+            // expected
+        }
+    }
+
+    /**
+     * Reference : full parsing of the document into a map
+     *
+     * @param strJson
+     *            the document
+     * @return the claims
+     * @throws IOException
+     *             if the document is invalid
+     */
+    private static Map<String, Object> fullParse( String strJson ) throws IOException
+    {
+        return new ObjectMapper( ).readValue( strJson, new TypeReference<HashMap<String, Object>>( )
+        {
+        } );
+    }
+}
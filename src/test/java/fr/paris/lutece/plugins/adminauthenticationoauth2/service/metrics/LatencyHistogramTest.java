@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * LatencyHistogram Test : the percentiles exported over JMX are known with the precision of the buckets
+ */
+public class LatencyHistogramTest
+{
+    private static final int VALUES = 10000;
+    private static final double PRECISION = 0.125;
+
+    /**
+     * Record the latencies 1 microsecond to 10 ms
+     *
+     * @return the histogram
+     */
+    private static LatencyHistogram newHistogram( )
+    {
+        LatencyHistogram histogram = new LatencyHistogram( );
+
+        for ( int i = 1; i <= VALUES; i++ )
+        {
+            histogram.record( TimeUnit.MICROSECONDS.toNanos( i ) );
+        }
+
+        return histogram;
+    }
+
+    private static void assertPercentile( double dExpectedMillis, double dActualMillis )
+    {
+        assertTrue( dActualMillis + " < " + dExpectedMillis, dActualMillis >= dExpectedMillis );
+        assertTrue( dActualMillis + " > " + dExpectedMillis, dActualMillis <= dExpectedMillis * ( 1 + PRECISION ) );
+    }
+
+    /**
+     * The percentiles are the upper bound of their bucket, never above the max
+     */
+    @Test
+    public void testPercentiles( )
+    {
+        LatencyHistogram histogram = newHistogram( );
+
+        assertEquals( VALUES, histogram.getCount( ) );
+        assertEquals( 10, histogram.getMaxMillis( ), 0 );
+        assertEquals( 5.0005, histogram.getMeanMillis( ), 0.000001 );
+        assertPercentile( 5, histogram.getPercentileMillis( 50 ) );
+        assertPercentile( 9.9, histogram.getPercentileMillis( 99 ) );
+        assertPercentile( 9.99, histogram.getPercentileMillis( 99.9 ) );
+        assertEquals( 10, histogram.getPercentileMillis( 100 ), 0 );
+        assertPercentile( 0.001, histogram.getPercentileMillis( 0 ) );
+    }
+
+    /**
+     * An empty or reset histogram reports zeros
+     */
+    @Test
+    public void testEmpty( )
+    {
+        LatencyHistogram histogram = newHistogram( );
+        histogram.reset( );
+
+        assertEquals( 0, histogram.getCount( ) );
+        assertEquals( 0, histogram.getMeanMillis( ), 0 );
+        assertEquals( 0, histogram.getMaxMillis( ), 0 );
+        assertEquals( 0, histogram.getPercentileMillis( 99 ), 0 );
+    }
+
+    /**
+     * No value is lost by concurrent recordings
+     *
+     * @throws InterruptedException
+     *             if the test is interrupted
+     */
+    @Test
+    public void testConcurrentRecords( ) throws InterruptedException
+    {
+        LatencyHistogram histogram = new LatencyHistogram( );
+        List<Thread> listThreads = new ArrayList<>( );
+
+        for ( int i = 0; i < 4; i++ )
+        {
+            long lNanos = TimeUnit.MILLISECONDS.toNanos( i + 1 );
+            Thread thread = new Thread( ( ) -> {
+                for ( int j = 0; j < VALUES; j++ )
+                {
+                    histogram.record( lNanos );
+                }
+            } );
+            listThreads.add( thread );
+            thread.start( );
+        }
+
+        for ( Thread thread : listThreads )
+        {
+            thread.join( );
+        }
+
+        assertEquals( 4L * VALUES, histogram.getCount( ) );
+        assertEquals( 4, histogram.getMaxMillis( ), 0 );
+        assertEquals( 2.5, histogram.getMeanMillis( ), 0 );
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service.resilience;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import fr.paris.lutece.plugins.adminauthenticationoauth2.business.authentication.AdminOauth2UserInfo;
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.RefreshTokenRejectedException;
+import fr.paris.lutece.plugins.oauth2.business.Token;
+import fr.paris.lutece.test.LuteceTestCase;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+/**
+ * Oauth2ProfileService Test : the circuit breaker follows the answers of the authorization server, a rejected refresh token being an answer
+ */
+public class Oauth2ProfileServiceTest extends LuteceTestCase
+{
+    private static final String ACCESS_CODE = "admin";
+    private static final long MAX_STALENESS = 60000L;
+    private static final int MAX_SIZE = 10;
+
+    private static Token newToken( String strRefreshToken )
+    {
+        Token token = new Token( );
+        token.setAccessToken( "access-" + strRefreshToken );
+        token.setRefreshToken( strRefreshToken );
+
+        return token;
+    }
+
+    /**
+     * Open a circuit with no open delay, so that the next call is a trial call
+     *
+     * @param profileService
+     *            the profile service
+     */
+    private static void openCircuit( Oauth2ProfileService profileService )
+    {
+        try
+        {
+            profileService.getUserInfo( ACCESS_CODE, newToken( "failing" ), ( ) -> {
+                throw new IOException( "unavailable" );
+            } );
+            fail( "The failure should be thrown without cached profile" );
+        }
+        catch( IOException e )
+        {
+            assertEquals( CircuitBreaker.State.OPEN, profileService.getCircuitBreaker( ).getState( ) );
+        }
+    }
+
+    /**
+     * A trial call answered by the rejection of the refresh token closes the circuit : the following calls reach the authorization server
+     *
+     * @throws IOException
+     *             if a retrieval fails
+     */
+    @Test
+    public void testHalfOpenRejectedToken( ) throws IOException
+    {
+        Oauth2ProfileService profileService = new Oauth2ProfileService( true, MAX_STALENESS, MAX_SIZE, new CircuitBreaker( 1, 0L ) );
+        openCircuit( profileService );
+
+        try
+        {
+            profileService.getUserInfo( ACCESS_CODE, newToken( "rejected" ), ( ) -> {
+                throw new RefreshTokenRejectedException( "invalid_grant" );
+            } );
+            fail( "The rejection should be thrown" );
+        }
+        catch( RefreshTokenRejectedException e )
+        {
+            assertEquals( CircuitBreaker.State.CLOSED, profileService.getCircuitBreaker( ).getState( ) );
+        }
+
+        long lRejectedCount = profileService.getCircuitBreaker( ).getRejectedCount( );
+        Token token = newToken( "valid" );
+        AdminOauth2UserInfo userInfo = profileService.getUserInfo( ACCESS_CODE, token, ( ) -> new AdminOauth2UserInfo( token, new HashMap<>( ) ) );
+
+        assertFalse( userInfo.isCached( ) );
+        assertEquals( lRejectedCount, profileService.getCircuitBreaker( ).getRejectedCount( ) );
+    }
+
+    /**
+     * A trial call failing again opens the circuit again
+     */
+    @Test
+    public void testHalfOpenFailure( )
+    {
+        Oauth2ProfileService profileService = new Oauth2ProfileService( true, MAX_STALENESS, MAX_SIZE, new CircuitBreaker( 1, 0L ) );
+        openCircuit( profileService );
+        openCircuit( profileService );
+
+        assertEquals( 2, profileService.getCircuitBreaker( ).getOpenedCount( ) );
+    }
+}
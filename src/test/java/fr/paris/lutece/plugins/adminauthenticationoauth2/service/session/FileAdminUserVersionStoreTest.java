@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * FileAdminUserVersionStore Test : the notifications written by a node are read once by the other nodes, never by the node itself, across the
+ * rotations of the files
+ */
+public class FileAdminUserVersionStoreTest
+{
+    private static final int ROTATION_SECONDS = 60;
+
+    private final AtomicLong _lNow = new AtomicLong( TimeUnit.DAYS.toMillis( 1 ) );
+    private Path _directory;
+    private FileAdminUserVersionStore _node1;
+    private FileAdminUserVersionStore _node2;
+
+    /**
+     * Two nodes sharing the files of a temporary directory
+     *
+     * @throws IOException
+     *             if the directory cannot be created
+     */
+    @Before
+    public void setUp( ) throws IOException
+    {
+        _directory = Files.createTempDirectory( "adminauthenticationoauth2" );
+        _node1 = newNode( );
+        _node2 = newNode( );
+
+        // the first poll only positions the nodes at the end of the files
+        _node1.pollUpdatedVersions( );
+        _node2.pollUpdatedVersions( );
+    }
+
+    /**
+     * Delete the temporary directory
+     *
+     * @throws IOException
+     *             if a file cannot be deleted
+     */
+    @After
+    public void tearDown( ) throws IOException
+    {
+        try ( Stream<Path> stream = Files.list( _directory ) )
+        {
+            for ( Path path : (Iterable<Path>) stream::iterator )
+            {
+                Files.delete( path );
+            }
+        }
+
+        Files.delete( _directory );
+    }
+
+    /**
+     * Create a node
+     *
+     * @return the version store of the node
+     */
+    private FileAdminUserVersionStore newNode( )
+    {
+        FileAdminUserVersionStore store = new FileAdminUserVersionStore( _lNow::get );
+        store.setFilePath( _directory.resolve( "versions" ).toString( ) );
+        store.setRotationSeconds( ROTATION_SECONDS );
+
+        return store;
+    }
+
+    /**
+     * The notifications are read by the other node only, and only once
+     */
+    @Test
+    public void testRoundTrip( )
+    {
+        _node1.incrementVersions( Arrays.asList( "admin1", "admin2" ) );
+        _node2.incrementVersions( Collections.singletonList( "admin3" ) );
+
+        assertEquals( new HashSet<>( Arrays.asList( "admin1", "admin2" ) ), _node2.pollUpdatedVersions( ) );
+        assertEquals( Collections.singleton( "admin3" ), _node1.pollUpdatedVersions( ) );
+        assertTrue( _node1.pollUpdatedVersions( ).isEmpty( ) );
+        assertTrue( _node2.pollUpdatedVersions( ).isEmpty( ) );
+
+        _node1.incrementVersions( Collections.singletonList( "admin1" ) );
+        assertEquals( Collections.singleton( "admin1" ), _node2.pollUpdatedVersions( ) );
+    }
+
+    /**
+     * A node started after a notification does not read it
+     */
+    @Test
+    public void testNewNode( )
+    {
+        _node1.incrementVersions( Collections.singletonList( "admin1" ) );
+
+        FileAdminUserVersionStore node3 = newNode( );
+        node3.pollUpdatedVersions( );
+        assertTrue( node3.pollUpdatedVersions( ).isEmpty( ) );
+        assertEquals( Collections.singleton( "admin1" ), _node2.pollUpdatedVersions( ) );
+    }
+
+    /**
+     * The notifications written in the previous file are still read after a rotation, and the older files are deleted
+     *
+     * @throws IOException
+     *             if the directory cannot be listed
+     */
+    @Test
+    public void testRotation( ) throws IOException
+    {
+        for ( int i = 0; i < 4; i++ )
+        {
+            // a late notification of the previous period
+            _node1.incrementVersions( Collections.singletonList( "admin" + i ) );
+            _lNow.addAndGet( TimeUnit.SECONDS.toMillis( ROTATION_SECONDS ) );
+            _node1.incrementVersions( Collections.singletonList( "other" + i ) );
+
+            assertEquals( new HashSet<>( Arrays.asList( "admin" + i, "other" + i ) ), _node2.pollUpdatedVersions( ) );
+        }
+
+        try ( Stream<Path> stream = Files.list( _directory ) )
+        {
+            assertEquals( 2, stream.count( ) );
+        }
+    }
+}
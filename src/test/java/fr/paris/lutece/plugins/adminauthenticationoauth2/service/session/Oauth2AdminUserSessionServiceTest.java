@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service.session;
+
+import static org.junit.Assert.assertEquals;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.test.LuteceTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.junit.Test;
+
+/**
+ * Oauth2AdminUserSessionService Test : the shared registry, read by the requests and written by the notifications and the session events at the same
+ * time, never loses a stale flag
+ */
+public class Oauth2AdminUserSessionServiceTest extends LuteceTestCase
+{
+    private static final int USERS = 32;
+    private static final int SESSIONS_PER_USER = 4;
+    private static final int SESSIONS = USERS * SESSIONS_PER_USER;
+    private static final int OPERATIONS_PER_THREAD = 100000;
+    private static final int CHURN_SESSIONS = 16;
+
+    /**
+     * Concurrent readers and writers of the registry, with an increasing number of threads. Each run checks that every notification has been seen by
+     * a reload of each session of the user, or is still pending ; the throughputs are logged.
+     *
+     * @throws Exception
+     *             if a thread fails
+     */
+    @Test
+    public void testConcurrentReadersAndWriters( ) throws Exception
+    {
+        int nMaxThreads = Math.max( 2, 2 * Runtime.getRuntime( ).availableProcessors( ) );
+
+        for ( int nThreads = 2; nThreads <= nMaxThreads; nThreads *= 2 )
+        {
+            long lOperationsPerSecond = run( "registry" + nThreads + "-", nThreads );
+            AppLogService.info( "Admin user session registry : " + nThreads + " threads, " + lOperationsPerSecond + " ops/s" );
+        }
+    }
+
+    /**
+     * Run the readers and the writers then check the stale flags
+     *
+     * @param strPrefix
+     *            the prefix of the users and the sessions of the run, the registry being shared by the runs
+     * @param nThreads
+     *            the number of threads, half of them readers
+     * @return the throughput in operations per second
+     * @throws Exception
+     *             if a thread fails
+     */
+    private static long run( String strPrefix, int nThreads ) throws Exception
+    {
+        IOauth2AdminUserSessionService service = new Oauth2AdminUserSessionService( );
+        AtomicLongArray notifications = new AtomicLongArray( USERS );
+        AtomicLongArray reloads = new AtomicLongArray( SESSIONS );
+
+        for ( int i = 0; i < SESSIONS; i++ )
+        {
+            service.addAdminUserSession( getUser( strPrefix, i / SESSIONS_PER_USER ), getSession( strPrefix, i ) );
+        }
+
+        int nReaders = nThreads / 2;
+        ExecutorService executor = Executors.newFixedThreadPool( nThreads );
+        CountDownLatch latchStart = new CountDownLatch( 1 );
+        List<Future<?>> listFutures = new ArrayList<>( );
+
+        try
+        {
+            for ( int i = 0; i < nThreads; i++ )
+            {
+                int nThread = i;
+                listFutures.add( executor.submit( ( ) -> {
+                    latchStart.await( );
+
+                    if ( nThread < nReaders )
+                    {
+                        read( service, strPrefix, nThread, notifications, reloads );
+                    }
+                    else
+                    {
+                        write( service, strPrefix, nThread, notifications );
+                    }
+
+                    return null;
+                } ) );
+            }
+
+            long lStart = System.nanoTime( );
+            latchStart.countDown( );
+
+            for ( Future<?> future : listFutures )
+            {
+                future.get( 120, TimeUnit.SECONDS );
+            }
+
+            long lElapsed = Math.max( 1, System.nanoTime( ) - lStart );
+
+            // once quiescent, a session is either still stale or its last reload has seen every notification of its user
+            for ( int i = 0; i < SESSIONS; i++ )
+            {
+                if ( service.isAdminUserUpToDate( getSession( strPrefix, i ) ) )
+                {
+                    assertEquals( "session " + i, notifications.get( i / SESSIONS_PER_USER ), reloads.get( i ) );
+                }
+            }
+
+            assertEquals( SESSIONS, countSessions( service, strPrefix ) );
+
+            return ( (long) OPERATIONS_PER_THREAD * nThreads * TimeUnit.SECONDS.toNanos( 1 ) ) / lElapsed;
+        }
+        finally
+        {
+            executor.shutdownNow( );
+
+            for ( int i = 0; i < SESSIONS; i++ )
+            {
+                service.removeAdminUserSession( getSession( strPrefix, i ) );
+            }
+        }
+    }
+
+    /**
+     * The requests : the one winning the reload records the notifications of the user it has seen
+     */
+    private static void read( IOauth2AdminUserSessionService service, String strPrefix, int nThread, AtomicLongArray notifications,
+            AtomicLongArray reloads )
+    {
+        for ( int n = 0; n < OPERATIONS_PER_THREAD; n++ )
+        {
+            int nSession = ( nThread + n * 7 ) % SESSIONS;
+            String strSession = getSession( strPrefix, nSession );
+            service.touchAdminUserSession( strSession );
+
+            if ( !service.isAdminUserUpToDate( strSession ) )
+            {
+                long lSeen = notifications.get( nSession / SESSIONS_PER_USER );
+                reloads.accumulateAndGet( nSession, lSeen, Math::max );
+            }
+        }
+    }
+
+    /**
+     * The notifications, single and bulk, and sessions of the same users created and destroyed
+     */
+    private static void write( IOauth2AdminUserSessionService service, String strPrefix, int nThread, AtomicLongArray notifications )
+    {
+        for ( int n = 0; n < OPERATIONS_PER_THREAD; n++ )
+        {
+            int nUser = ( nThread * 31 + n * 13 ) % USERS;
+
+            switch( n % 8 )
+            {
+                case 0:
+                case 4:
+                    String strSession = strPrefix + "churn" + nThread + "-" + ( n % CHURN_SESSIONS );
+                    service.addAdminUserSession( getUser( strPrefix, nUser ), strSession );
+                    service.removeAdminUserSession( strSession );
+                    break;
+                case 1:
+                    int nOtherUser = ( nUser + 1 ) % USERS;
+                    notifications.incrementAndGet( nUser );
+                    notifications.incrementAndGet( nOtherUser );
+                    service.notifyAdminUsersUpdating( Arrays.asList( getUser( strPrefix, nUser ), getUser( strPrefix, nOtherUser ) ) );
+                    break;
+                default:
+                    notifications.incrementAndGet( nUser );
+                    service.notifyAdminUserUpdating( getUser( strPrefix, nUser ) );
+                    break;
+            }
+        }
+    }
+
+    private static int countSessions( IOauth2AdminUserSessionService service, String strPrefix )
+    {
+        int nSessions = 0;
+
+        for ( String strSession : service.getAdminUserSessions( ).keySet( ) )
+        {
+            if ( strSession.startsWith( strPrefix ) )
+            {
+                nSessions++;
+            }
+        }
+
+        return nSessions;
+    }
+
+    private static String getUser( String strPrefix, int nUser )
+    {
+        return strPrefix + "user" + nUser;
+    }
+
+    private static String getSession( String strPrefix, int nSession )
+    {
+        return strPrefix + "session" + nSession;
+    }
+}
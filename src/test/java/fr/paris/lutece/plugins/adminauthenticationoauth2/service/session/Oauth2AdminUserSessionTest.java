@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Oauth2AdminUserSession Test : the up to date flag of a session is reset by a single request
+ */
+public class Oauth2AdminUserSessionTest
+{
+    private static final String ADMIN_USER_NAME = "admin";
+    private static final int THREADS = 16;
+    private static final int ROUNDS = 200;
+
+    @Test
+    public void testMarkUpToDate( )
+    {
+        Oauth2AdminUserSession session = new Oauth2AdminUserSession( ADMIN_USER_NAME, false );
+
+        assertFalse( session.isUpToDate( ) );
+        assertTrue( session.markUpToDate( ) );
+        assertTrue( session.isUpToDate( ) );
+        assertFalse( session.markUpToDate( ) );
+
+        session.setUpToDate( false );
+        assertTrue( session.markUpToDate( ) );
+    }
+
+    @Test
+    public void testUpToDateSessionIsNeverMarked( )
+    {
+        Oauth2AdminUserSession session = new Oauth2AdminUserSession( ADMIN_USER_NAME, true );
+
+        assertFalse( session.markUpToDate( ) );
+        assertTrue( session.isUpToDate( ) );
+        assertEquals( ADMIN_USER_NAME, session.getAdminUserName( ) );
+    }
+
+    /**
+     * Each time the session is marked stale, exactly one of the concurrent requests must win the reload
+     *
+     * @throws Exception
+     *             if a thread fails
+     */
+    @Test
+    public void testSingleWinnerUnderContention( ) throws Exception
+    {
+        Oauth2AdminUserSession session = new Oauth2AdminUserSession( ADMIN_USER_NAME, true );
+        ExecutorService executor = Executors.newFixedThreadPool( THREADS );
+
+        try
+        {
+            for ( int nRound = 0; nRound < ROUNDS; nRound++ )
+            {
+                session.setUpToDate( false );
+
+                CountDownLatch latchStart = new CountDownLatch( 1 );
+                AtomicInteger nWinners = new AtomicInteger( );
+                List<Future<?>> listFutures = new ArrayList<>( );
+
+                for ( int i = 0; i < THREADS; i++ )
+                {
+                    listFutures.add( executor.submit( ( ) -> {
+                        latchStart.await( );
+
+                        if ( session.markUpToDate( ) )
+                        {
+                            nWinners.incrementAndGet( );
+                        }
+
+                        return null;
+                    } ) );
+                }
+
+                latchStart.countDown( );
+
+                for ( Future<?> future : listFutures )
+                {
+                    future.get( 10, TimeUnit.SECONDS );
+                }
+
+                assertEquals( "round " + nRound, 1, nWinners.get( ) );
+                assertTrue( session.isUpToDate( ) );
+            }
+        }
+        finally
+        {
+            executor.shutdownNow( );
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.service.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * SessionRegistrySnapshot Test
+ */
+public class SessionRegistrySnapshotTest
+{
+    private Path _directory;
+    private Path _path;
+
+    /**
+     * Create a temporary directory
+     *
+     * @throws IOException
+     *             if the directory cannot be created
+     */
+    @Before
+    public void setUp( ) throws IOException
+    {
+        _directory = Files.createTempDirectory( "adminauthenticationoauth2" );
+        _path = _directory.resolve( "sessions.bin" );
+    }
+
+    /**
+     * Delete the temporary directory
+     *
+     * @throws IOException
+     *             if a file cannot be deleted
+     */
+    @After
+    public void tearDown( ) throws IOException
+    {
+        try ( Stream<Path> stream = Files.list( _directory ) )
+        {
+            for ( Path path : (Iterable<Path>) stream::iterator )
+            {
+                Files.delete( path );
+            }
+        }
+
+        Files.delete( _directory );
+    }
+
+    /**
+     * The sessions are read back with their state
+     *
+     * @throws IOException
+     *             if an error occurs
+     */
+    @Test
+    public void testRoundTrip( ) throws IOException
+    {
+        assertNull( SessionRegistrySnapshot.read( _path ) );
+
+        Map<String, String> mapSessions = new HashMap<>( );
+        mapSessions.put( "session1", "admin1" );
+        mapSessions.put( "session2", "admin\u00e9" );
+        mapSessions.put( "session3", "admin1" );
+        SessionRegistrySnapshot.write( _path, mapSessions, Collections.singleton( "session2" ) );
+
+        SessionRegistrySnapshot snapshot = SessionRegistrySnapshot.read( _path );
+        assertEquals( mapSessions, snapshot.getSessions( ) );
+        assertEquals( Collections.singleton( "session2" ), snapshot.getStaleSessions( ) );
+
+        // the previous snapshot is replaced
+        SessionRegistrySnapshot.write( _path, Collections.singletonMap( "session4", "admin4" ), Collections.emptySet( ) );
+        snapshot = SessionRegistrySnapshot.read( _path );
+        assertEquals( Collections.singletonMap( "session4", "admin4" ), snapshot.getSessions( ) );
+        assertEquals( Collections.emptySet( ), snapshot.getStaleSessions( ) );
+    }
+
+    /**
+     * The snapshot holding session ids, it is readable by its owner only
+     *
+     * @throws IOException
+     *             if an error occurs
+     */
+    @Test
+    public void testOwnerOnly( ) throws IOException
+    {
+        if ( !FileSystems.getDefault( ).supportedFileAttributeViews( ).contains( "posix" ) )
+        {
+            return;
+        }
+
+        // a temporary file left with wider permissions by a crash
+        Path pathTemporary = _directory.resolve( "sessions.bin.tmp" );
+        Files.createFile( pathTemporary, PosixFilePermissions.asFileAttribute( PosixFilePermissions.fromString( "rw-rw-rw-" ) ) );
+
+        SessionRegistrySnapshot.write( _path, Collections.singletonMap( "session1", "admin1" ), Collections.emptySet( ) );
+
+        assertEquals( "rw-------", PosixFilePermissions.toString( Files.getPosixFilePermissions( _path ) ) );
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import fr.paris.lutece.plugins.adminauthenticationoauth2.service.Oauth2Utils;
+import fr.paris.lutece.portal.service.util.AppPathService;
+import fr.paris.lutece.test.LuteceTestCase;
+import fr.paris.lutece.util.url.UrlItem;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+/**
+ * PromptNoneWhiteListMatcher Test : the compiled matcher must white list exactly the requests white listed by the per-request matching of the
+ * filter it replaces
+ */
+public class PromptNoneWhiteListMatcherTest extends LuteceTestCase
+{
+    private static final int PATTERN_GROUPS = 20;
+    private static final String HEADER_AJAX = "X-Requested-With";
+    private static final String HEADER_CLIENT = "X-Lutece-Client";
+
+    private final List<String> _listUrlPatterns = new ArrayList<>( );
+    private final Map<String, List<String>> _mapHeaders = new LinkedHashMap<>( );
+    private URL _baseUrl;
+
+    /**
+     * 120 URL patterns of every kind : relative and absolute, exact and prefix, with and without parameters
+     *
+     * @throws MalformedURLException
+     *             if the base URL of the webapp is invalid
+     */
+    private void initWhiteList( ) throws MalformedURLException
+    {
+        _baseUrl = new URL( AppPathService.getBaseUrl( new MockHttpServletRequest( ) ) );
+
+        for ( int i = 0; i < PATTERN_GROUPS; i++ )
+        {
+            _listUrlPatterns.add( "jsp/admin/plugins/exact" + i + "/Manage.jsp" );
+            _listUrlPatterns.add( "jsp/admin/plugins/prefix" + i + "/*" );
+            _listUrlPatterns.add( "http://sso.example.com/app/page" + i + ".jsp" );
+            _listUrlPatterns.add( "https://cdn.example.com/static/" + i + "/*" );
+            _listUrlPatterns.add( "jsp/admin/plugins/param" + i + "/Page.jsp?view=list" );
+            _listUrlPatterns.add( "jsp/admin/plugins/paramprefix" + i + "/*?plugin_name=p&id=1" );
+        }
+
+        _mapHeaders.put( HEADER_AJAX, Arrays.asList( "XMLHttpRequest" ) );
+        _mapHeaders.put( HEADER_CLIENT, Arrays.asList( "batch", "Monitoring" ) );
+    }
+
+    private PromptNoneWhiteListMatcher compileMatcher( )
+    {
+        List<Set<String>> listHeaderValues = new ArrayList<>( );
+
+        for ( List<String> listValues : _mapHeaders.values( ) )
+        {
+            Set<String> setValues = new TreeSet<>( String.CASE_INSENSITIVE_ORDER );
+            setValues.addAll( listValues );
+            listHeaderValues.add( setValues );
+        }
+
+        return new PromptNoneWhiteListMatcher( _listUrlPatterns, new ArrayList<>( _mapHeaders.keySet( ) ), listHeaderValues );
+    }
+
+    @Test
+    public void testEquivalenceWithPerRequestMatching( ) throws Exception
+    {
+        initWhiteList( );
+
+        PromptNoneWhiteListMatcher matcher = compileMatcher( );
+        int nWhiteListed = 0;
+        int nRequests = 0;
+
+        for ( MockHttpServletRequest request : buildRequests( ) )
+        {
+            boolean bExpected = isWhiteListedByPatterns( request );
+
+            assertEquals( request.getRequestURL( ) + " " + request.getParameterMap( ).keySet( ) + " " + Collections.list( request.getHeaderNames( ) ),
+                    bExpected, matcher.matches( request ) );
+
+            if ( bExpected )
+            {
+                nWhiteListed++;
+            }
+            nRequests++;
+        }
+
+        // both white listed and not white listed requests have been compared
+        assertTrue( nWhiteListed > PATTERN_GROUPS );
+        assertTrue( nRequests - nWhiteListed > PATTERN_GROUPS );
+    }
+
+    @Test
+    public void testEmptyWhiteList( ) throws Exception
+    {
+        initWhiteList( );
+
+        PromptNoneWhiteListMatcher matcher = new PromptNoneWhiteListMatcher( new ArrayList<>( ), new ArrayList<>( ), new ArrayList<>( ) );
+
+        for ( MockHttpServletRequest request : buildRequests( ) )
+        {
+            assertFalse( matcher.matches( request ) );
+        }
+    }
+
+    /**
+     * Requests matching the patterns and near misses of each pattern
+     *
+     * @return the requests
+     */
+    private List<MockHttpServletRequest> buildRequests( )
+    {
+        List<MockHttpServletRequest> listRequests = new ArrayList<>( );
+
+        for ( int i = 0; i < PATTERN_GROUPS; i++ )
+        {
+            listRequests.add( relative( "jsp/admin/plugins/exact" + i + "/Manage.jsp" ) );
+            listRequests.add( relative( "jsp/admin/plugins/exact" + i + "/Manage.jspx" ) );
+            listRequests.add( relative( "jsp/admin/plugins/exact" + i + "/manage.jsp" ) );
+            listRequests.add( relative( "jsp/admin/plugins/exact" + i ) );
+            listRequests.add( relative( "jsp/admin/plugins/prefix" + i + "/" ) );
+            listRequests.add( relative( "jsp/admin/plugins/prefix" + i + "/sub/Page.jsp" ) );
+            listRequests.add( relative( "jsp/admin/plugins/prefix" + i ) );
+            listRequests.add( relative( "jsp/admin/plugins/prefix" + i + "0/Page.jsp" ) );
+            listRequests.add( absolute( "http", "sso.example.com", 80, "/app/page" + i + ".jsp" ) );
+            listRequests.add( absolute( "http", "sso.example.com", 80, "/app/page" + i + ".jsp/more" ) );
+            listRequests.add( absolute( "https", "sso.example.com", 443, "/app/page" + i + ".jsp" ) );
+            listRequests.add( absolute( "https", "cdn.example.com", 443, "/static/" + i + "/style.css" ) );
+            listRequests.add( absolute( "https", "cdn.example.com", 8443, "/static/" + i + "/style.css" ) );
+            listRequests.add( absolute( "http", "cdn.example.com", 80, "/static/" + i + "/style.css" ) );
+
+            MockHttpServletRequest request = relative( "jsp/admin/plugins/param" + i + "/Page.jsp" );
+            request.addParameter( "view", "list" );
+            listRequests.add( request );
+
+            request = relative( "jsp/admin/plugins/param" + i + "/Page.jsp" );
+            request.addParameter( "view", "detail" );
+            listRequests.add( request );
+
+            listRequests.add( relative( "jsp/admin/plugins/param" + i + "/Page.jsp" ) );
+
+            request = relative( "jsp/admin/plugins/param" + i + "/Page.jsp" );
+            request.addParameter( "view", "list" );
+            request.addParameter( "other", "1" );
+            listRequests.add( request );
+
+            request = relative( "jsp/admin/plugins/paramprefix" + i + "/Page.jsp" );
+            request.addParameter( "plugin_name", "p" );
+            request.addParameter( "id", "1" );
+            listRequests.add( request );
+
+            request = relative( "jsp/admin/plugins/paramprefix" + i + "/Page.jsp" );
+            request.addParameter( "id", "2" );
+            listRequests.add( request );
+
+            listRequests.add( relative( "jsp/admin/plugins/paramprefix" + i + "/Page.jsp" ) );
+
+            request = relative( "jsp/admin/AdminMenu.jsp" );
+            request.addHeader( ( i % 2 == 0 ) ? HEADER_AJAX : HEADER_AJAX.toLowerCase( ), ( i % 3 == 0 ) ? "xmlhttprequest" : "XMLHttpRequest" );
+            listRequests.add( request );
+
+            request = relative( "jsp/admin/AdminMenu.jsp" );
+            request.addHeader( HEADER_AJAX, "fetch" );
+            listRequests.add( request );
+
+            request = relative( "jsp/admin/AdminMenu.jsp" );
+            request.addHeader( HEADER_CLIENT, ( i % 2 == 0 ) ? "BATCH" : "monitoring" );
+            listRequests.add( request );
+
+            request = relative( "jsp/admin/AdminMenu.jsp" );
+            request.addHeader( "X-Other", "batch" );
+            listRequests.add( request );
+        }
+
+        return listRequests;
+    }
+
+    /**
+     * Build a request of the webapp
+     *
+     * @param strPath
+     *            the path relative to the webapp root
+     * @return the request
+     */
+    private MockHttpServletRequest relative( String strPath )
+    {
+        String strContextPath = _baseUrl.getPath( ).endsWith( "/" ) ? _baseUrl.getPath( ) : ( _baseUrl.getPath( ) + "/" );
+        int nPort = ( _baseUrl.getPort( ) != -1 ) ? _baseUrl.getPort( ) : _baseUrl.getDefaultPort( );
+        MockHttpServletRequest request = absolute( _baseUrl.getProtocol( ), _baseUrl.getHost( ), nPort, strContextPath + strPath );
+        request.setContextPath( strContextPath.substring( 0, strContextPath.length( ) - 1 ) );
+
+        return request;
+    }
+
+    private static MockHttpServletRequest absolute( String strScheme, String strHost, int nPort, String strRequestUri )
+    {
+        MockHttpServletRequest request = new MockHttpServletRequest( "GET", strRequestUri );
+        request.setScheme( strScheme );
+        request.setServerName( strHost );
+        request.setServerPort( nPort );
+        request.setSecure( "https".equals( strScheme ) );
+
+        return request;
+    }
+
+    /**
+     * Reference implementation : the per-request matching of the white lists done by the filter before the compiled matcher
+     *
+     * @param request
+     *            the request
+     * @return true if the request is white listed
+     */
+    private boolean isWhiteListedByPatterns( HttpServletRequest request )
+    {
+        boolean bHeaderMatch = _mapHeaders.keySet( ).stream( ).anyMatch(
+                x -> request.getHeader( x ) != null && _mapHeaders.get( x ).stream( ).anyMatch( v -> v.equalsIgnoreCase( request.getHeader( x ) ) ) );
+
+        return bHeaderMatch || _listUrlPatterns.stream( ).anyMatch( x -> matchUrl( request, x ) );
+    }
+
+    private static boolean matchUrl( HttpServletRequest request, String strUrlPatern )
+    {
+        UrlItem url = new UrlItem( request.getRequestURL( ).toString( ) );
+
+        if ( strUrlPatern.contains( Oauth2Utils.URL_INTERROGATIVE ) )
+        {
+            for ( String strParamPatternValue : strUrlPatern.substring( strUrlPatern.indexOf( Oauth2Utils.URL_INTERROGATIVE ) + 1 )
+                    .split( Oauth2Utils.URL_AMPERSAND ) )
+            {
+                String [ ] arrayPatternParamValue = strParamPatternValue.split( Oauth2Utils.URL_EQUAL );
+
+                if ( request.getParameter( arrayPatternParamValue [0] ) != null )
+                {
+                    url.addParameter( arrayPatternParamValue [0], request.getParameter( arrayPatternParamValue [0] ) );
+                }
+            }
+        }
+
+        if ( strUrlPatern.contains( Oauth2Utils.URL_STAR ) )
+        {
+            String strUrlPaternLeftEnd = strUrlPatern.substring( 0, strUrlPatern.indexOf( Oauth2Utils.URL_STAR ) );
+
+            return url.getUrl( ).startsWith( getAbsoluteUrl( request, strUrlPaternLeftEnd ) );
+        }
+
+        return url.getUrl( ).equals( getAbsoluteUrl( request, strUrlPatern ) );
+    }
+
+    private static String getAbsoluteUrl( HttpServletRequest request, String strUrl )
+    {
+        if ( !strUrl.startsWith( "http://" ) && !strUrl.startsWith( "https://" ) )
+        {
+            return AppPathService.getBaseUrl( request ) + strUrl;
+        }
+
+        return strUrl;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2002-2023, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationoauth2.web;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+/**
+ * RequestBypassMatcher Test : only the paths resolved by the container and the configured header values bypass the authentication refresh
+ */
+public class RequestBypassMatcherTest
+{
+    private static final String CONTEXT_PATH = "/lutece";
+    private static final String STATIC_PREFIX = "/jsp/admin/plugins/xxx/static/";
+    private static final String HEADER_HEALTH_CHECK = "X-Health-Check";
+
+    private final RequestBypassMatcher _matcher = new RequestBypassMatcher( new String [ ] {
+            "css", "js"
+    }, new String [ ] {
+            STATIC_PREFIX
+    }, Collections.singletonList( HEADER_HEALTH_CHECK ), Collections.singletonList( values( "true" ) ) );
+
+    /**
+     * Build the value set of a header rule
+     *
+     * @param values
+     *            the values
+     * @return the set
+     */
+    private static Set<String> values( String... values )
+    {
+        Set<String> setValues = new TreeSet<>( String.CASE_INSENSITIVE_ORDER );
+        setValues.addAll( Arrays.asList( values ) );
+
+        return setValues;
+    }
+
+    /**
+     * Build a request as resolved by the container
+     *
+     * @param strRequestUri
+     *            the raw request URI
+     * @param strServletPath
+     *            the servlet path decoded and normalized by the container
+     * @param strPathInfo
+     *            the path info
+     * @return the request
+     */
+    private static MockHttpServletRequest request( String strRequestUri, String strServletPath, String strPathInfo )
+    {
+        MockHttpServletRequest request = new MockHttpServletRequest( );
+        request.setContextPath( CONTEXT_PATH );
+        request.setRequestURI( strRequestUri );
+        request.setServletPath( strServletPath );
+        request.setPathInfo( strPathInfo );
+
+        return request;
+    }
+
+    /**
+     * The static resources are bypassed
+     */
+    @Test
+    public void testStaticResources( )
+    {
+        assertTrue( _matcher.matches( request( "/lutece/css/admin/style.CSS", "/css/admin/style.CSS", null ) ) );
+        assertTrue( _matcher.matches( request( "/lutece/jsp/admin/plugins/xxx/static/logo", "/jsp/admin/plugins/xxx/static/logo", null ) ) );
+        assertTrue( _matcher.matches( request( "/lutece/servlet/plugins/xxx/app.js", "/servlet/plugins", "/xxx/app.js" ) ) );
+        assertFalse( _matcher.matches( request( "/lutece/jsp/admin/AdminMenu.jsp", "/jsp/admin/AdminMenu.jsp", null ) ) );
+        assertFalse( _matcher.matches( request( "/lutece/jsp/admin/x.css/AdminMenu.jsp", "/jsp/admin/x.css/AdminMenu.jsp", null ) ) );
+    }
+
+    /**
+     * A path parameter in the raw URI does not make a page look like a static resource
+     */
+    @Test
+    public void testPathParameter( )
+    {
+        assertFalse( _matcher.matches( request( "/lutece/jsp/admin/AdminMenu.jsp;x.css", "/jsp/admin/AdminMenu.jsp", null ) ) );
+        assertFalse( _matcher.matches( request( "/lutece/jsp/admin/AdminMenu.jsp;x.css", "/jsp/admin/AdminMenu.jsp;x.css", null ) ) );
+    }
+
+    /**
+     * A relative or encoded path does not escape from a bypassed prefix
+     */
+    @Test
+    public void testTraversal( )
+    {
+        assertFalse( _matcher.matches( request( "/lutece/jsp/admin/plugins/xxx/static/../../../AdminMenu.jsp", "/jsp/admin/AdminMenu.jsp", null ) ) );
+        assertFalse( _matcher.matches( request( "/lutece/jsp/admin/plugins/xxx/static/%2e%2e/AdminMenu.jsp", "/jsp/admin/AdminMenu.jsp", null ) ) );
+
+        // a container which would not normalize the path
+        assertFalse( _matcher.matches( request( "/lutece/jsp/admin/plugins/xxx/static/../../../AdminMenu.jsp",
+                "/jsp/admin/plugins/xxx/static/../../../AdminMenu.jsp", null ) ) );
+        assertFalse( _matcher.matches( request( "/lutece/jsp/admin/plugins/xxx/static/%2e%2e/AdminMenu.jsp",
+                "/jsp/admin/plugins/xxx/static/%2e%2e/AdminMenu.jsp", null ) ) );
+        assertFalse( _matcher.matches( request( "/lutece/jsp/admin/plugins/xxx/static/..%5CAdminMenu.jsp",
+                "/jsp/admin/plugins/xxx/static/..\\AdminMenu.jsp", null ) ) );
+    }
+
+    /**
+     * Only the configured header values are bypassed
+     */
+    @Test
+    public void testHeaders( )
+    {
+        MockHttpServletRequest request = request( "/lutece/jsp/admin/AdminMenu.jsp", "/jsp/admin/AdminMenu.jsp", null );
+        assertFalse( _matcher.matches( request ) );
+
+        request.addHeader( HEADER_HEALTH_CHECK, "false" );
+        assertFalse( _matcher.matches( request ) );
+
+        request = request( "/lutece/jsp/admin/AdminMenu.jsp", "/jsp/admin/AdminMenu.jsp", null );
+        request.addHeader( HEADER_HEALTH_CHECK, "TRUE" );
+        assertTrue( _matcher.matches( request ) );
+    }
+}